@@ -5,13 +5,33 @@ import ru.fomenkov.plugin.params.PluginParams
 import ru.fomenkov.plugin.params.PluginParamsReader
 import ru.fomenkov.plugin.repository.JetifiedJarRepository
 import ru.fomenkov.plugin.repository.MetadataArtifactDependencyResolver
+import ru.fomenkov.plugin.repository.SourceReferenceIndex
+import ru.fomenkov.plugin.repository.parser.ImportParser
 import ru.fomenkov.plugin.repository.parser.JetifiedResourceParser
 import ru.fomenkov.plugin.repository.parser.MetadataDescriptionParser
+import ru.fomenkov.plugin.repository.parser.SourceFileReader
+import ru.fomenkov.plugin.server.BuildClient
+import ru.fomenkov.plugin.server.BuildServer
+import ru.fomenkov.plugin.task.compile.ClasspathStamps
 import ru.fomenkov.plugin.task.compile.CompileTask
+import ru.fomenkov.plugin.task.compile.D8Compiler
+import ru.fomenkov.plugin.task.compile.JavacCompiler
+import ru.fomenkov.plugin.task.compile.KotlinCompiler
 import ru.fomenkov.plugin.task.resolve.ProjectResolveTask
+import ru.fomenkov.plugin.task.resolve.ProjectResolverCache
 import ru.fomenkov.plugin.task.resolve.ProjectResolverInput
 import ru.fomenkov.plugin.task.resolve.ProjectResolverOutput
+import ru.fomenkov.plugin.util.CURRENT_DIR
 import ru.fomenkov.plugin.util.Telemetry
+import ru.fomenkov.plugin.util.exec
+import ru.fomenkov.plugin.util.getSubprocessCount
+import ru.fomenkov.plugin.util.noTilda
+import ru.fomenkov.plugin.util.resetSubprocessCount
+import ru.fomenkov.runner.DESCRIPTORS_CACHE_FILE
+import ru.fomenkov.runner.GREENCAT_JAR
+import ru.fomenkov.runner.REFERENCE_INDEX_FILE
+import ru.fomenkov.runner.TRANSFORMS_INDEX_FILE
+import java.io.File
 import java.util.concurrent.Executors
 
 private const val GRADLE_PROPERTIES_FILE_NAME = "gradle.properties"
@@ -19,31 +39,89 @@ private const val GRADLE_SETTINGS_FILE_NAME = "settings.gradle"
 private const val PLUGIN_VERSION = "2.4"
 private val cpuCount = Runtime.getRuntime().availableProcessors()
 private val executor = Executors.newFixedThreadPool(cpuCount)
+private val javacCompiler = JavacCompiler()
+private val kotlinCompiler = KotlinCompiler()
+private val d8Compiler = D8Compiler()
+
+// Kept in memory between builds in server mode
+private val projectResolverCache = ProjectResolverCache()
+private var artifactResolver: MetadataArtifactDependencyResolver? = null
+private var referenceIndex: SourceReferenceIndex? = null
+private val classpathStamps = ClasspathStamps(File("$CURRENT_DIR/.gradle"))
 
 fun main(args: Array<String>) = try {
     Telemetry.isVerbose = false
-    launch(args)
 
+    when (args.size == 2 && args.first() == Param.SERVER.key) {
+        true -> startServer(greencatRoot = args.last())
+        else -> forwardOrBuild(args)
+    }
+} catch (error: Throwable) {
+    reportError(error)
+} finally {
+    javacCompiler.close()
+    executor.shutdown()
+}
+
+// Forward to the resident server if it's running, otherwise build locally and start the server for the next builds
+private fun forwardOrBuild(args: Array<String>) {
+    val params = readParams(args) ?: return
+
+    if (BuildClient(params.greencatRoot).build(PLUGIN_VERSION, args) == BuildClient.Status.UNAVAILABLE) {
+        build(params)
+        startServerInBackground(params.greencatRoot)
+    }
+}
+
+// Detached from the build session: no stdin and output, so the remote shell doesn't wait for the server
+private fun startServerInBackground(greencatRoot: String) {
+    exec("nohup java -jar $greencatRoot/$GREENCAT_JAR ${Param.SERVER.key} $greencatRoot < /dev/null > /dev/null 2>&1 &")
+}
+
+private fun startServer(greencatRoot: String) {
+    val server = BuildServer(
+        greencatRoot = greencatRoot,
+        version = PLUGIN_VERSION,
+        warmUp = { getArtifactResolver(greencatRoot) },
+        build = { args -> build(PluginParamsReader(args).read()) },
+    )
+    server.run()
+}
+
+private fun build(params: PluginParams) = try {
+    launch(params)
+    true
 } catch (error: Throwable) {
+    reportError(error)
+    false
+}
+
+private fun reportError(error: Throwable) {
     when (error.message.isNullOrBlank()) {
         true -> Telemetry.err("Build failed")
         else -> Telemetry.err("Build failed: ${error.message}")
     }
     Telemetry.err(error.stackTraceToString())
-} finally {
-    executor.shutdown()
 }
 
-private fun launch(args: Array<String>) {
-    val params = readParams(args) ?: throw IllegalArgumentException("No arguments provided")
-    try {
-        compile(params, resolveProject(params), showErrorLogs = false)
+private fun launch(params: PluginParams) {
+    resetSubprocessCount()
+    val projectInfo = resolveProject(params)
+
+    // Classpath of all modules is resolved just now -> nothing to rebuild on failure
+    if (projectInfo.resolvedModules.containsAll(projectInfo.sourceFilesMap.keys)) {
+        compile(params, projectInfo, showErrorLogs = true)
+    } else try {
+        compile(params, projectInfo, showErrorLogs = false)
     } catch (_: Throwable) {
         // Second attempt. May be useful when classpath is invalid -> rebuild classpath and try once again
         Telemetry.log("Module classpath may be invalid -> rebuild & try once again")
+        artifactResolver = null
+        projectResolverCache.clear()
         compile(params, resolveProject(params), showErrorLogs = true)
     }
     Telemetry.log("DEX file successfully generated")
+    Telemetry.verboseLog("Subprocesses spawned: ${getSubprocessCount()}")
 }
 
 private fun resolveProject(params: PluginParams): ProjectResolverOutput {
@@ -54,11 +132,29 @@ private fun resolveProject(params: PluginParams): ProjectResolverOutput {
         greencatRoot = params.greencatRoot,
         mappedModules = params.mappedModules,
     )
+    return ProjectResolveTask(
+        input = input,
+        artifactResolver = getArtifactResolver(params.greencatRoot),
+        executor = executor,
+        cache = projectResolverCache,
+        referenceIndex = getReferenceIndex(params.greencatRoot),
+    ).run()
+}
+
+private fun getReferenceIndex(greencatRoot: String) = referenceIndex ?: run {
+    val indexFile = File("$greencatRoot/$REFERENCE_INDEX_FILE".noTilda())
+    SourceReferenceIndex(indexFile, SourceFileReader(ImportParser()))
+        .also { index -> referenceIndex = index }
+}
+
+private fun getArtifactResolver(greencatRoot: String) = artifactResolver ?: run {
     val jetifiedResourceParser = JetifiedResourceParser()
-    val jetifiedJarRepository = JetifiedJarRepository(jetifiedResourceParser)
-    val metadataDescriptionParser = MetadataDescriptionParser()
-    val artifactResolver = MetadataArtifactDependencyResolver(jetifiedJarRepository, metadataDescriptionParser)
-    return ProjectResolveTask(input, artifactResolver).run()
+    val transformsIndexFile = File("$greencatRoot/$TRANSFORMS_INDEX_FILE".noTilda())
+    val jetifiedJarRepository = JetifiedJarRepository(jetifiedResourceParser, transformsIndexFile)
+    val descriptorsCacheFile = File("$greencatRoot/$DESCRIPTORS_CACHE_FILE".noTilda())
+    val metadataDescriptionParser = MetadataDescriptionParser(descriptorsCacheFile)
+    MetadataArtifactDependencyResolver(jetifiedJarRepository, metadataDescriptionParser)
+        .also { resolver -> artifactResolver = resolver }
 }
 
 private fun compile(params: PluginParams, projectInfo: ProjectResolverOutput, showErrorLogs: Boolean) {
@@ -69,6 +165,10 @@ private fun compile(params: PluginParams, projectInfo: ProjectResolverOutput, sh
         mappedModules = params.mappedModules,
         projectInfo = projectInfo,
         executor = executor,
+        javacCompiler = javacCompiler,
+        kotlinCompiler = kotlinCompiler,
+        d8Compiler = d8Compiler,
+        classpathStamps = classpathStamps,
         showErrorLogs = showErrorLogs,
     ).run()
 }
@@ -86,4 +186,4 @@ private fun readParams(args: Array<String>) = when {
         }
     }
     else -> PluginParamsReader(args).read()
-}
\ No newline at end of file
+}
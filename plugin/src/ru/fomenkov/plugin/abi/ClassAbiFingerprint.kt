@@ -0,0 +1,291 @@
+package ru.fomenkov.plugin.abi
+
+import ru.fomenkov.plugin.util.ContentHash
+import java.io.ByteArrayInputStream
+import java.io.DataInputStream
+
+/**
+ * Fingerprint of the class ABI, independent of constant pool layout: names, access flags and signatures of the class
+ * and its non-private members, constant values, annotations (Kotlin metadata as well) and instructions
+ * of Kotlin inline functions, because they're copied into callers. Bodies of other methods and debug info are ignored,
+ * so the fingerprint is the same after body-only changes
+ */
+object ClassAbiFingerprint {
+
+    /**
+     * @param isInlined class is copied into callers along with inline functions, e.g. anonymous class or lambda
+     * 'FooKt${'$'}foo${'$'}1' -> all its members and instructions are a part of the ABI
+     */
+    fun of(bytes: ByteArray, isInlined: Boolean = false) = read(bytes, isInlined).fingerprint
+
+    fun read(bytes: ByteArray, isInlined: Boolean = false): Abi {
+        val input = DataInputStream(ByteArrayInputStream(bytes))
+
+        if (input.readInt() != MAGIC) {
+            error("Not a class file")
+        }
+        input.readInt() // Minor and major versions
+
+        val pool = ConstantPool.read(input)
+        val isKotlin = pool.hasUtf8(KOTLIN_METADATA)
+        val hash = ContentHash()
+        val accessFlags = input.readUnsignedShort() and CLASS_ABI_FLAGS
+        val className = pool.render(input.readUnsignedShort())
+        val superClassName = pool.render(input.readUnsignedShort())
+        val interfaces = (0 until input.readUnsignedShort()).map { pool.render(input.readUnsignedShort()) }
+        hash.update("class $accessFlags $className : $superClassName ${interfaces.joinToString()}")
+
+        // Member order doesn't matter for callers
+        val members = mutableListOf<String>()
+        val referencedClasses = mutableSetOf<String>()
+
+        listOf("field", "method").forEach { kind ->
+            repeat(input.readUnsignedShort()) {
+                val memberFlags = input.readUnsignedShort()
+                val name = pool.render(input.readUnsignedShort())
+                val descriptor = pool.render(input.readUnsignedShort())
+                val isInline = isInlined || isKotlin && pool.hasUtf8("$INLINE_FUNCTION_MARKER$name")
+                val attributes = readAttributes(input, pool, withCode = isInline, referencedClasses)
+
+                if (isInlined || memberFlags and (ACC_PRIVATE or ACC_SYNTHETIC) == 0) {
+                    members += "$kind ${memberFlags and MEMBER_ABI_FLAGS} $name $descriptor $attributes"
+                }
+            }
+        }
+        members.sorted().forEach(hash::update)
+        hash.update(readAttributes(input, pool, withCode = false, referencedClasses))
+        return Abi(hash.digest(), referencedClasses)
+    }
+
+    // Attributes which affect compilation of callers, rendered with resolved constants
+    private fun readAttributes(
+        input: DataInputStream,
+        pool: ConstantPool,
+        withCode: Boolean,
+        referencedClasses: MutableSet<String>,
+    ): String {
+        val builder = StringBuilder()
+
+        repeat(input.readUnsignedShort()) {
+            val name = pool.render(input.readUnsignedShort())
+            val data = ByteArray(input.readInt()).also(input::readFully)
+            val attribute = DataInputStream(ByteArrayInputStream(data))
+
+            when (name) {
+                "Signature", "ConstantValue" -> builder.append(" $name ${pool.render(attribute.readUnsignedShort())}")
+                "Exceptions" -> {
+                    builder.append(" $name")
+                    repeat(attribute.readUnsignedShort()) { builder.append(" ${pool.render(attribute.readUnsignedShort())}") }
+                }
+                "RuntimeVisibleAnnotations", "RuntimeInvisibleAnnotations" -> {
+                    builder.append(" $name")
+                    repeat(attribute.readUnsignedShort()) { readAnnotation(attribute, pool, builder) }
+                }
+                "RuntimeVisibleParameterAnnotations", "RuntimeInvisibleParameterAnnotations" -> {
+                    builder.append(" $name")
+                    repeat(attribute.readUnsignedByte()) { parameter ->
+                        builder.append(" #$parameter")
+                        repeat(attribute.readUnsignedShort()) { readAnnotation(attribute, pool, builder) }
+                    }
+                }
+                "AnnotationDefault" -> {
+                    builder.append(" $name")
+                    readElementValue(attribute, pool, builder)
+                }
+                "Code" -> if (withCode) {
+                    builder.append(" $name")
+                    readCode(attribute, pool, builder, referencedClasses)
+                }
+            }
+        }
+        return builder.toString()
+    }
+
+    private fun readAnnotation(input: DataInputStream, pool: ConstantPool, builder: StringBuilder) {
+        builder.append(" @${pool.render(input.readUnsignedShort())}(")
+
+        repeat(input.readUnsignedShort()) {
+            builder.append(" ${pool.render(input.readUnsignedShort())}=")
+            readElementValue(input, pool, builder)
+        }
+        builder.append(")")
+    }
+
+    private fun readElementValue(input: DataInputStream, pool: ConstantPool, builder: StringBuilder) {
+        when (val tag = input.readUnsignedByte().toChar()) {
+            'e' -> builder.append(" ${pool.render(input.readUnsignedShort())}.${pool.render(input.readUnsignedShort())}")
+            '@' -> readAnnotation(input, pool, builder)
+            '[' -> {
+                builder.append(" [")
+                repeat(input.readUnsignedShort()) { readElementValue(input, pool, builder) }
+                builder.append("]")
+            }
+            else -> builder.append(" $tag ${pool.render(input.readUnsignedShort())}") // Constants and classes
+        }
+    }
+
+    // Instructions with resolved constant pool operands and exception table. Line numbers and local variables are skipped
+    private fun readCode(input: DataInputStream, pool: ConstantPool, builder: StringBuilder, referencedClasses: MutableSet<String>) {
+        input.readInt() // Max stack and locals
+        val code = ByteArray(input.readInt()).also(input::readFully)
+        var pc = 0
+
+        fun u1(offset: Int) = code[pc + offset].toInt() and 0xFF
+        fun u2(offset: Int) = u1(offset) shl 8 or u1(offset + 1)
+        fun s4(offset: Int) = u2(offset) shl 16 or u2(offset + 2)
+
+        while (pc < code.size) {
+            val opcode = u1(0)
+            val constantIndex = when (opcode) {
+                LDC -> u1(1)
+                in CONSTANT_OPCODES, INVOKEINTERFACE, INVOKEDYNAMIC, MULTIANEWARRAY -> u2(1)
+                else -> NO_CONSTANT
+            }
+            val length = when (opcode) {
+                TABLESWITCH -> {
+                    val padding = 3 - pc % 4
+                    1 + padding + 12 + (s4(padding + 9) - s4(padding + 5) + 1) * 4 // Default, low, high and offsets
+                }
+                LOOKUPSWITCH -> {
+                    val padding = 3 - pc % 4
+                    1 + padding + 8 + s4(padding + 5) * 8 // Default, count and pairs
+                }
+                WIDE -> if (u1(1) == IINC) 6 else 4
+                else -> INSTRUCTION_LENGTHS[opcode]
+            }
+            val rawStart = when (constantIndex) {
+                NO_CONSTANT -> pc
+                else -> {
+                    builder.append(" $opcode ${pool.render(constantIndex)}")
+                    pool.getClassName(constantIndex)?.let(referencedClasses::add)
+                    pc + if (opcode == LDC) 2 else 3
+                }
+            }
+            (rawStart until pc + length).forEach { index -> builder.append(" ${code[index]}") }
+            pc += length
+        }
+        repeat(input.readUnsignedShort()) {
+            builder.append(" catch ${input.readUnsignedShort()} ${input.readUnsignedShort()} ${input.readUnsignedShort()}")
+            builder.append(" ${pool.render(input.readUnsignedShort())}")
+        }
+    }
+
+    private class ConstantPool(
+        private val tags: IntArray,
+        private val values: Array<Any?>, // String or number for values, IntArray of indices for references
+    ) {
+        private val utf8 by lazy { values.filterIsInstance<String>().toSet() }
+
+        fun hasUtf8(value: String) = value in utf8
+
+        // Class itself or the owner class of the field or method
+        fun getClassName(index: Int) = when (tags[index]) {
+            CONSTANT_CLASS -> render(index)
+            in CONSTANT_MEMBER_REFS -> render((values[index] as IntArray)[0])
+            else -> null
+        }
+
+        fun render(index: Int): String {
+            if (index == 0) {
+                return ""
+            }
+            val value = values[index]
+
+            return when (tags[index]) {
+                CONSTANT_UTF8, CONSTANT_INTEGER, CONSTANT_FLOAT, CONSTANT_LONG, CONSTANT_DOUBLE -> value.toString()
+                CONSTANT_STRING -> "\"${render((value as IntArray)[0])}\""
+                CONSTANT_INVOKE_DYNAMIC, CONSTANT_DYNAMIC -> {
+                    val (bootstrapIndex, nameAndTypeIndex) = value as IntArray
+                    "dynamic#$bootstrapIndex ${render(nameAndTypeIndex)}"
+                }
+                CONSTANT_METHOD_HANDLE -> {
+                    val (kind, referenceIndex) = value as IntArray
+                    "handle#$kind ${render(referenceIndex)}"
+                }
+                else -> (value as IntArray).joinToString(separator = " ") { reference -> render(reference) }
+            }
+        }
+
+        companion object {
+
+            fun read(input: DataInputStream): ConstantPool {
+                val count = input.readUnsignedShort()
+                val tags = IntArray(count)
+                val values = arrayOfNulls<Any>(count)
+                var index = 1
+
+                while (index < count) {
+                    val tag = input.readUnsignedByte()
+                    tags[index] = tag
+                    values[index] = when (tag) {
+                        CONSTANT_UTF8 -> input.readUTF()
+                        CONSTANT_INTEGER -> input.readInt()
+                        CONSTANT_FLOAT -> input.readFloat()
+                        CONSTANT_LONG -> input.readLong()
+                        CONSTANT_DOUBLE -> input.readDouble()
+                        CONSTANT_METHOD_HANDLE -> intArrayOf(input.readUnsignedByte(), input.readUnsignedShort())
+                        in CONSTANT_SIZE_2 -> intArrayOf(input.readUnsignedShort())
+                        in CONSTANT_SIZE_4 -> intArrayOf(input.readUnsignedShort(), input.readUnsignedShort())
+                        else -> error("Unknown constant pool tag: $tag")
+                    }
+                    index += if (tag == CONSTANT_LONG || tag == CONSTANT_DOUBLE) 2 else 1 // Take two entries
+                }
+                return ConstantPool(tags, values)
+            }
+        }
+    }
+
+    /**
+     * @param referencedClasses internal names of classes used by the hashed instructions, e.g. 'a/FooKt${'$'}foo${'$'}1'
+     */
+    class Abi(
+        val fingerprint: String,
+        val referencedClasses: Set<String>,
+    )
+
+    private const val MAGIC = 0xCAFEBABE.toInt()
+    private const val ACC_PRIVATE = 0x0002
+    private const val ACC_SYNTHETIC = 0x1000
+    private const val CLASS_ABI_FLAGS = 0x6611 // Public, final, interface, abstract, annotation, enum
+    private const val MEMBER_ABI_FLAGS = 0x449D // Public, protected, static, final, varargs, abstract, enum
+    private const val KOTLIN_METADATA = "Lkotlin/Metadata;"
+    private const val INLINE_FUNCTION_MARKER = "\$i\$f\$" // Fake local variable of Kotlin inline function
+
+    private const val CONSTANT_UTF8 = 1
+    private const val CONSTANT_INTEGER = 3
+    private const val CONSTANT_FLOAT = 4
+    private const val CONSTANT_LONG = 5
+    private const val CONSTANT_DOUBLE = 6
+    private const val CONSTANT_CLASS = 7
+    private const val CONSTANT_STRING = 8
+    private const val CONSTANT_METHOD_HANDLE = 15
+    private const val CONSTANT_DYNAMIC = 17
+    private const val CONSTANT_INVOKE_DYNAMIC = 18
+    private val CONSTANT_SIZE_2 = setOf(7, 8, 16, 19, 20) // Class, String, MethodType, Module, Package
+    private val CONSTANT_SIZE_4 = setOf(9, 10, 11, 12, 17, 18) // Refs, NameAndType, (Invoke)Dynamic
+    private val CONSTANT_MEMBER_REFS = setOf(9, 10, 11) // Field, method and interface method refs
+
+    private const val LDC = 0x12
+    private const val IINC = 0x84
+    private const val TABLESWITCH = 0xAA
+    private const val LOOKUPSWITCH = 0xAB
+    private const val INVOKEINTERFACE = 0xB9
+    private const val INVOKEDYNAMIC = 0xBA
+    private const val WIDE = 0xC4
+    private const val MULTIANEWARRAY = 0xC5
+    private const val NO_CONSTANT = -1
+
+    // ldc_w, ldc2_w, field and method instructions, new, anewarray, checkcast, instanceof
+    private val CONSTANT_OPCODES = setOf(0x13, 0x14, 0xB2, 0xB3, 0xB4, 0xB5, 0xB6, 0xB7, 0xB8, 0xBB, 0xBD, 0xC0, 0xC1)
+
+    // Lengths of instructions with fixed operands, including opcode
+    private val INSTRUCTION_LENGTHS = IntArray(256) { opcode ->
+        when (opcode) {
+            0x10, LDC, in 0x15..0x19, in 0x36..0x3A, 0xA9, 0xBC -> 2 // bipush, ldc, loads, stores, ret, newarray
+            0x11, IINC, in 0x99..0xA8, 0xC6, 0xC7, in CONSTANT_OPCODES -> 3 // sipush, iinc, branches, constants
+            MULTIANEWARRAY -> 4
+            0xC8, 0xC9, INVOKEINTERFACE, INVOKEDYNAMIC -> 5 // goto_w, jsr_w, invocations
+            else -> 1
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package ru.fomenkov.plugin.abi
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+
+/**
+ * Strips class file down to its ABI: method bodies and private fields and methods are removed,
+ * everything else (constant pool, signatures, annotations, inner classes) is kept as is.
+ * Kotlin classes are not changed, because inline functions are compiled from their bytecode
+ */
+object ClassAbiStripper {
+
+    fun strip(bytes: ByteArray): ByteArray {
+        val input = DataInputStream(ByteArrayInputStream(bytes))
+        val buffer = ByteArrayOutputStream(bytes.size)
+        val output = DataOutputStream(buffer)
+
+        if (input.readInt() != MAGIC) {
+            error("Not a class file")
+        }
+        output.writeInt(MAGIC)
+        output.writeInt(input.readInt()) // Minor and major versions
+
+        val constantPool = readConstantPool(input, output)
+
+        if (KOTLIN_METADATA in constantPool) {
+            return bytes
+        }
+        output.write(input.readArray(6)) // Access flags, this and super classes
+        val interfacesCount = input.readUnsignedShort()
+        output.writeShort(interfacesCount)
+        output.write(input.readArray(interfacesCount * 2))
+
+        repeat(2) { // Fields, then methods
+            val members = (0 until input.readUnsignedShort()).map { readMember(input, constantPool) }
+                .filter { member -> member.accessFlags and ACC_PRIVATE == 0 }
+
+            output.writeShort(members.size)
+            members.forEach { member -> member.write(output) }
+        }
+        output.write(input.readBytes()) // Class attributes
+        return buffer.toByteArray()
+    }
+
+    /**
+     * @return UTF-8 constants by index, other entries are copied to the output
+     */
+    private fun readConstantPool(input: DataInputStream, output: DataOutputStream): Array<String?> {
+        val count = input.readUnsignedShort()
+        val strings = arrayOfNulls<String>(count)
+        output.writeShort(count)
+        var index = 1
+
+        while (index < count) {
+            val tag = input.readUnsignedByte()
+            output.writeByte(tag)
+
+            when (tag) {
+                CONSTANT_UTF8 -> {
+                    val value = input.readUTF()
+                    output.writeUTF(value)
+                    strings[index] = value
+                }
+                CONSTANT_LONG, CONSTANT_DOUBLE -> {
+                    output.write(input.readArray(8))
+                    index++ // Takes two entries
+                }
+                CONSTANT_METHOD_HANDLE -> output.write(input.readArray(3))
+                in CONSTANT_SIZE_2 -> output.write(input.readArray(2))
+                in CONSTANT_SIZE_4 -> output.write(input.readArray(4))
+                else -> error("Unknown constant pool tag: $tag")
+            }
+            index++
+        }
+        return strings
+    }
+
+    private fun readMember(input: DataInputStream, constantPool: Array<String?>): Member {
+        val accessFlags = input.readUnsignedShort()
+        val nameIndex = input.readUnsignedShort()
+        val descriptorIndex = input.readUnsignedShort()
+        val attributes = (0 until input.readUnsignedShort()).mapNotNull {
+            val attributeNameIndex = input.readUnsignedShort()
+            val data = input.readArray(input.readInt())
+
+            when (constantPool[attributeNameIndex]) {
+                CODE_ATTRIBUTE -> null
+                else -> Attribute(attributeNameIndex, data)
+            }
+        }
+        return Member(accessFlags, nameIndex, descriptorIndex, attributes)
+    }
+
+    private fun DataInputStream.readArray(count: Int) = ByteArray(count).also(::readFully)
+
+    private class Member(
+        val accessFlags: Int,
+        val nameIndex: Int,
+        val descriptorIndex: Int,
+        val attributes: List<Attribute>,
+    ) {
+
+        fun write(output: DataOutputStream) {
+            output.writeShort(accessFlags)
+            output.writeShort(nameIndex)
+            output.writeShort(descriptorIndex)
+            output.writeShort(attributes.size)
+
+            attributes.forEach { attribute ->
+                output.writeShort(attribute.nameIndex)
+                output.writeInt(attribute.data.size)
+                output.write(attribute.data)
+            }
+        }
+    }
+
+    private class Attribute(val nameIndex: Int, val data: ByteArray)
+
+    private const val MAGIC = 0xCAFEBABE.toInt()
+    private const val ACC_PRIVATE = 0x0002
+    private const val CODE_ATTRIBUTE = "Code"
+    private const val KOTLIN_METADATA = "Lkotlin/Metadata;"
+    private const val CONSTANT_UTF8 = 1
+    private const val CONSTANT_LONG = 5
+    private const val CONSTANT_DOUBLE = 6
+    private const val CONSTANT_METHOD_HANDLE = 15
+    private val CONSTANT_SIZE_2 = setOf(7, 8, 16, 19, 20) // Class, String, MethodType, Module, Package
+    private val CONSTANT_SIZE_4 = setOf(3, 4, 9, 10, 11, 12, 17, 18) // Integer, Float, refs, NameAndType, (Invoke)Dynamic
+}
@@ -0,0 +1,108 @@
+package ru.fomenkov.plugin.abi
+
+import ru.fomenkov.plugin.cache.FileCache
+import ru.fomenkov.plugin.util.ContentHash
+import ru.fomenkov.plugin.util.Telemetry
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+import java.util.jar.JarFile
+import java.util.jar.JarOutputStream
+import java.util.zip.ZipEntry
+
+/**
+ * Turns classpath directories and JARs into single header JARs with ABI-only class files
+ * (see [ClassAbiStripper]). Header JARs are cached by classpath entry path and its stamp,
+ * e.g. file count with the latest modification time for directories
+ */
+class HeaderJarCache(private val cache: FileCache) {
+
+    private val headerJars = ConcurrentHashMap<String, Lazy<File?>>() // Cache key -> header JAR
+
+    /**
+     * @return header JAR or null if the entry has no class files or can't be converted
+     */
+    fun get(entry: File, stamp: String): File? {
+        val key = ContentHash()
+            .update(FORMAT_VERSION)
+            .update(entry.absolutePath)
+            .update(stamp)
+            .digest()
+
+        return headerJars.computeIfAbsent(key) {
+            lazy {
+                when {
+                    cache.get(key, NO_CLASSES_SECTION) != null -> null
+                    else -> cache.get(key, HEADER_JAR_SECTION) ?: create(key, entry)
+                }
+            }
+        }.value
+    }
+
+    private fun create(key: String, entry: File): File? {
+        val tmpFile = File.createTempFile("header", ".jar")
+
+        return try {
+            var classCount = 0
+
+            JarOutputStream(tmpFile.outputStream().buffered()).use { output ->
+                readEntries(entry).forEach { (name, bytes) ->
+                    val isClassFile = name.endsWith(".class")
+                    output.putNextEntry(ZipEntry(name).apply { time = ENTRY_TIME })
+                    output.write(if (isClassFile) ClassAbiStripper.strip(bytes) else bytes)
+                    output.closeEntry()
+
+                    if (isClassFile) {
+                        classCount++
+                    }
+                }
+            }
+            when (classCount) {
+                0 -> {
+                    // Resources only, e.g. platform res directory -> keep the original entry
+                    cache.put(key, NO_CLASSES_SECTION, tmpFile)
+                    null
+                }
+                else -> {
+                    cache.put(key, HEADER_JAR_SECTION, tmpFile)
+                    cache.get(key, HEADER_JAR_SECTION)
+                }
+            }
+
+        } catch (error: Throwable) {
+            Telemetry.verboseErr("Failed to create header JAR for ${entry.path}: ${error.message}")
+            null
+        } finally {
+            tmpFile.delete()
+        }
+    }
+
+    // Class files and metadata like *.kotlin_module, sorted by name, so output doesn't depend on file system order.
+    // Service files are dropped, so annotation processors with stripped bodies are not discovered
+    private fun readEntries(entry: File): Sequence<Pair<String, ByteArray>> = when {
+        entry.isDirectory -> entry.walk()
+            .filter(File::isFile)
+            .map { file -> file.relativeTo(entry).invariantSeparatorsPath to file }
+            .filter { (name, _) -> isHeaderEntry(name) }
+            .sortedBy { (name, _) -> name }
+            .map { (name, file) -> name to file.readBytes() }
+        else -> JarFile(entry).use { jar ->
+            jar.entries().asSequence()
+                .filter { jarEntry -> !jarEntry.isDirectory && isHeaderEntry(jarEntry.name) }
+                .sortedBy { jarEntry -> jarEntry.name }
+                .map { jarEntry -> jarEntry.name to jar.getInputStream(jarEntry).use { input -> input.readBytes() } }
+                .toList()
+        }.asSequence()
+    }
+
+    private fun isHeaderEntry(name: String) = name.endsWith(".class") ||
+        name.startsWith(META_INF_DIR) && name != JarFile.MANIFEST_NAME && !name.startsWith(SERVICES_DIR)
+
+    private companion object {
+        const val FORMAT_VERSION = "1"
+        const val HEADER_JAR_SECTION = "header.jar"
+        const val NO_CLASSES_SECTION = "no-classes"
+        const val META_INF_DIR = "META-INF/"
+        const val SERVICES_DIR = "META-INF/services/"
+        const val ENTRY_TIME = 0L
+    }
+}
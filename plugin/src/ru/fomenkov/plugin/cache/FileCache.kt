@@ -0,0 +1,97 @@
+package ru.fomenkov.plugin.cache
+
+import ru.fomenkov.plugin.util.Telemetry
+import java.io.File
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.*
+
+/**
+ * Content-addressed on-disk cache. Each entry is a directory named by key with one or more
+ * immutable sections (files or subdirectories). Least recently used entries are evicted when
+ * the total size exceeds the limit
+ */
+class FileCache(
+    private val rootDir: File,
+    private val sizeLimit: Long,
+) {
+
+    init {
+        if (!rootDir.exists() && !rootDir.mkdirs()) {
+            error("Failed to create cache directory: ${rootDir.absolutePath}")
+        }
+    }
+
+    /**
+     * @return section file or directory, null if not cached
+     */
+    fun get(key: String, section: String): File? {
+        val entryDir = File(rootDir, key)
+        val sectionFile = File(entryDir, section)
+
+        return when (sectionFile.exists()) {
+            true -> {
+                entryDir.setLastModified(System.currentTimeMillis())
+                sectionFile
+            }
+            else -> null
+        }
+    }
+
+    /**
+     * Copy file or directory content into the entry section. Existing section is kept as is
+     */
+    fun put(key: String, section: String, source: File) {
+        val entryDir = File(rootDir, key)
+        val sectionFile = File(entryDir, section)
+
+        if (sectionFile.exists()) {
+            return
+        }
+        val tmpFile = File(rootDir, "$TMP_PREFIX${UUID.randomUUID()}")
+
+        try {
+            if (!source.copyRecursively(tmpFile, overwrite = true)) {
+                error("Failed to copy ${source.absolutePath}")
+            }
+            entryDir.mkdirs()
+            Files.move(tmpFile.toPath(), sectionFile.toPath(), StandardCopyOption.ATOMIC_MOVE)
+            entryDir.setLastModified(System.currentTimeMillis())
+
+        } catch (error: Throwable) {
+            Telemetry.verboseErr("Failed to put cache entry $key/$section: ${error.message}")
+        } finally {
+            tmpFile.deleteRecursively()
+        }
+    }
+
+    /**
+     * Evict least recently used entries until the cache fits the size limit
+     */
+    fun trim() {
+        val entries = (rootDir.listFiles() ?: emptyArray())
+            .filter { file -> file.isDirectory || file.name.startsWith(TMP_PREFIX) }
+            .map { dir -> Entry(dir, dir.lastModified(), dir.walkBottomUp().filter(File::isFile).sumOf(File::length)) }
+            .sortedByDescending { entry -> entry.lastAccess }
+        var totalSize = 0L
+        var evicted = 0
+
+        entries.forEach { entry ->
+            totalSize += entry.size
+
+            if (totalSize > sizeLimit || entry.dir.name.startsWith(TMP_PREFIX)) {
+                entry.dir.deleteRecursively()
+                evicted++
+            }
+        }
+        if (evicted > 0) {
+            Telemetry.verboseLog("Evicted $evicted cache entries from ${rootDir.absolutePath}")
+        }
+    }
+
+    private data class Entry(val dir: File, val lastAccess: Long, val size: Long)
+
+    private companion object {
+        const val TMP_PREFIX = ".tmp-"
+    }
+}
@@ -0,0 +1,35 @@
+package ru.fomenkov.plugin.dex
+
+data class DexFileInfo(
+    val version: String,
+    val checksum: Long,
+    val signature: String,
+    val fileSize: Int,
+    val stringIdsCount: Int,
+    val typeIdsCount: Int,
+    val fieldIdsCount: Int,
+    val methodIdsCount: Int,
+    val classes: List<DexClass>,
+    val isChecksumValid: Boolean,
+)
+
+data class DexClass(
+    val descriptor: String, // Lcom/example/Foo;
+    val accessFlags: Int,
+    val superclassDescriptor: String?,
+    val sourceFile: String?,
+    val staticFieldsCount: Int,
+    val instanceFieldsCount: Int,
+    val directMethodsCount: Int,
+    val virtualMethodsCount: Int,
+) {
+
+    val className: String
+        get() = descriptor.removePrefix("L").removeSuffix(";").replace('/', '.')
+
+    val fieldsCount: Int
+        get() = staticFieldsCount + instanceFieldsCount
+
+    val methodsCount: Int
+        get() = directMethodsCount + virtualMethodsCount
+}
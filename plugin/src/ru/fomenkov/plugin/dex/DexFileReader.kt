@@ -0,0 +1,154 @@
+package ru.fomenkov.plugin.dex
+
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.util.zip.Adler32
+
+/**
+ * Minimal DEX file reader. Maps the file into memory and walks header, string_ids, type_ids
+ * and class_defs sections directly, without running dexdump
+ */
+object DexFileReader {
+
+    fun read(file: File): DexFileInfo {
+        val buffer = FileChannel.open(file.toPath(), StandardOpenOption.READ).use { channel ->
+            channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+        }
+        return read(buffer.order(ByteOrder.LITTLE_ENDIAN))
+    }
+
+    fun read(buffer: ByteBuffer): DexFileInfo {
+        val dex = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN)
+
+        if (dex.limit() < HEADER_SIZE) {
+            error("DEX file is too short: ${dex.limit()} bytes")
+        }
+        val magic = dex.getBytes(offset = 0, size = MAGIC.length + 3)
+
+        if (!String(magic, Charsets.US_ASCII).startsWith(MAGIC)) {
+            error("Not a DEX file")
+        }
+        val version = String(magic, MAGIC_PREFIX.length, 3, Charsets.US_ASCII)
+        val signature = dex.getBytes(offset = SIGNATURE_OFFSET, size = SIGNATURE_SIZE)
+        val strings = StringTable(dex, count = dex.getInt(0x38), offset = dex.getInt(0x3c))
+        val typeIdsCount = dex.getInt(0x40)
+        val typeIdsOffset = dex.getInt(0x44)
+
+        fun type(index: Int) = when (index) {
+            NO_INDEX -> null
+            else -> strings[dex.getInt(typeIdsOffset + index * 4)]
+        }
+        val classDefsCount = dex.getInt(0x60)
+        val classDefsOffset = dex.getInt(0x64)
+        val classes = (0 until classDefsCount).map { index ->
+            val offset = classDefsOffset + index * CLASS_DEF_SIZE
+            val classDataOffset = dex.getInt(offset + 24)
+            val counts = when (classDataOffset) {
+                0 -> IntArray(4)
+                else -> ULeb128Reader(dex, classDataOffset).run { IntArray(4) { next() } }
+            }
+            val sourceFileIndex = dex.getInt(offset + 16)
+
+            DexClass(
+                descriptor = checkNotNull(type(dex.getInt(offset))) { "No class descriptor for class_def #$index" },
+                accessFlags = dex.getInt(offset + 4),
+                superclassDescriptor = type(dex.getInt(offset + 8)),
+                sourceFile = if (sourceFileIndex == NO_INDEX) null else strings[sourceFileIndex],
+                staticFieldsCount = counts[0],
+                instanceFieldsCount = counts[1],
+                directMethodsCount = counts[2],
+                virtualMethodsCount = counts[3],
+            )
+        }
+        return DexFileInfo(
+            version = version,
+            checksum = dex.getInt(CHECKSUM_OFFSET).toLong() and 0xffffffffL,
+            signature = signature.joinToString(separator = "") { byte -> "%02x".format(byte) },
+            fileSize = dex.getInt(0x20),
+            stringIdsCount = strings.count,
+            typeIdsCount = typeIdsCount,
+            fieldIdsCount = dex.getInt(0x50),
+            methodIdsCount = dex.getInt(0x58),
+            classes = classes,
+            isChecksumValid = computeChecksum(dex) == dex.getInt(CHECKSUM_OFFSET).toLong() and 0xffffffffL,
+        )
+    }
+
+    // Adler-32 of everything after the checksum field
+    private fun computeChecksum(dex: ByteBuffer): Long {
+        val data = dex.duplicate()
+        data.position(SIGNATURE_OFFSET)
+        return Adler32().apply { update(data) }.value
+    }
+
+    private fun ByteBuffer.getBytes(offset: Int, size: Int) = ByteArray(size).also { bytes ->
+        (duplicate().position(offset) as ByteBuffer).get(bytes)
+    }
+
+    private class StringTable(
+        private val dex: ByteBuffer,
+        val count: Int,
+        private val offset: Int,
+    ) {
+
+        operator fun get(index: Int): String {
+            check(index in 0 until count) { "String index out of bounds: $index" }
+            val reader = ULeb128Reader(dex, dex.getInt(offset + index * 4))
+            val length = reader.next() // Number of UTF-16 code units
+            return decodeMutf8(dex, reader.position, length)
+        }
+
+        private fun decodeMutf8(dex: ByteBuffer, start: Int, length: Int): String {
+            val chars = CharArray(length)
+            var position = start
+
+            for (index in 0 until length) {
+                val a = dex.get(position++).toInt() and 0xff
+
+                chars[index] = when {
+                    a < 0x80 -> a.toChar()
+                    a and 0xe0 == 0xc0 -> {
+                        val b = dex.get(position++).toInt() and 0x3f
+                        ((a and 0x1f) shl 6 or b).toChar()
+                    }
+                    else -> {
+                        val b = dex.get(position++).toInt() and 0x3f
+                        val c = dex.get(position++).toInt() and 0x3f
+                        ((a and 0x0f) shl 12 or (b shl 6) or c).toChar()
+                    }
+                }
+            }
+            return String(chars)
+        }
+    }
+
+    private class ULeb128Reader(private val dex: ByteBuffer, var position: Int) {
+
+        fun next(): Int {
+            var result = 0
+            var shift = 0
+
+            while (true) {
+                val byte = dex.get(position++).toInt()
+                result = result or ((byte and 0x7f) shl shift)
+
+                if (byte and 0x80 == 0) {
+                    return result
+                }
+                shift += 7
+            }
+        }
+    }
+
+    private const val MAGIC_PREFIX = "dex\n"
+    private const val MAGIC = "dex\n0"
+    private const val HEADER_SIZE = 0x70
+    private const val CHECKSUM_OFFSET = 0x08
+    private const val SIGNATURE_OFFSET = 0x0c
+    private const val SIGNATURE_SIZE = 20
+    private const val CLASS_DEF_SIZE = 32
+    private const val NO_INDEX = -1
+}
@@ -13,4 +13,5 @@ enum class Param(val key: String) {
     GREENCAT_ROOT("-g"),
     DEVICE_API_LEVEL("-l"),
     VERSION("-v"),
+    SERVER("-server"), // Start resident build server: -server <greencat root>
 }
\ No newline at end of file
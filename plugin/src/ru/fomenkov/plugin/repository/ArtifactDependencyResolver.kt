@@ -3,6 +3,7 @@ package ru.fomenkov.plugin.repository
 import ru.fomenkov.plugin.repository.data.PomDescriptor
 import ru.fomenkov.plugin.repository.parser.PomFileParser
 import ru.fomenkov.plugin.util.Telemetry
+import ru.fomenkov.plugin.util.Version
 import ru.fomenkov.plugin.util.noTilda
 import java.io.File
 import java.lang.StringBuilder
@@ -109,7 +110,7 @@ class ArtifactDependencyResolver(
     private fun getLatestVersion(artifactDir: String, versions: Array<String>) =
         when {
             versions.isEmpty() -> error("No available versions for artifact: $artifactDir")
-            else -> versions.maxOrNull()!!
+            else -> checkNotNull(versions.maxByOrNull(Version::parse))
         }
 
     private fun spaces(level: Int): String {
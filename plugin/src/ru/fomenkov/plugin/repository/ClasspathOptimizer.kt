@@ -1,12 +1,12 @@
 package ru.fomenkov.plugin.repository
 
 import ru.fomenkov.plugin.util.CURRENT_DIR
-import ru.fomenkov.plugin.util.exec
+import ru.fomenkov.plugin.util.createSymlink
 import ru.fomenkov.plugin.util.noTilda
 import java.io.File
 
 class ClasspathOptimizer {
-    private val transformsDir = "~/.gradle/caches/transforms-3".noTilda()
+    private val transformsDirs = TransformsIndex.findCacheDirs().map(File::getAbsolutePath)
     private val modulesDir = "~/.gradle/caches/modules-2/files-2.1".noTilda()
 
     fun optimize(classpath: Set<String>): Set<String> {
@@ -28,16 +28,13 @@ class ClasspathOptimizer {
                 if (path.startsWith(CURRENT_DIR)) {
                     path.substring(CURRENT_DIR.length + 1, path.length)
                 } else {
-                    path
-                        .replace(transformsDir, transformsDir.dirName())
-                        .replace(modulesDir, modulesDir.dirName())
+                    (transformsDirs + modulesDir).fold(path) { result, dir -> result.replace(dir, dir.dirName()) }
                 }
             }.toSet()
     }
 
     private fun createSymlinks() {
-        exec("ln -s $transformsDir .")
-        exec("ln -s $modulesDir .")
+        (transformsDirs + modulesDir).forEach { dir -> createSymlink(dir, CURRENT_DIR) }
     }
 
     private fun String.dirName() = split("/").last()
@@ -0,0 +1,127 @@
+package ru.fomenkov.plugin.repository
+
+import ru.fomenkov.plugin.cache.FileCache
+import ru.fomenkov.plugin.util.ContentHash
+import ru.fomenkov.plugin.util.Telemetry
+import java.io.File
+import java.nio.file.Files
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.zip.ZipFile
+
+/**
+ * Compilers can't read classes from AAR archives, so classes.jar, libs/\*.jar and R.txt of an AAR are extracted
+ * once into the cache and the extracted JARs are used instead. Entries are addressed by AAR content hash:
+ * SHA-1 directory name of the Gradle cache if any, otherwise content hash of the file
+ */
+class ExplodedAarCache(private val cache: FileCache) {
+
+    private val explodedAars = ConcurrentHashMap<String, Lazy<Entry?>>() // AAR path -> cache entry
+    private val extractedCount = AtomicInteger()
+
+    /**
+     * @return classpath with extracted JARs instead of AAR archives
+     */
+    fun replaceArchives(classpath: Set<String>): Set<String> {
+        if (classpath.none(::isAar)) {
+            return classpath
+        }
+        val result = LinkedHashSet<String>()
+
+        classpath.forEach { path ->
+            when (isAar(path)) {
+                true -> result += getJars(File(path))
+                else -> result += path
+            }
+        }
+        return result
+    }
+
+    /**
+     * Evict least recently used entries if some AARs were extracted
+     */
+    fun trim() {
+        if (extractedCount.getAndSet(0) > 0) {
+            cache.trim()
+            explodedAars.clear() // Evicted entries must not be returned from memory
+        }
+    }
+
+    /**
+     * @return extracted JARs of the AAR, empty if it has no classes
+     */
+    fun getJars(aar: File): List<String> {
+        val path = aar.absolutePath
+        val memo = explodedAars.computeIfAbsent(path) { lazy { explode(aar) } }
+        val entry = memo.value ?: return emptyList()
+
+        // Each use refreshes the entry for LRU eviction. Extract once again if it's evicted anyway
+        return when (cache.get(entry.key, EXPLODED_SECTION)) {
+            null -> {
+                explodedAars.remove(path, memo)
+                explodedAars.computeIfAbsent(path) { lazy { explode(aar) } }.value?.jars ?: emptyList()
+            }
+            else -> entry.jars
+        }
+    }
+
+    private fun explode(aar: File): Entry? {
+        val key = getContentKey(aar)
+        val dir = cache.get(key, EXPLODED_SECTION) ?: extract(key, aar)
+        return dir?.let { Entry(key, listJars(dir)) }
+    }
+
+    private fun extract(key: String, aar: File): File? {
+        val tmpDir = Files.createTempDirectory("aar").toFile()
+
+        return try {
+            ZipFile(aar).use { zip ->
+                zip.entries().asSequence()
+                    .filter { entry -> !entry.isDirectory && isExtracted(entry.name) }
+                    .forEach { entry ->
+                        val file = File(tmpDir, entry.name)
+                        file.parentFile.mkdirs()
+                        zip.getInputStream(entry).use { input -> file.outputStream().use(input::copyTo) }
+                    }
+            }
+            cache.put(key, EXPLODED_SECTION, tmpDir)
+            extractedCount.incrementAndGet()
+            Telemetry.verboseLog("Extracted ${aar.name}")
+            cache.get(key, EXPLODED_SECTION)
+
+        } catch (error: Throwable) {
+            Telemetry.verboseErr("Failed to extract AAR ${aar.path}: ${error.message}")
+            null
+        } finally {
+            tmpDir.deleteRecursively()
+        }
+    }
+
+    private fun listJars(dir: File): List<String> {
+        val classesJar = File(dir, CLASSES_JAR).takeIf(File::exists)
+        val libJars = File(dir, LIBS_DIR).listFiles { file -> file.name.endsWith(".jar") }?.sorted() ?: emptyList()
+        return (listOfNotNull(classesJar) + libJars).map(File::getAbsolutePath)
+    }
+
+    // Gradle cache: files-2.1/<group>/<artifact>/<version>/<SHA-1>/<artifact>-<version>.aar
+    private fun getContentKey(aar: File): String {
+        val hash = aar.parentFile?.name?.takeIf { name -> SHA1_REGEX.matches(name) } ?: ContentHash.of(aar)
+        return ContentHash().update(FORMAT_VERSION).update(hash).digest()
+    }
+
+    private fun isExtracted(name: String) = name == CLASSES_JAR || name == R_TXT ||
+        name.startsWith("$LIBS_DIR/") && name.endsWith(".jar") && !name.contains("..")
+
+    private fun isAar(path: String) = path.endsWith(".aar")
+
+    private class Entry(val key: String, val jars: List<String>)
+
+    private companion object {
+        const val FORMAT_VERSION = "1"
+        const val EXPLODED_SECTION = "aar"
+        const val CLASSES_JAR = "classes.jar"
+        const val LIBS_DIR = "libs"
+        const val R_TXT = "R.txt"
+        val SHA1_REGEX = Regex("[0-9a-f]{30,40}") // Leading zeros are dropped
+    }
+}
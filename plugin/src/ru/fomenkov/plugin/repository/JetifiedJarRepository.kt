@@ -2,27 +2,30 @@ package ru.fomenkov.plugin.repository
 
 import ru.fomenkov.plugin.repository.parser.JetifiedResourceParser
 import ru.fomenkov.plugin.util.Telemetry
-import ru.fomenkov.plugin.util.noTilda
 import ru.fomenkov.plugin.util.timeMillis
 import java.io.File
-import java.util.concurrent.CountDownLatch
-import java.util.concurrent.Executors
 
 class JetifiedJarRepository(
-    private val parser: JetifiedResourceParser,
+    parser: JetifiedResourceParser,
+    indexFile: File,
 ) : JarRepository() {
 
-    private val cacheDir = "~/.gradle/caches/transforms-3".noTilda() // TODO: search between transforms-X
-    private val artifactVersions = mutableMapOf<String, Set<String>>() // artifact ID -> available versions
-    private val artifactPaths = mutableMapOf<Entry, Set<String>>() // artifact entry -> available JARs and AARs
+    private val cacheDirs = TransformsIndex.findCacheDirs()
+    private val index = TransformsIndex(indexFile, parser)
+    // Replaced as a whole on each scan, so removed transforms don't leave stale versions
+    @Volatile
+    private var artifactVersions = mapOf<String, Set<String>>() // artifact ID -> available versions
+
+    @Volatile
+    private var artifactPaths = mapOf<Entry, Set<String>>() // artifact entry -> available JARs and AARs
 
     init {
-        if (!File(cacheDir).exists()) {
-            error("Gradle cache path doesn't exist: $cacheDir")
+        if (cacheDirs.isEmpty()) {
+            error("No transforms-X directories found in Gradle cache")
         }
     }
 
-    fun getAvailableVersions(artifactId: String) = artifactVersions[artifactId] ?: emptySet()
+    fun getAvailableVersions(artifactId: String): Set<String> = artifactVersions[artifactId] ?: emptySet()
 
     fun getArtifactPaths(artifactId: String, version: String): Set<String> {
         val entry = Entry(artifactId, version)
@@ -30,76 +33,25 @@ class JetifiedJarRepository(
     }
 
     override fun scan() {
-        val cpus = Runtime.getRuntime().availableProcessors()
-        val executor = Executors.newFixedThreadPool(cpus)
-        val allResources = mutableSetOf<String>()
-
         val time = timeMillis {
-            val files = File(cacheDir).listFiles()!! // TODO
-            val latch = CountDownLatch(files.size)
+            val versions = mutableMapOf<String, MutableSet<String>>()
+            val paths = mutableMapOf<Entry, MutableSet<String>>()
 
-            files.forEach { dir ->
-                executor.submit {
-                    val dirResources = mutableSetOf<String>()
-                    val transformedDir = File(dir, "transformed")
-                    val dirScanTask = { dir: File ->
-                        if (dir.exists()) {
-                            (dir.list() ?: emptyArray()).forEach { path ->
-                                if (path.endsWith(".jar")) {
-                                    dirResources += File(dir, path).absolutePath
-                                }
-                            }
-                        }
-                    }
-                    if (transformedDir.exists()) {
-                        (transformedDir.list() ?: emptyArray()).forEach { resPath ->
-                            if (resPath.endsWith(".jar") || resPath.endsWith(".aar")) {
-                                dirResources += File(transformedDir, resPath).absolutePath
-                            } else {
-                                val jarsDir = File(transformedDir, "$resPath/jars")
-                                val libsDir = File(jarsDir, "libs")
-                                dirScanTask(jarsDir)
-                                dirScanTask(libsDir)
-                            }
-                        }
-                    }
-                    synchronized(allResources) { allResources += dirResources }
-                    latch.countDown()
-                }
+            index.refresh(cacheDirs).forEach { (path, entry) ->
+                versions.getOrPut(entry.artifactId) { mutableSetOf() } += entry.version
+                paths.getOrPut(entry) { mutableSetOf() } += path
             }
-            latch.await()
-            executor.shutdown()
-            parseArtifactPaths(allResources)
+            artifactVersions = versions
+            artifactPaths = optimizePaths(paths)
         }
-        optimizePaths()
         Telemetry.log("Scan jetified JAR files: $time ms")
     }
 
     // AAR for a particular artifact already contains JAR => keep JAR, remove AAR
-    private fun optimizePaths() {
-        val optimizedPaths = mutableMapOf<Entry, Set<String>>()
-
-        artifactPaths.forEach { (entry, paths) ->
-            val classesJar = paths.firstOrNull { path -> path.endsWith("/classes.jar") }
-
-            if (classesJar == null) {
-                optimizedPaths[entry] = paths
-            } else {
-                optimizedPaths[entry] = setOf(classesJar)
-            }
-        }
-        artifactPaths.clear()
-        artifactPaths += optimizedPaths
-    }
-
-    private fun parseArtifactPaths(allPaths: Set<String>) {
-        allPaths.forEach { path ->
-            val entry = parser.parse(path)
-            val versions = artifactVersions[entry.artifactId] ?: mutableSetOf()
-            val paths = artifactPaths[entry] ?: emptySet()
-
-            artifactVersions[entry.artifactId] = versions + entry.version
-            artifactPaths[entry] = paths + path
+    private fun optimizePaths(artifactPaths: Map<Entry, Set<String>>) = artifactPaths.mapValues { (_, paths) ->
+        when (val classesJar = paths.firstOrNull { path -> path.endsWith("/classes.jar") }) {
+            null -> paths
+            else -> setOf(classesJar)
         }
     }
 
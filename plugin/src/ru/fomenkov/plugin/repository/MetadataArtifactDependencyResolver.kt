@@ -1,17 +1,36 @@
 package ru.fomenkov.plugin.repository
 
+import ru.fomenkov.plugin.repository.data.PomDependency
+import ru.fomenkov.plugin.repository.data.PomDependencyScope
 import ru.fomenkov.plugin.repository.parser.MetadataDescriptionParser
+import ru.fomenkov.plugin.repository.parser.ModuleMetadataParser
+import ru.fomenkov.plugin.repository.parser.PomFileParser
 import ru.fomenkov.plugin.util.Telemetry
-import ru.fomenkov.plugin.util.exec
+import ru.fomenkov.plugin.util.Version
+import ru.fomenkov.plugin.util.findFiles
 import ru.fomenkov.plugin.util.noTilda
 import java.io.File
-
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.FutureTask
+
+/**
+ * Thread-safe resolver of artifact paths. Concurrent requests for the same artifact are resolved once,
+ * the other callers wait for the result. Dependency scopes are taken from Gradle module metadata or POM file
+ * of the artifact if any, so only API and compile scope dependencies get to compile classpath.
+ * Otherwise all dependencies from metadata descriptor are used
+ */
 class MetadataArtifactDependencyResolver(
     private val jetifiedJarRepository: JetifiedJarRepository,
     private val parser: MetadataDescriptionParser,
+    private val moduleMetadataParser: ModuleMetadataParser = ModuleMetadataParser(),
+    private val pomFileParser: PomFileParser = PomFileParser(),
 ) {
 
-    private val versionPaths = mutableMapOf<String, Set<String>>() // groupId:artifact:version -> resource paths
+    private val versionPaths = ConcurrentHashMap<String, FutureTask<ArtifactPaths>>() // groupId:artifact:version -> resource paths
+    private val supportPaths = ConcurrentHashMap<String, Set<String>>() // groupId:artifact:version -> resource paths
+    private val versionDirs = ConcurrentHashMap<File, List<String>>() // Artifact directory -> version directory names
+    private val scopedDependencies = ConcurrentHashMap<String, ScopedDependencies>() // groupId:artifact:version -> dependencies
     private val cacheDir = "~/.gradle/caches/modules-2".noTilda()
     private val filesDir: String
     private val metadataDir: String
@@ -22,28 +41,65 @@ class MetadataArtifactDependencyResolver(
         }
         filesDir = getFilesDirectory()
         metadataDir = getMetadataDirectory()
+    }
+
+    /**
+     * Rescan Gradle transforms and forget listed versions and paths, so that artifacts added to Gradle cache
+     * by the recent builds are found. Called before resolving, not concurrently with [resolvePaths]
+     */
+    fun refresh() {
         jetifiedJarRepository.scan()
+        versionPaths.clear()
+        supportPaths.clear()
+        versionDirs.clear()
     }
 
-    fun resolvePaths(groupId: String, artifactId: String, version: String): Set<String> {
-        val artifactKey = composeKey(groupId, artifactId, version)
-        val cachedPaths = versionPaths[artifactKey]
+    /**
+     * Versions of the artifact in Gradle cache, listed on each call without caching.
+     * Library declared without a version is resolved to the latest of them
+     */
+    fun getCachedVersions(groupId: String, artifactId: String): List<String> =
+        listOf(getMetadataArtifactDir(groupId, artifactId), getSupportArtifactDir(groupId, artifactId))
+            .flatMap(::listVersions)
+            .sorted()
 
-        if (cachedPaths != null && cachedPaths.isNotEmpty()) {
-            return cachedPaths
+    fun resolvePaths(groupId: String, artifactId: String, version: String): ArtifactPaths {
+        val artifactKey = composeKey(groupId, artifactId, version)
+        val task = FutureTask { resolveArtifactPaths(groupId, artifactId, version) }
+        val currentTask = versionPaths.putIfAbsent(artifactKey, task) ?: task.apply { run() }
+
+        val paths = try {
+            currentTask.get()
+        } catch (error: ExecutionException) {
+            versionPaths.remove(artifactKey, currentTask)
+            throw error.cause ?: error
+        }
+        // No paths may be a temporary state of the Gradle cache, so try again next time
+        if (paths.compile.isEmpty()) {
+            versionPaths.remove(artifactKey, currentTask)
         }
+        return paths
+    }
+
+    private fun resolveArtifactPaths(groupId: String, artifactId: String, version: String): ArtifactPaths {
         val artifacts = mutableSetOf<MetadataDescriptionParser.Artifact>()
-        val paths = mutableSetOf<String>()
-        resolvePaths(groupId, artifactId, version, false, artifacts, level = 0)
+        val runtimeArtifacts = mutableSetOf<MetadataDescriptionParser.Artifact>()
+        resolvePaths(groupId, artifactId, version, false, artifacts, runtimeArtifacts, level = 0)
 
-        artifacts.forEach { artifact ->
+        val artifactPaths = artifacts.associateWith { artifact ->
             val jetifiedPaths = jetifiedJarRepository.getArtifactPaths(artifact.artifactId, artifact.version)
-            paths += jetifiedPaths
+            jetifiedPaths
                 .excludeSourceAndJavadocResources()
                 .ifEmpty { getPathsFromSupportCache(groupId, artifactId, version) }
+                .toSet()
         }
-        versionPaths[artifactKey] = paths
-        return paths
+        val paths = artifactPaths.values.flatten().toSet()
+        val runtimePaths = (runtimeArtifacts - artifacts)
+            .flatMap { artifact -> jetifiedJarRepository.getArtifactPaths(artifact.artifactId, artifact.version) }
+            .excludeSourceAndJavadocResources()
+            .toSet()
+
+        return ArtifactPaths(artifacts = artifactPaths, runtimeOnly = runtimePaths - paths)
     }
 
     private fun resolvePaths(
@@ -52,6 +108,7 @@ class MetadataArtifactDependencyResolver(
         version: String,
         strictVersion: Boolean, // TODO: research about version constraint
         output: MutableSet<MetadataDescriptionParser.Artifact>,
+        runtimeOutput: MutableSet<MetadataDescriptionParser.Artifact>,
         level: Int,
     ) {
         if (!getMetadataArtifactDir(groupId, artifactId).exists()) {
@@ -72,6 +129,21 @@ class MetadataArtifactDependencyResolver(
             error("No metadata directory: ${metadataDir.absolutePath}")
         }
         output += parentArtifact
+        val scoped = getScopedDependencies(groupId, artifactId, currentVersion)
+
+        if (scoped != null) {
+            scoped.forEach { (artifact, isCompile) ->
+                when {
+                    artifact in output -> Unit
+                    isCompile -> {
+                        output += artifact
+                        resolvePaths(artifact.groupId, artifact.artifactId, artifact.version, false, output, runtimeOutput, level + 1)
+                    }
+                    else -> runtimeOutput += artifact
+                }
+            }
+            return
+        }
         val hashDirs = metadataDir.listFiles { file, _ -> file.isDirectory }
 
         if (hashDirs.isNullOrEmpty()) {
@@ -89,16 +161,54 @@ class MetadataArtifactDependencyResolver(
                 output += artifact
 
                 if (isTransitive) {
-                    resolvePaths(artifact.groupId, artifact.artifactId, artifact.version, false, output, level + 1)
+                    resolvePaths(artifact.groupId, artifact.artifactId, artifact.version, false, output, runtimeOutput, level + 1)
                 }
             }
         }
     }
 
+    /**
+     * Dependencies from .module or .pom file of the artifact in Gradle cache
+     *
+     * @return artifact to compile visibility or null if there are no such files
+     */
+    private fun getScopedDependencies(groupId: String, artifactId: String, version: String): Map<MetadataDescriptionParser.Artifact, Boolean>? {
+        val artifactKey = composeKey(groupId, artifactId, version)
+
+        return scopedDependencies.computeIfAbsent(artifactKey) {
+            val files = findFiles(getSupportArtifactVersionDir(groupId, artifactId, version).absolutePath)
+            val moduleFile = files.firstOrNull { path -> path.endsWith(".module") }
+            val pomFile = files.firstOrNull { path -> path.endsWith(".pom") }
+
+            val dependencies = try {
+                when {
+                    moduleFile != null -> moduleMetadataParser.parse(moduleFile)
+                    pomFile != null -> pomFileParser.parse(pomFile).dependencies
+                        .filterNot(PomDependency::isOptional)
+                        .mapNotNull { dep ->
+                            val artifact = dep.descriptor.run { MetadataDescriptionParser.Artifact(groupId, artifactId, version) }
+
+                            when (dep.scope) {
+                                PomDependencyScope.COMPILE -> artifact to true
+                                PomDependencyScope.RUNTIME -> artifact to false
+                                else -> null
+                            }
+                        }
+                        .toMap()
+                    else -> null
+                }
+            } catch (error: Throwable) {
+                Telemetry.verboseErr("Failed to parse dependency scopes of $artifactKey: ${error.message}")
+                null
+            }
+            ScopedDependencies(dependencies)
+        }.dependencies
+    }
+
     // TODO: research for version constraint
     private fun getPathsFromSupportCache(groupId: String, artifactId: String, version: String): Set<String> {
         val artifactKey = composeKey(groupId, artifactId, version)
-        val cachedPaths = versionPaths[artifactKey]
+        val cachedPaths = supportPaths[artifactKey]
 
         if (cachedPaths != null && cachedPaths.isNotEmpty()) {
             return cachedPaths
@@ -120,11 +230,11 @@ class MetadataArtifactDependencyResolver(
                 versionDir = File(artifactDir, latestVersion)
             }
         }
-        paths += exec("find ${versionDir.absolutePath}")
+        paths += findFiles(versionDir.absolutePath)
             .filter { path -> path.endsWith(".jar") || path.endsWith(".aar") }
             .excludeSourceAndJavadocResources()
 
-        versionPaths[artifactKey] = paths
+        supportPaths[artifactKey] = paths
         return paths
     }
 
@@ -137,33 +247,33 @@ class MetadataArtifactDependencyResolver(
     private fun getLatestSupportArtifactVersion(groupId: String, artifactId: String): String? {
         val artifactDir = File("$filesDir/$groupId/$artifactId")
 
-        if (!artifactDir.exists()) {
-            error("No artifact directory: ${artifactDir.absolutePath}")
-        }
-        val versionDirs = artifactDir.listFiles { dir, name -> dir.isDirectory && name.first().isDigit() } ?: emptyArray()
-
-        if (versionDirs.isEmpty()) {
-            Telemetry.err("No version directories at ${artifactDir.absolutePath}")
-            return null
-        }
-        return versionDirs.maxOf { dir -> dir.name }
+        return getLatestVersion(artifactDir)
     }
 
     private fun getLatestMetadataArtifactVersion(groupId: String, artifactId: String): String? {
         val artifactDir = File("$metadataDir/descriptors/$groupId/$artifactId")
 
+        return getLatestVersion(artifactDir)
+    }
+
+    // Version directories are listed once per artifact
+    private fun getLatestVersion(artifactDir: File): String? {
         if (!artifactDir.exists()) {
             error("No artifact directory: ${artifactDir.absolutePath}")
         }
-        val versionDirs = artifactDir.listFiles { dir, name -> dir.isDirectory && name.first().isDigit() } ?: emptyArray()
-
-        if (versionDirs.isEmpty()) {
-            Telemetry.err("No version directories at ${artifactDir.absolutePath}")
-            return null
+        val versions = versionDirs.computeIfAbsent(artifactDir) { dir ->
+            listVersions(dir).also { names ->
+                if (names.isEmpty()) {
+                    Telemetry.err("No version directories at ${dir.absolutePath}")
+                }
+            }
         }
-        return versionDirs.maxOf { dir -> dir.name }
+        return versions.maxByOrNull(Version::parse)
     }
 
+    private fun listVersions(artifactDir: File) =
+        artifactDir.list { parent, name -> File(parent, name).isDirectory && name.first().isDigit() }?.toList() ?: emptyList()
+
     private fun getSupportArtifactDir(groupId: String, artifactId: String) =
         File("$filesDir/$groupId/$artifactId")
 
@@ -198,6 +308,16 @@ class MetadataArtifactDependencyResolver(
         return dirs.first().absolutePath
     }
 
+    data class ArtifactPaths(
+        val artifacts: Map<MetadataDescriptionParser.Artifact, Set<String>>, // Artifact with API and compile scope dependencies
+        val runtimeOnly: Set<String>, // Dependencies of runtime scope, not added to compile classpath
+    ) {
+        val compile: Set<String>
+            get() = artifacts.values.flatten().toSet()
+    }
+
+    private class ScopedDependencies(val dependencies: Map<MetadataDescriptionParser.Artifact, Boolean>?)
+
     private fun spaces(level: Int) = if (level > 0) {
         val builder = StringBuilder()
 
@@ -0,0 +1,262 @@
+package ru.fomenkov.plugin.repository
+
+import ru.fomenkov.plugin.repository.data.Import
+import ru.fomenkov.plugin.repository.parser.SourceFileReader
+import ru.fomenkov.plugin.util.DirectoryCrawler
+import ru.fomenkov.plugin.util.Telemetry
+import ru.fomenkov.plugin.util.isFileSupported
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.util.stream.Collectors
+
+/**
+ * Persistent reverse index of references between project source files: reference key -> files with the reference.
+ * Keys are imported class names with their outer classes and wildcard-imported packages, each file also references
+ * its own package.
+ * Source files are re-parsed only if their modification time or size has changed since the last refresh
+ */
+class SourceReferenceIndex(
+    private val indexFile: File,
+    private val reader: SourceFileReader,
+) {
+
+    private val files = mutableMapOf<String, SourceFile>() // Source file path -> parsed file
+    private val references = mutableMapOf<String, MutableSet<String>>() // Reference key -> source file paths
+    private var isLoaded = false
+
+    /**
+     * Rescan source roots, re-parse new and changed files and save the index.
+     * Only main and debug source sets are scanned, because only debug build outputs are on the classpath
+     *
+     * @param sourceRoots 'src' directories of modules
+     */
+    @Synchronized
+    fun refresh(sourceRoots: Collection<String>) {
+        if (!isLoaded) {
+            load().forEach(::add)
+            isLoaded = true
+        }
+        val crawler = DirectoryCrawler(
+            enter = { entry ->
+                when (entry.depth) {
+                    1 -> entry.name in SOURCE_SETS
+                    2 -> entry.name in SOURCE_DIRS
+                    else -> true
+                }
+            },
+        ) { entry ->
+            when (entry.attrs.isRegularFile && isFileSupported(entry.name)) {
+                true -> Stamp(
+                    path = entry.path.toString(),
+                    time = entry.attrs.lastModifiedTime().toMillis(),
+                    size = entry.attrs.size(),
+                )
+                else -> null
+            }
+        }
+        val stamps = crawler.crawl(sourceRoots)
+        val currentPaths = stamps.map(Stamp::path).toSet()
+        val removedPaths = files.keys.filterNot(currentPaths::contains)
+        val changedStamps = stamps.filterNot { stamp -> files[stamp.path]?.isUpToDate(stamp) == true }
+
+        removedPaths.forEach(::remove)
+        changedStamps.parallelStream()
+            .map(::parse)
+            .collect(Collectors.toList())
+            .forEach { file ->
+                remove(file.path)
+                add(file)
+            }
+        Telemetry.verboseLog("Source reference index: ${files.size} files, ${changedStamps.size} re-parsed, ${removedPaths.size} removed")
+
+        if (changedStamps.isNotEmpty() || removedPaths.isNotEmpty()) {
+            save()
+        }
+    }
+
+    /**
+     * Files which reference classes or top-level declarations of the source file directly. Files from the same
+     * or wildcard-imported package are taken only if they mention any declared name
+     *
+     * @param path source file, may be a newer copy of the project file
+     * @return paths of referencing files, may contain the project file itself
+     */
+    @Synchronized
+    fun getDependents(path: String): Set<String> {
+        val packageName = reader.parseHeader(path).packageName
+        val names = getDeclaredNames(File(path))
+
+        if (names.isEmpty()) {
+            return emptySet()
+        }
+        val namesRegex = Regex("\\b(${names.joinToString(separator = "|")})\\b")
+        val dependents = mutableSetOf<String>()
+
+        names.forEach { name ->
+            dependents += references[qualify(packageName, name)].orEmpty()
+        }
+        references[qualify(packageName, WILDCARD)].orEmpty().forEach { dependent ->
+            if (dependent !in dependents && mentions(dependent, namesRegex)) {
+                dependents += dependent
+            }
+        }
+        return dependents
+    }
+
+    private fun parse(stamp: Stamp): SourceFile {
+        val keys = try {
+            val header = reader.parseHeader(stamp.path)
+            (header.imports.flatMap(::getReferenceKeys) + qualify(header.packageName, WILDCARD)).distinct()
+        } catch (error: Throwable) {
+            Telemetry.verboseErr("Failed to parse source file ${stamp.path}: ${error.message}")
+            emptyList()
+        }
+        // Files modified just now may change again within the file system time granularity -> re-parse next time
+        val isRecentlyModified = stamp.time > System.currentTimeMillis() - TIME_GRANULARITY_MS
+        return SourceFile(
+            path = stamp.path,
+            time = if (isRecentlyModified) UNKNOWN_TIME else stamp.time,
+            size = stamp.size,
+            keys = keys,
+        )
+    }
+
+    private fun add(file: SourceFile) {
+        files[file.path] = file
+        file.keys.forEach { key -> references.getOrPut(key) { mutableSetOf() } += file.path }
+    }
+
+    private fun remove(path: String) {
+        val file = files.remove(path) ?: return
+
+        file.keys.forEach { key ->
+            val paths = references[key] ?: return@forEach
+            paths -= path
+
+            if (paths.isEmpty()) {
+                references -= key
+            }
+        }
+    }
+
+    // Static imports reference the class of the imported member. Nested classes and members reference each outer
+    // class too, because only top-level classes are looked up, e.g. 'a.Outer.Inner.CONST' -> 'a.Outer.Inner', 'a.Outer'
+    private fun getReferenceKeys(import: Import): List<String> {
+        val parts = import.parts()
+        val name = parts.joinToString(separator = ".")
+        val key = when {
+            import.isStatic && import.hasTrailingWildcard -> name
+            import.isStatic -> import.packageName()
+            import.hasTrailingWildcard -> qualify(name, WILDCARD)
+            else -> name
+        }
+        val classParts = if (import.isStatic && !import.hasTrailingWildcard) parts.dropLast(1) else parts
+        val outerClasses = (1 until classParts.size)
+            .filter { index -> classParts[index].firstOrNull()?.isUpperCase() == true }
+            .map { index -> classParts.subList(0, index + 1).joinToString(separator = ".") }
+
+        return listOf(key) + outerClasses
+    }
+
+    // Class named after the file, Kotlin file facade and top-level declarations without indentation
+    private fun getDeclaredNames(file: File): Set<String> {
+        val names = mutableSetOf(file.nameWithoutExtension)
+
+        if (file.extension == "kt") {
+            names += "${file.nameWithoutExtension}Kt"
+        }
+        file.forEachLine { line ->
+            DECLARATION_REGEX.find(line)?.let { result -> names += result.groupValues[1] }
+        }
+        return names
+    }
+
+    private fun mentions(path: String, namesRegex: Regex) = try {
+        namesRegex.containsMatchIn(File(path).readText())
+    } catch (error: Throwable) {
+        Telemetry.verboseErr("Failed to read source file $path: ${error.message}")
+        false
+    }
+
+    private fun qualify(packageName: String, name: String) = when (packageName.isEmpty()) {
+        true -> name
+        else -> "$packageName.$name"
+    }
+
+    private fun load(): List<SourceFile> {
+        if (!indexFile.exists()) {
+            return emptyList()
+        }
+        return try {
+            DataInputStream(indexFile.inputStream().buffered()).use { input ->
+                if (input.readInt() != FORMAT_VERSION) {
+                    return emptyList()
+                }
+                (0 until input.readInt()).map {
+                    SourceFile(
+                        path = input.readUTF(),
+                        time = input.readLong(),
+                        size = input.readLong(),
+                        keys = (0 until input.readInt()).map { input.readUTF() },
+                    )
+                }
+            }
+        } catch (error: Throwable) {
+            Telemetry.verboseErr("Failed to read source reference index ${indexFile.path}: ${error.message}")
+            emptyList()
+        }
+    }
+
+    // Written to the temporary file first, so the index is never left half-written
+    private fun save() {
+        val tmpFile = File(indexFile.parentFile, "${indexFile.name}.tmp")
+
+        DataOutputStream(tmpFile.outputStream().buffered()).use { output ->
+            output.writeInt(FORMAT_VERSION)
+            output.writeInt(files.size)
+
+            files.values.forEach { file ->
+                output.writeUTF(file.path)
+                output.writeLong(file.time)
+                output.writeLong(file.size)
+                output.writeInt(file.keys.size)
+                file.keys.forEach(output::writeUTF)
+            }
+        }
+        if (!tmpFile.renameTo(indexFile)) {
+            Telemetry.verboseErr("Failed to write source reference index: ${indexFile.absolutePath}")
+        }
+    }
+
+    private class Stamp(
+        val path: String,
+        val time: Long,
+        val size: Long,
+    )
+
+    private class SourceFile(
+        val path: String,
+        val time: Long,
+        val size: Long,
+        val keys: List<String>,
+    ) {
+
+        fun isUpToDate(stamp: Stamp) = time == stamp.time && size == stamp.size
+    }
+
+    private companion object {
+        const val FORMAT_VERSION = 2
+        const val WILDCARD = "*"
+        const val TIME_GRANULARITY_MS = 2_000L
+        const val UNKNOWN_TIME = -1L
+        val SOURCE_SETS = setOf("main", "debug")
+        val SOURCE_DIRS = setOf("java", "kotlin")
+
+        // E.g. 'public final class A', 'data class A', 'inline fun <reified T> String.a()', 'const val A'
+        val DECLARATION_REGEX = Regex(
+            "^(?:[a-z]+\\s+)*(?:class|interface|@interface|enum|record|object|fun|val|var|typealias)\\s+" +
+                "(?:<[^>]*>\\s*)?(?:[\\w.]+(?:<[^>]*>)?\\??\\.)?(\\w+)"
+        )
+    }
+}
@@ -0,0 +1,186 @@
+package ru.fomenkov.plugin.repository
+
+import ru.fomenkov.plugin.repository.parser.JetifiedResourceParser
+import ru.fomenkov.plugin.util.Telemetry
+import ru.fomenkov.plugin.util.noTilda
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+
+/**
+ * Persistent index of transformed JARs and AARs in Gradle transforms-X directories, with artifact ID and version
+ * of each resource. Hash directories are rescanned only if their modification time or modification time
+ * of their 'transformed' directory has changed since the last refresh
+ */
+class TransformsIndex(
+    private val indexFile: File,
+    private val parser: JetifiedResourceParser,
+) {
+
+    /**
+     * Rescan new and changed hash directories and save the index
+     *
+     * @return all resources in the cache directories
+     */
+    fun refresh(cacheDirs: List<File>): List<Resource> {
+        val previousDirs = load()
+        val currentDirs = mutableMapOf<String, HashDir>()
+        val changedDirs = mutableListOf<File>()
+
+        cacheDirs.forEach { cacheDir ->
+            (cacheDir.listFiles() ?: emptyArray()).forEach { dir ->
+                val previous = previousDirs[dir.path]
+
+                if (previous != null && previous.isUpToDate(dir)) {
+                    currentDirs[dir.path] = previous
+                } else {
+                    changedDirs += dir
+                }
+            }
+        }
+        scan(changedDirs).forEach { dir -> currentDirs[dir.path] = dir }
+        Telemetry.verboseLog("Transforms index: ${currentDirs.size} directories, ${changedDirs.size} rescanned")
+
+        if (changedDirs.isNotEmpty() || currentDirs.size != previousDirs.size) {
+            save(currentDirs.values)
+        }
+        return currentDirs.values.flatMap { dir -> dir.resources }
+    }
+
+    private fun scan(dirs: List<File>): List<HashDir> {
+        if (dirs.isEmpty()) {
+            return emptyList()
+        }
+        val executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors())
+
+        return try {
+            executor.invokeAll(dirs.map { dir -> Callable { scan(dir) } }).map { task -> task.get() }
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    // Modification times are taken before listing, so changes made during the scan are picked up next time.
+    // Directories modified just now may change again within the file system time granularity -> rescan next time
+    private fun scan(dir: File): HashDir {
+        val transformedDir = getTransformedDir(dir)
+        val isRecentlyModified = maxOf(dir.lastModified(), transformedDir.lastModified()) > System.currentTimeMillis() - TIME_GRANULARITY_MS
+        val dirTime = if (isRecentlyModified) UNKNOWN_TIME else dir.lastModified()
+        val transformedDirTime = transformedDir.lastModified()
+        val paths = mutableListOf<String>()
+
+        fun scanJars(jarsDir: File) {
+            (jarsDir.list() ?: emptyArray()).forEach { name ->
+                if (name.endsWith(".jar")) {
+                    paths += File(jarsDir, name).absolutePath
+                }
+            }
+        }
+        (transformedDir.list() ?: emptyArray()).forEach { name ->
+            if (name.endsWith(".jar") || name.endsWith(".aar")) {
+                paths += File(transformedDir, name).absolutePath
+            } else {
+                val jarsDir = File(transformedDir, "$name/jars")
+                scanJars(jarsDir)
+                scanJars(File(jarsDir, "libs"))
+            }
+        }
+        return HashDir(
+            path = dir.path,
+            dirTime = dirTime,
+            transformedDirTime = transformedDirTime,
+            resources = paths.map { path -> Resource(path, parser.parse(path)) },
+        )
+    }
+
+    private fun load(): Map<String, HashDir> {
+        if (!indexFile.exists()) {
+            return emptyMap()
+        }
+        return try {
+            DataInputStream(indexFile.inputStream().buffered()).use { input ->
+                if (input.readInt() != FORMAT_VERSION) {
+                    return emptyMap()
+                }
+                (0 until input.readInt()).associate {
+                    val dir = HashDir(
+                        path = input.readUTF(),
+                        dirTime = input.readLong(),
+                        transformedDirTime = input.readLong(),
+                        resources = (0 until input.readInt()).map {
+                            val path = input.readUTF()
+                            val entry = JetifiedJarRepository.Entry(artifactId = input.readUTF(), version = input.readUTF())
+                            Resource(path, entry)
+                        },
+                    )
+                    dir.path to dir
+                }
+            }
+        } catch (error: Throwable) {
+            Telemetry.verboseErr("Failed to read transforms index ${indexFile.path}: ${error.message}")
+            emptyMap()
+        }
+    }
+
+    // Written to the temporary file first, so the index is never left half-written
+    private fun save(dirs: Collection<HashDir>) {
+        val tmpFile = File(indexFile.parentFile, "${indexFile.name}.tmp")
+
+        DataOutputStream(tmpFile.outputStream().buffered()).use { output ->
+            output.writeInt(FORMAT_VERSION)
+            output.writeInt(dirs.size)
+
+            dirs.forEach { dir ->
+                output.writeUTF(dir.path)
+                output.writeLong(dir.dirTime)
+                output.writeLong(dir.transformedDirTime)
+                output.writeInt(dir.resources.size)
+
+                dir.resources.forEach { resource ->
+                    output.writeUTF(resource.path)
+                    output.writeUTF(resource.entry.artifactId)
+                    output.writeUTF(resource.entry.version)
+                }
+            }
+        }
+        if (!tmpFile.renameTo(indexFile)) {
+            Telemetry.verboseErr("Failed to write transforms index: ${indexFile.absolutePath}")
+        }
+    }
+
+    data class Resource(val path: String, val entry: JetifiedJarRepository.Entry)
+
+    private class HashDir(
+        val path: String,
+        val dirTime: Long,
+        val transformedDirTime: Long,
+        val resources: List<Resource>,
+    ) {
+
+        fun isUpToDate(dir: File) = dirTime == dir.lastModified() && transformedDirTime == getTransformedDir(dir).lastModified()
+    }
+
+    companion object {
+
+        private const val FORMAT_VERSION = 1
+        private const val TRANSFORMS_DIR_PREFIX = "transforms-"
+        private const val TRANSFORMED_DIR = "transformed"
+        private const val TIME_GRANULARITY_MS = 2_000L
+        private const val UNKNOWN_TIME = -1L
+
+        private fun getTransformedDir(dir: File) = File(dir, TRANSFORMED_DIR)
+
+        /**
+         * @return transforms-X directories of the Gradle cache, the latest generation first
+         */
+        fun findCacheDirs(gradleCachesDir: String = "~/.gradle/caches".noTilda()): List<File> {
+            val dirs = File(gradleCachesDir).listFiles { file ->
+                file.isDirectory && file.name.startsWith(TRANSFORMS_DIR_PREFIX)
+            } ?: emptyArray()
+
+            return dirs.sortedByDescending { dir -> dir.name.removePrefix(TRANSFORMS_DIR_PREFIX).toIntOrNull() ?: 0 }
+        }
+    }
+}
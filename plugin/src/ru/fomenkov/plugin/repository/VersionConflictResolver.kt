@@ -0,0 +1,21 @@
+package ru.fomenkov.plugin.repository
+
+import ru.fomenkov.plugin.repository.parser.MetadataDescriptionParser
+import ru.fomenkov.plugin.util.Version
+
+/**
+ * Gradle-like version conflict resolution: the highest version of each group:artifact wins,
+ * so exactly one version of an artifact gets to classpath. Strict version constraints are not considered
+ */
+object VersionConflictResolver {
+
+    /**
+     * @return selected artifacts, one per group:artifact
+     */
+    fun resolve(artifacts: Collection<MetadataDescriptionParser.Artifact>): Set<MetadataDescriptionParser.Artifact> =
+        artifacts
+            .groupBy { artifact -> artifact.groupId to artifact.artifactId }
+            .values
+            .map { versions -> checkNotNull(versions.maxByOrNull { artifact -> Version.parse(artifact.version) }) }
+            .toSet()
+}
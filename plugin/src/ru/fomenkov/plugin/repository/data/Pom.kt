@@ -9,6 +9,7 @@ data class PomDescriptor(
 data class PomDependency(
     val descriptor: PomDescriptor,
     val scope: PomDependencyScope,
+    val isOptional: Boolean = false, // Not added to consumers
 )
 
 data class Pom(
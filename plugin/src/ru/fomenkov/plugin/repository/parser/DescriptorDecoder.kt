@@ -0,0 +1,258 @@
+package ru.fomenkov.plugin.repository.parser
+
+import java.io.BufferedInputStream
+import java.io.InputStream
+
+/**
+ * Streaming decoder for Gradle metadata descriptor.bin files. Descriptors are written with deduplicated
+ * Kryo strings: the first occurrence of a string is its index followed by the string itself, the next ones
+ * are the index only. The decoder rebuilds the string table while reading, so repeated group IDs and versions
+ * are resolved, and picks dependency coordinates as group, module and version written one after another.
+ * Dependencies of Gradle module metadata are grouped by variants, e.g. 'apiElements' or 'runtimeElements',
+ * which define their scope. Descriptors of POM files have no variants, so their scope is unknown
+ */
+class DescriptorDecoder(input: InputStream) {
+
+    private val input = BufferedInputStream(input, BUFFER_SIZE)
+    private val strings = mutableListOf<String>() // String table of the descriptor
+    private val tokens = ArrayDeque<Token>() // Lookahead for dependency coordinates
+    private val dependencies = mutableMapOf<MetadataDescriptionParser.Artifact, Occurrence>()
+    private var variantScope = Scope.UNKNOWN
+    private var isEndOfStream = false
+
+    fun decode(): List<Dependency> {
+        while (true) {
+            while (!isEndOfStream && tokens.size < MAX_DEPENDENCY_TOKENS) {
+                readToken()?.let(tokens::addLast) ?: run { isEndOfStream = true }
+            }
+            if (tokens.isEmpty()) {
+                break
+            }
+            val count = readDependency()
+
+            if (count > 0) {
+                repeat(count) { tokens.removeFirst() }
+            } else {
+                val token = tokens.removeFirst()
+
+                if (token is Token.Definition) {
+                    updateVariantScope(token.value)
+                }
+            }
+        }
+        return dependencies.map { (artifact, occurrence) ->
+            Dependency(artifact, occurrence.scope, occurrence.count)
+        }
+    }
+
+    // New strings are recognized first, because their index must be the next one in the string table
+    private fun readToken(): Token? {
+        input.mark(MAX_STRING_BYTES)
+
+        if (readVarInt() == strings.size) {
+            val value = readString()
+
+            if (value != null) {
+                strings += value
+                return Token.Definition(value)
+            }
+        }
+        input.reset()
+
+        return when (val byte = input.read()) {
+            -1 -> null
+            else -> Token.Raw(byte, stringsCount = strings.size)
+        }
+    }
+
+    /**
+     * Group, module and version at the head of tokens, each one is either a new string or a reference
+     * to the previous one
+     *
+     * @return number of tokens taken by the dependency or 0 if there's no dependency
+     */
+    private fun readDependency(): Int {
+        var position = 0
+        var hasDefinitions = false
+
+        fun readSlot(isValid: (String) -> Boolean): String? {
+            val value = when (val token = tokens.getOrNull(position++)) {
+                is Token.Definition -> token.value.also { hasDefinitions = true }
+                is Token.Raw -> {
+                    var index = token.value and 0x7F
+                    var shift = 7
+                    var byte = token.value
+
+                    while (byte and 0x80 != 0 && shift < 32) {
+                        byte = (tokens.getOrNull(position++) as? Token.Raw)?.value ?: return null
+                        index = index or ((byte and 0x7F) shl shift)
+                        shift += 7
+                    }
+                    strings.getOrNull(index)?.takeIf { index < token.stringsCount }
+                }
+                null -> null
+            }
+            return value?.takeIf(isValid)
+        }
+        val groupId = readSlot(::isValidGroupIdOrArtifact) ?: return 0
+        val artifactId = readSlot(::isValidGroupIdOrArtifact) ?: return 0
+        val version = readSlot(::isValidVersion) ?: return 0
+
+        // References only may be just some bytes which look like a reference to a group, module and version
+        if (!hasDefinitions && !groupId.contains('.')) {
+            return 0
+        }
+        val artifact = MetadataDescriptionParser.Artifact(groupId, artifactId, version)
+        val occurrence = dependencies.getOrPut(artifact) { Occurrence() }
+        occurrence.count++
+
+        if (variantScope.ordinal < occurrence.scope.ordinal) {
+            occurrence.scope = variantScope
+        }
+        return position
+    }
+
+    private fun updateVariantScope(value: String) {
+        if (VARIANT_SUFFIXES.none(value::endsWith)) {
+            return
+        }
+        variantScope = when {
+            value.contains("api", ignoreCase = true) -> Scope.API
+            value.contains("runtime", ignoreCase = true) -> Scope.RUNTIME
+            else -> Scope.UNKNOWN
+        }
+    }
+
+    private fun readVarInt(): Int? {
+        var result = 0
+
+        for (shift in 0 until 32 step 7) {
+            val byte = input.read()
+
+            if (byte == -1) {
+                return null
+            }
+            result = result or ((byte and 0x7F) shl shift)
+
+            if (byte and 0x80 == 0) {
+                return result
+            }
+        }
+        return null
+    }
+
+    /**
+     * Kryo string: ASCII characters with the highest bit set in the last one,
+     * or UTF-8 length with the highest bit set in the first byte, followed by characters
+     */
+    private fun readString(): String? {
+        val first = input.read()
+
+        return when {
+            first == -1 -> null
+            first and 0x80 == 0 -> readAscii(first)
+            else -> readUtf8(readUtf8Length(first) ?: return null)
+        }?.takeIf { value -> value.isNotEmpty() && value.all(::isPrintable) }
+    }
+
+    private fun readAscii(first: Int): String? {
+        val builder = StringBuilder().append(first.toChar())
+
+        while (builder.length < MAX_STRING_LENGTH) {
+            val byte = input.read()
+
+            if (byte == -1) {
+                return null
+            }
+            builder.append((byte and 0x7F).toChar())
+
+            if (byte and 0x80 != 0) {
+                return builder.toString()
+            }
+        }
+        return null
+    }
+
+    // Character count + 1, 0 is for null string
+    private fun readUtf8Length(first: Int): Int? {
+        var result = first and 0x3F
+
+        if (first and 0x40 != 0) {
+            var shift = 6
+
+            while (true) {
+                val byte = input.read()
+
+                if (byte == -1 || shift > 27) {
+                    return null
+                }
+                result = result or ((byte and 0x7F) shl shift)
+
+                if (byte and 0x80 == 0) {
+                    break
+                }
+                shift += 7
+            }
+        }
+        return result - 1
+    }
+
+    private fun readUtf8(length: Int): String? {
+        if (length !in 1..MAX_STRING_LENGTH) {
+            return null
+        }
+        val chars = CharArray(length)
+
+        for (index in 0 until length) {
+            val byte = input.read()
+
+            chars[index] = when (byte shr 4) {
+                in 0..7 -> byte.toChar()
+                12, 13 -> (((byte and 0x1F) shl 6) or (input.read() and 0x3F)).toChar()
+                14 -> (((byte and 0x0F) shl 12) or ((input.read() and 0x3F) shl 6) or (input.read() and 0x3F)).toChar()
+                else -> return null
+            }
+        }
+        return String(chars)
+    }
+
+    private fun isPrintable(char: Char) = char >= ' ' && char != '\u007F' && char != '\uFFFD'
+
+    private fun isValidGroupIdOrArtifact(text: String) = text.first().isLetter() && text.all { char ->
+        char.isLetterOrDigit() || char in ALLOWED_CHARS
+    }
+
+    private fun isValidVersion(text: String) = text.first().isDigit() && text.all { char ->
+        char.isLetterOrDigit() || char in ALLOWED_CHARS
+    }
+
+    enum class Scope {
+        API,     // Compile classpath of consumers
+        RUNTIME, // Runtime classpath of consumers only
+        UNKNOWN, // No variants, e.g. descriptor of POM file
+    }
+
+    data class Dependency(
+        val artifact: MetadataDescriptionParser.Artifact,
+        val scope: Scope,
+        val occurrences: Int,
+    )
+
+    private class Occurrence(var scope: Scope = Scope.UNKNOWN, var count: Int = 0)
+
+    private sealed class Token {
+
+        class Definition(val value: String) : Token()
+
+        class Raw(val value: Int, val stringsCount: Int) : Token() // Strings count is a limit for references
+    }
+
+    private companion object {
+        const val BUFFER_SIZE = 64 * 1024
+        const val MAX_STRING_LENGTH = 1024
+        const val MAX_STRING_BYTES = 5 + 5 + 3 * MAX_STRING_LENGTH // Index, length and characters
+        const val MAX_DEPENDENCY_TOKENS = 3 * 5 // Three references with the longest index
+        val ALLOWED_CHARS = setOf('.', '-', '_')
+        val VARIANT_SUFFIXES = listOf("Elements", "Elements-published", "Publication")
+    }
+}
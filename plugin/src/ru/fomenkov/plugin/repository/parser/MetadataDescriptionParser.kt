@@ -1,81 +1,157 @@
 package ru.fomenkov.plugin.repository.parser
 
+import ru.fomenkov.plugin.util.Telemetry
+import java.io.DataInputStream
+import java.io.DataOutputStream
 import java.io.File
+import java.io.FileOutputStream
 
-class MetadataDescriptionParser {
+/**
+ * Parser for Gradle metadata descriptor.bin files. Decoded dependencies are kept in the append-only
+ * cache file by descriptor path and modification time, so each descriptor is decoded once
+ *
+ * @param cacheFile persistent cache of decoded descriptors, no persistent cache if null
+ */
+class MetadataDescriptionParser(private val cacheFile: File? = null) {
+
+    private val descriptors = mutableMapOf<String, Descriptor>() // Descriptor path -> decoded dependencies
+    private var isCacheLoaded = false
 
     /**
      * @return artifact to transitive status (true is transitive)
      */
     fun parse(path: String): Map<Artifact, Boolean> {
-        val result = mutableMapOf<Artifact, Boolean>()
         val file = File(path)
 
         if (!file.exists() || !file.isFile) {
             error("Metadata descriptor file doesn't exist: $path")
         }
-        val lines = file.readText()
-            .split(DELIMITER)
-            .map(String::trim)
-
-        lines.forEachIndexed { index, line ->
-            val isVersion = isValidVersion(line)
-
-            if (isVersion && index > 1) {
-                val groupId = lines[index - 2]
-                val artifactId = lines[index - 1]
-                val version = lines[index]
-
-                if (isValidGroupIdOrArtifact(groupId) && isValidGroupIdOrArtifact(artifactId)) {
-                    val artifact = Artifact(groupId, artifactId, version)
-
-                    if (artifact in result) {
-                        result[artifact] = true // Transitive dependencies can be found twice in a binary file?
-                    } else {
-                        result += artifact to false
-                    }
-                }
+        val modified = file.lastModified()
+        val dependencies = synchronized(descriptors) {
+            loadCache()
+            descriptors[path]?.takeIf { descriptor -> descriptor.modified == modified }?.dependencies
+        } ?: run {
+            val dependencies = file.inputStream().use { input -> DescriptorDecoder(input).decode() }
+            val descriptor = Descriptor(path, modified, dependencies)
+
+            synchronized(descriptors) {
+                descriptors[path] = descriptor
+                appendToCache(descriptor)
             }
+            dependencies
         }
-        return result
+        return dependencies.associate { dep -> dep.artifact to dep.isTransitive() }
     }
 
-    private fun isValidGroupIdOrArtifact(text: String): Boolean {
-        if (text.isBlank()) {
-            return false
+    // Dependencies of POM descriptors have no scope. Transitive ones can be found twice in a binary file?
+    private fun DescriptorDecoder.Dependency.isTransitive() = when (scope) {
+        DescriptorDecoder.Scope.API -> true
+        DescriptorDecoder.Scope.RUNTIME -> false
+        DescriptorDecoder.Scope.UNKNOWN -> occurrences > 1
+    }
+
+    private fun loadCache() {
+        if (isCacheLoaded || cacheFile == null) {
+            return
         }
-        // Assuming group ID or artifact starts with letter
-        if (!text.first().isLetter()) {
-            return false
+        isCacheLoaded = true
+
+        if (!cacheFile.exists()) {
+            return
         }
-        text.forEach { char ->
-            if (!char.isLetterOrDigit() && char !in ALLOWED_CHARS) {
-                return false
+        var recordsCount = 0
+        var isCorrupted = false
+
+        try {
+            DataInputStream(cacheFile.inputStream().buffered()).use { input ->
+                if (input.readInt() != FORMAT_VERSION) {
+                    isCorrupted = true
+                    return@use
+                }
+                while (input.available() > 0) {
+                    val descriptor = input.readDescriptor()
+                    descriptors[descriptor.path] = descriptor
+                    recordsCount++
+                }
             }
+        } catch (error: Throwable) {
+            // Records read before the error are kept, e.g. if the last record is partially written
+            Telemetry.verboseErr("Failed to read descriptors cache ${cacheFile.path}: ${error.message}")
+            isCorrupted = true
+        }
+        // Records of the same descriptor are appended after each change, so the file is rewritten sometimes
+        if (isCorrupted || recordsCount > descriptors.size * 2) {
+            Telemetry.verboseLog("Compacting descriptors cache: $recordsCount records, ${descriptors.size} descriptors")
+            writeCache()
         }
-        return true
     }
 
-    private fun isValidVersion(text: String): Boolean {
-        if (text.isBlank()) {
-            return false
+    // Written to the temporary file first, so the cache is never left half-written
+    private fun writeCache() {
+        val cacheFile = cacheFile ?: return
+        val tmpFile = File(cacheFile.parentFile, "${cacheFile.name}.tmp")
+
+        DataOutputStream(tmpFile.outputStream().buffered()).use { output ->
+            output.writeInt(FORMAT_VERSION)
+            descriptors.values.forEach { descriptor -> output.writeDescriptor(descriptor) }
         }
-        // Assuming version starts with digit
-        if (!text.first().isDigit()) {
-            return false
+        if (!tmpFile.renameTo(cacheFile)) {
+            Telemetry.verboseErr("Failed to write descriptors cache: ${cacheFile.absolutePath}")
         }
-        text.forEach { char ->
-            if (!char.isLetterOrDigit() && char !in ALLOWED_CHARS) {
-                return false
+    }
+
+    private fun appendToCache(descriptor: Descriptor) {
+        val cacheFile = cacheFile ?: return
+
+        if (!cacheFile.exists()) {
+            writeCache()
+            return
+        }
+        try {
+            DataOutputStream(FileOutputStream(cacheFile, true).buffered()).use { output ->
+                output.writeDescriptor(descriptor)
             }
+        } catch (error: Throwable) {
+            Telemetry.verboseErr("Failed to update descriptors cache ${cacheFile.path}: ${error.message}")
+        }
+    }
+
+    private fun DataInputStream.readDescriptor(): Descriptor {
+        val path = readUTF()
+        val modified = readLong()
+        val dependencies = (0 until readInt()).map {
+            DescriptorDecoder.Dependency(
+                artifact = Artifact(groupId = readUTF(), artifactId = readUTF(), version = readUTF()),
+                scope = DescriptorDecoder.Scope.values()[readByte().toInt()],
+                occurrences = readInt(),
+            )
+        }
+        return Descriptor(path, modified, dependencies)
+    }
+
+    private fun DataOutputStream.writeDescriptor(descriptor: Descriptor) {
+        writeUTF(descriptor.path)
+        writeLong(descriptor.modified)
+        writeInt(descriptor.dependencies.size)
+
+        descriptor.dependencies.forEach { dep ->
+            writeUTF(dep.artifact.groupId)
+            writeUTF(dep.artifact.artifactId)
+            writeUTF(dep.artifact.version)
+            writeByte(dep.scope.ordinal)
+            writeInt(dep.occurrences)
         }
-        return true
     }
 
     data class Artifact(val groupId: String, val artifactId: String, val version: String)
 
+    private class Descriptor(
+        val path: String,
+        val modified: Long,
+        val dependencies: List<DescriptorDecoder.Dependency>,
+    )
+
     private companion object {
-        val DELIMITER = Char(65533)
-        val ALLOWED_CHARS = setOf('.', '-')
+        const val FORMAT_VERSION = 1
     }
-}
\ No newline at end of file
+}
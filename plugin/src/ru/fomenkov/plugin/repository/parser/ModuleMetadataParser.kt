@@ -0,0 +1,82 @@
+package ru.fomenkov.plugin.repository.parser
+
+import com.google.gson.JsonObject
+import com.google.gson.JsonParser
+import java.io.File
+
+/**
+ * Parser for Gradle module metadata (.module files). Dependencies of API variants are visible on the compile
+ * classpath of consumers, dependencies of runtime variants are not. Kotlin multiplatform modules declare
+ * JVM variants in another module, so the referenced module is taken as a dependency of the variant
+ */
+class ModuleMetadataParser {
+
+    /**
+     * @return artifact to compile visibility (true is on compile classpath of consumers)
+     */
+    fun parse(path: String): Map<MetadataDescriptionParser.Artifact, Boolean> {
+        val file = File(path)
+
+        if (!file.exists() || !file.isFile) {
+            error("Module metadata file doesn't exist: $path")
+        }
+        val root = file.bufferedReader().use { reader -> JsonParser.parseReader(reader).asJsonObject }
+        val result = mutableMapOf<MetadataDescriptionParser.Artifact, Boolean>()
+
+        root.getObjects("variants").forEach { variant ->
+            val attributes = variant.getObject("attributes")
+            val isApi = when (attributes?.getString(ATTR_USAGE)) {
+                in API_USAGES -> true
+                in RUNTIME_USAGES -> false
+                else -> return@forEach
+            }
+            if (attributes?.getString(ATTR_CATEGORY).let { category -> category != null && category != CATEGORY_LIBRARY }) {
+                return@forEach
+            }
+            if (attributes?.getString(ATTR_KOTLIN_PLATFORM).let { platform -> platform != null && platform !in JVM_PLATFORMS }) {
+                return@forEach
+            }
+            val dependencies = variant.getObject("available-at")?.let(::listOf) ?: variant.getObjects("dependencies")
+
+            dependencies.forEach { dependency ->
+                val artifact = dependency.toArtifact() ?: return@forEach
+                result[artifact] = result[artifact] == true || isApi
+            }
+        }
+        return result
+    }
+
+    // Platforms (BOMs) only constrain versions of other dependencies
+    private fun JsonObject.toArtifact(): MetadataDescriptionParser.Artifact? {
+        val category = getObject("attributes")?.getString(ATTR_CATEGORY)
+
+        if (category != null && category != CATEGORY_LIBRARY) {
+            return null
+        }
+        val groupId = getString("group") ?: return null
+        val artifactId = getString("module") ?: return null
+        val version = when (val element = get("version")) {
+            null -> ""
+            is JsonObject -> element.getString("strictly") ?: element.getString("requires") ?: element.getString("prefers") ?: ""
+            else -> element.asString
+        }
+        return MetadataDescriptionParser.Artifact(groupId, artifactId, version)
+    }
+
+    private fun JsonObject.getObjects(name: String): List<JsonObject> =
+        getAsJsonArray(name)?.filterIsInstance<JsonObject>() ?: emptyList()
+
+    private fun JsonObject.getObject(name: String): JsonObject? = get(name) as? JsonObject
+
+    private fun JsonObject.getString(name: String): String? = get(name)?.takeIf { element -> element.isJsonPrimitive }?.asString
+
+    private companion object {
+        const val ATTR_USAGE = "org.gradle.usage"
+        const val ATTR_CATEGORY = "org.gradle.category"
+        const val ATTR_KOTLIN_PLATFORM = "org.jetbrains.kotlin.platform.type"
+        const val CATEGORY_LIBRARY = "library"
+        val API_USAGES = setOf("java-api", "kotlin-api")
+        val RUNTIME_USAGES = setOf("java-runtime", "kotlin-runtime")
+        val JVM_PLATFORMS = setOf("jvm", "androidJvm")
+    }
+}
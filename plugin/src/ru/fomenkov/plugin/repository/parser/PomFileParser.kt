@@ -40,6 +40,7 @@ class PomFileParser {
         var artifactId: String? = null
         var version = ""
         var scope = PomDependencyScope.COMPILE // Default scope
+        var isOptional = false
         var inExclusionBlock = false // TODO: consider POM <exclusions> block
 
         while (iterator.hasNext()) {
@@ -56,6 +57,7 @@ class PomFileParser {
                     line.startsWith("<artifactId>") -> artifactId = parseValue(line)
                     line.startsWith("<version>") -> version = parseValue(line)
                     line.startsWith("<scope>") -> scope = parseScope(parseValue(line))
+                    line.startsWith("<optional>") -> isOptional = parseValue(line).toBoolean()
                     line.startsWith("</dependency>") -> break
                 }
             }
@@ -67,6 +69,7 @@ class PomFileParser {
                 version = version,
             ),
             scope = scope,
+            isOptional = isOptional,
         )
     }
 
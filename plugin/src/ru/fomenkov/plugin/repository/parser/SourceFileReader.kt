@@ -37,6 +37,36 @@ class SourceFileReader(
         return imports
     }
 
+    /**
+     * @return package name and imports of the source file in a single pass
+     */
+    fun parseHeader(path: String): Header {
+        val file = File(path)
+
+        if (file.extension != "java" && file.extension != "kt") {
+            throw IllegalArgumentException("Source file must be either Java class or Kotlin file")
+        }
+        var packageName: String? = null
+        val imports = mutableListOf<Import>()
+
+        file.forEachLine { line ->
+            val import = importParser.parse(line)
+
+            when {
+                import != null -> imports += import
+                packageName == null && line.trimStart().startsWith("package ") -> {
+                    packageName = line.trim()
+                        .removePrefix("package ")
+                        .substringBefore(';')
+                        .substringBefore("//")
+                        .replace("`", "")
+                        .trim()
+                }
+            }
+        }
+        return Header(packageName = packageName ?: "", imports = imports)
+    }
+
     fun resolveImports(imports: List<Import>, verbose: Boolean = false): ResolverOutput {
         val resolved = mutableMapOf<Import, RepositoryResource>()
         val unresolved = mutableSetOf<Import>()
@@ -74,6 +104,11 @@ class SourceFileReader(
         return null
     }
 
+    data class Header(
+        val packageName: String, // Empty for the default package
+        val imports: List<Import>,
+    )
+
     data class ResolverOutput(
         val resolvedImports: Map<Import, RepositoryResource>,
         val unresolvedImports: Set<Import>,
@@ -0,0 +1,87 @@
+package ru.fomenkov.plugin.resolver
+
+enum class DependencyDeclaration(
+    val keyword: String,
+    val type: Type,
+    val relation: Relation?,
+) {
+    // Files
+    FILES_IMPLEMENTATION("implementationfiles", Type.FILES, Relation.IMPLEMENTATION),
+    FILES_API("apifiles", Type.FILES, Relation.API),
+    FILE_TREE_IMPLEMENTATION("implementationfileTree", Type.IGNORED, null), // Ignore fileTree declaration for a while
+    // Project
+    PROJECT_IMPLEMENTATION("implementationproject", Type.PROJECT, Relation.IMPLEMENTATION),
+    PROJECT_DEBUG_IMPLEMENTATION("debugImplementationproject", Type.PROJECT, Relation.DEBUG_IMPLEMENTATION),
+    PROJECT_API("apiproject", Type.PROJECT, Relation.API),
+    PROJECT_COMPILE_ONLY("compileOnlyproject", Type.PROJECT, Relation.COMPILE_ONLY),
+    PROJECT_ANDROID_TEST_IMPLEMENTATION("androidTestImplementationproject", Type.PROJECT, Relation.ANDROID_TEST_IMPLEMENTATION),
+    PROJECT_TEST_IMPLEMENTATION("testImplementationproject", Type.PROJECT, Relation.TEST_IMPLEMENTATION),
+    // Library
+    LIBRARY_IMPLEMENTATION("implementation", Type.LIBRARY, Relation.IMPLEMENTATION),
+    LIBRARY_API("api", Type.LIBRARY, Relation.API),
+    LIBRARY_ANDROID_TEST_IMPLEMENTATION("androidTestImplementation", Type.LIBRARY, Relation.ANDROID_TEST_IMPLEMENTATION),
+    LIBRARY_TEST_IMPLEMENTATION("testImplementation", Type.LIBRARY, Relation.TEST_IMPLEMENTATION),
+    API_LEVEL("apiLevel", Type.IGNORED, null); // Not an api dependency
+
+    enum class Type { FILES, PROJECT, LIBRARY, IGNORED }
+}
+
+/**
+ * Classifies build.gradle lines by dependency declaration keyword in a single pass without creating
+ * intermediate strings. Keywords are stored in a prefix trie, spaces and opening parentheses are skipped
+ * while matching, so `api project(':a')` and `api(project(':a'))` are the same declaration.
+ * The longest matched keyword wins, e.g. `implementation project` over `implementation`
+ */
+object DependencyDeclarationClassifier {
+
+    private val root = Node()
+
+    init {
+        DependencyDeclaration.values().forEach { declaration ->
+            var node = root
+            declaration.keyword.forEach { char -> node = node.getOrAdd(char) }
+            check(node.declaration == null) { "Duplicate keyword: ${declaration.keyword}" }
+            node.declaration = declaration
+        }
+    }
+
+    /**
+     * @param startIndex index of the first non-blank character, so untrimmed lines aren't copied
+     * @return declaration of the longest matched keyword or null if the line doesn't start with any
+     */
+    fun classify(line: CharSequence, startIndex: Int = 0): DependencyDeclaration? {
+        var node = root
+        var result: DependencyDeclaration? = null
+
+        for (index in startIndex until line.length) {
+            val char = line[index]
+
+            if (char == ' ' || char == '(') {
+                continue
+            }
+            node = node.get(char) ?: break
+            result = node.declaration ?: result
+        }
+        return result
+    }
+
+    private class Node {
+        private var chars = CharArray(0)
+        private var children = emptyArray<Node>()
+        var declaration: DependencyDeclaration? = null
+
+        fun get(char: Char): Node? {
+            for (index in chars.indices) {
+                if (chars[index] == char) {
+                    return children[index]
+                }
+            }
+            return null
+        }
+
+        fun getOrAdd(char: Char) = get(char) ?: Node().also { child ->
+            chars += char
+            children += child
+        }
+    }
+}
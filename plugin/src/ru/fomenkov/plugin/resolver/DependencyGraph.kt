@@ -0,0 +1,173 @@
+package ru.fomenkov.plugin.resolver
+
+import ru.fomenkov.plugin.util.Telemetry
+import java.util.*
+import kotlin.math.min
+
+/**
+ * Project dependency graph with dense integer IDs for module paths and dependencies.
+ * Transitive (API and compile-only) closures of all modules are computed with bitsets in a single pass
+ * over strongly connected components in topological order, so dependencies of each module are served
+ * from the precomputed closures without walking the graph again
+ *
+ * @param modules module paths mapped to their declared dependencies
+ * @param moduleNameToPath map for module path by name
+ * @param isIgnored dependencies to skip, e.g. ignored modules or libraries
+ */
+class DependencyGraph(
+    modules: Map<String, Set<Dependency>>,
+    moduleNameToPath: Map<String, String>,
+    isIgnored: (Dependency) -> Boolean = { false },
+) {
+
+    private val moduleIds = modules.keys.withIndex().associate { (id, path) -> path to id }
+    private val dependencies = mutableListOf<Dependency>() // Dependency ID -> dependency with implementation relation
+    private val dependencyIds = mutableMapOf<Dependency, Int>()
+    private val directDependencies = Array(moduleIds.size) { BitSet() }
+    private val directModules = arrayOfNulls<IntArray>(moduleIds.size)
+    private val exportedDependencies = Array(moduleIds.size) { BitSet() }
+    private val exportedModules = arrayOfNulls<IntArray>(moduleIds.size)
+    private val closures = arrayOfNulls<BitSet>(moduleIds.size) // Module ID -> exported dependencies, including transitive
+
+    init {
+        val unknownModuleNames = mutableSetOf<String>()
+
+        modules.entries.forEachIndexed { id, (_, deps) ->
+            val direct = mutableListOf<Int>()
+            val exported = mutableListOf<Int>()
+
+            deps.filterNot(isIgnored).forEach { dep ->
+                val targetId = when (dep) {
+                    is Dependency.Project -> {
+                        val path = moduleNameToPath[dep.moduleName]
+
+                        if (path == null) {
+                            // May occur for dependencies inside try-catch block
+                            if (unknownModuleNames.add(dep.moduleName)) {
+                                Telemetry.verboseErr("No module path for name: ${dep.moduleName}")
+                            }
+                            return@forEach
+                        }
+                        checkNotNull(moduleIds[path]) { "Module path $path not found" }
+                    }
+                    else -> null
+                }
+                val dependencyId = getDependencyId(dep)
+                directDependencies[id].set(dependencyId)
+                targetId?.let(direct::add)
+
+                if (dep.isTransitive()) {
+                    exportedDependencies[id].set(dependencyId)
+                    targetId?.let(exported::add)
+                }
+            }
+            directModules[id] = direct.toIntArray()
+            exportedModules[id] = exported.toIntArray()
+        }
+        computeClosures()
+    }
+
+    val modulesCount: Int
+        get() = moduleIds.size
+
+    val dependenciesCount: Int
+        get() = dependencies.size
+
+    /**
+     * @return all dependencies of the module including transitive, with implementation relation
+     */
+    fun getAllDependencies(modulePath: String): Set<Dependency> {
+        val id = checkNotNull(moduleIds[modulePath]) { "Module path $modulePath not found" }
+        val bits = directDependencies[id].clone() as BitSet
+        checkNotNull(directModules[id]).forEach { targetId -> bits.or(checkNotNull(closures[targetId])) }
+
+        val result = LinkedHashSet<Dependency>(bits.cardinality() * 2)
+        var dependencyId = bits.nextSetBit(0)
+
+        while (dependencyId >= 0) {
+            result += dependencies[dependencyId]
+            dependencyId = bits.nextSetBit(dependencyId + 1)
+        }
+        return result
+    }
+
+    private fun getDependencyId(dep: Dependency): Int {
+        val normalized = when (dep) {
+            is Dependency.Project -> dep.copy(relation = Relation.IMPLEMENTATION)
+            is Dependency.Library -> dep.copy(relation = Relation.IMPLEMENTATION)
+            is Dependency.Files -> dep.copy(relation = Relation.IMPLEMENTATION)
+        }
+        return dependencyIds.getOrPut(normalized) {
+            dependencies += normalized
+            dependencies.size - 1
+        }
+    }
+
+    // Iterative Tarjan's algorithm over exported edges. Components are completed in reverse topological order,
+    // so closures of the modules they export are already known. Modules of the same cycle share one closure
+    private fun computeClosures() {
+        val count = moduleIds.size
+        val index = IntArray(count) { -1 }
+        val lowLink = IntArray(count)
+        val isOnStack = BooleanArray(count)
+        val stack = ArrayDeque<Int>()
+        val callStack = ArrayDeque<IntArray>() // Module ID and position of the next edge to visit
+        var nextIndex = 0
+
+        fun visit(id: Int) {
+            index[id] = nextIndex
+            lowLink[id] = nextIndex
+            nextIndex++
+            stack.addLast(id)
+            isOnStack[id] = true
+            callStack.addLast(intArrayOf(id, 0))
+        }
+
+        for (root in 0 until count) {
+            if (index[root] != -1) {
+                continue
+            }
+            visit(root)
+
+            while (callStack.isNotEmpty()) {
+                val frame = callStack.last()
+                val id = frame[0]
+                val edges = checkNotNull(exportedModules[id])
+
+                if (frame[1] < edges.size) {
+                    val targetId = edges[frame[1]++]
+
+                    when {
+                        index[targetId] == -1 -> visit(targetId)
+                        isOnStack[targetId] -> lowLink[id] = min(lowLink[id], index[targetId])
+                    }
+                    continue
+                }
+                callStack.removeLast()
+                callStack.lastOrNull()?.let { parent -> lowLink[parent[0]] = min(lowLink[parent[0]], lowLink[id]) }
+
+                if (lowLink[id] == index[id]) {
+                    val component = mutableListOf<Int>()
+
+                    do {
+                        val member = stack.removeLast()
+                        isOnStack[member] = false
+                        component += member
+                    } while (member != id)
+
+                    val closure = BitSet()
+
+                    component.forEach { member ->
+                        closure.or(exportedDependencies[member])
+
+                        // Members of the same component have no closure yet, but their exports are added anyway
+                        checkNotNull(exportedModules[member]).forEach { targetId ->
+                            closures[targetId]?.let(closure::or)
+                        }
+                    }
+                    component.forEach { member -> closures[member] = closure }
+                }
+            }
+        }
+    }
+}
@@ -5,7 +5,6 @@ import ru.fomenkov.plugin.repository.data.PomDependencyScope
 import ru.fomenkov.plugin.task.resolve.GradleCacheItem
 import ru.fomenkov.plugin.util.*
 import java.io.File
-import java.io.FileFilter
 
 class ProjectResolver(
     private val propertiesFileName: String,
@@ -95,51 +94,50 @@ class ProjectResolver(
         val path = "$modulePath/$BUILD_GRADLE_FILE_NAME"
         val variables = mutableMapOf<String, String>()
 
-        File(path).readLines()
-            .map { line -> line.trim().replace("\"", "'") }
-            // TODO: refactor
-            .filterNot { line -> line.isBlank() || line.startsWith("#") || line.startsWith("//") || line.startsWith("implementationClass") }
-            .forEach { line ->
-                // Property can be found in build.gradle file -> add to main properties collection
-                if (line.startsWith("project.ext")) {
-                    val parts = line.split("=")
+        File(path).forEachLine { rawLine ->
+            val startIndex = rawLine.indexOfFirst { char -> !char.isWhitespace() }
 
-                    if (parts.size != 2) {
-                        error("[$path] Failed to parse property: $line")
-                    }
-                    val artifact = parts[0].trim()
-                    val version = parts[1].replace("\"", "").replace("'", "").trim() // TODO: refactor
-                    properties += artifact to version
-                } else if (line.isRootProjectPropertyVariableDefinition()) { // When library version in a separate variable
-                    variables += line.extractRootProjectPropertyVariable()
-                }
-                val dependency = when {
-                    line.hasFileTreeImplementationPrefix() -> null // Ignore fileTree declaration for a while
-                    line.hasFilesImplementationPrefix() || line.hasFilesApiPrefix() -> {
-                        parseFilesDependency(modulePath, line)
-                    }
-                    line.hasProjectImplementationPrefix() ||
-                            line.hasProjectDebugImplementationPrefix() ||
-                            line.hasProjectApiPrefix() ||
-                            line.hasProjectCompileOnlyPrefix() ||
-                            line.hasProjectAndroidTestImplementationPrefix() ||
-                            line.hasProjectTestImplementationPrefix() -> {
-                        parseModuleDependency(line)
-                    }
-                    line.hasLibraryImplementationPrefix() ||
-                            line.hasLibraryApiPrefix() ||
-                            line.hasLibraryAndroidTestImplementationPrefix() ||
-                            line.hasLibraryTestImplementationPrefix() -> {
-                        parseLibraryDependency(variables, line)
-                    }
-                    else -> null
+            if (startIndex == -1 || IGNORED_LINE_PREFIXES.any { prefix -> rawLine.startsWith(prefix, startIndex) }) {
+                return@forEachLine
+            }
+            // Most of the lines aren't declarations -> classify the raw line and normalize only the ones to be parsed
+            val declaration = DependencyDeclarationClassifier.classify(rawLine, startIndex)
+            val isProperty = rawLine.startsWith("project.ext", startIndex)
+            val isVariable = rawLine.startsWith("def ", startIndex)
+
+            if (declaration == null && !isProperty && !isVariable) {
+                if (Telemetry.isVerbose) {
+                    Telemetry.verboseErr("[$path] Skipping line: ${rawLine.trim()}")
                 }
-                if (dependency != null) {
-                    deps += dependency
-                } else {
-                    Telemetry.verboseErr("[$path] Skipping line: $line")
+                return@forEachLine
+            }
+            val line = rawLine.trim().replace('"', '\'')
+
+            // Property can be found in build.gradle file -> add to main properties collection
+            if (isProperty) {
+                val separatorIndex = line.indexOf('=')
+
+                if (separatorIndex == -1 || line.indexOf('=', separatorIndex + 1) != -1) {
+                    error("[$path] Failed to parse property: $line")
                 }
+                val artifact = line.substring(0, separatorIndex).trim()
+                val version = line.substring(separatorIndex + 1).replace("'", "").trim()
+                properties += artifact to version
+            } else if (isVariable && line.isRootProjectPropertyVariableDefinition()) { // When library version in a separate variable
+                variables += line.extractRootProjectPropertyVariable()
+            }
+            val dependency = when (declaration?.type) {
+                DependencyDeclaration.Type.FILES -> parseFilesDependency(modulePath, line, checkNotNull(declaration.relation))
+                DependencyDeclaration.Type.PROJECT -> parseModuleDependency(line, checkNotNull(declaration.relation))
+                DependencyDeclaration.Type.LIBRARY -> parseLibraryDependency(variables, line, checkNotNull(declaration.relation))
+                DependencyDeclaration.Type.IGNORED, null -> null
             }
+            if (dependency != null) {
+                deps += dependency
+            } else {
+                Telemetry.verboseErr("[$path] Skipping line: $line")
+            }
+        }
         return deps
     }
 
@@ -169,36 +167,26 @@ class ProjectResolver(
     fun findAllResourcesInGradleCache(path: String): Set<GradleCacheItem> {
         Telemetry.verboseLog("List all JAR, AAR and POM files in Gradle cache")
         val fullPath = path.replace("~", HOME_DIR)
-        val items = mutableSetOf<GradleCacheItem>()
-
-        File(fullPath).files { packageDir ->
-            packageDir.files { artifactDir ->
-                artifactDir.files { versionDir ->
-                    versionDir.files { hashDir ->
-                        hashDir.files { resourceFile ->
-                            // TODO: filter -sources.* and -javadoc.*?
-                            if (resourceFile.extension == "jar" || resourceFile.extension == "aar") {
-                                items += GradleCacheItem.Archive(
-                                    pkg = packageDir.name,
-                                    artifact = artifactDir.name,
-                                    version = versionDir.name,
-                                    resource = resourceFile.name,
-                                    fullPath = resourceFile.path,
-                                )
-                            } else if (resourceFile.extension == "pom") {
-//                                items += parsePomFile(
-//                                    pkg = packageDir.name,
-//                                    artifact = artifactDir.name,
-//                                    version = versionDir.name,
-//                                    pomFile = resourceFile,
-//                                )
-                            }
-                        }
-                    }
-                }
+
+        // Package / artifact / version / hash / resource file
+        val crawler = DirectoryCrawler(maxDepth = 5) { entry ->
+            val extension = entry.path.toFile().extension
+
+            // TODO: filter -sources.* and -javadoc.*? POM files are not parsed for now
+            if (entry.depth == 5 && entry.attrs.isRegularFile && (extension == "jar" || extension == "aar")) {
+                val dirs = entry.root.relativize(entry.path)
+                GradleCacheItem.Archive(
+                    pkg = dirs.getName(0).toString(),
+                    artifact = dirs.getName(1).toString(),
+                    version = dirs.getName(2).toString(),
+                    resource = entry.name,
+                    fullPath = entry.path.toString(),
+                )
+            } else {
+                null
             }
         }
-        return items
+        return crawler.crawl(fullPath).toSet()
     }
 
     /**
@@ -208,34 +196,33 @@ class ProjectResolver(
     fun findAllJetifiedJarsInGradleCache(path: String): Map<String, Set<String>> {
         Telemetry.verboseLog("List all jetified JARs")
         val fullPath = path.replace("~", HOME_DIR)
-        val paths = mutableMapOf<String, Set<String>>()
-        val directoryFilter = FileFilter { it.isDirectory }
-
-        File(fullPath).files { hashDir ->
-            if (hashDir.isDirectory) {
-                hashDir.files(filter = directoryFilter) { innerDir ->
-                    if (innerDir.name == "transformed") {
-                        innerDir.files(filter = directoryFilter) { file ->
-                            val classesJarPath = "${file.absolutePath}/jars/classes.jar"
-                            val resDirPath = "${file.absolutePath}/res"
-                            val resources = mutableSetOf<String>()
-
-                            if (File(classesJarPath).exists()) {
-                                resources += classesJarPath
-                            }
-                            if (File(resDirPath).exists()) {
-                                resources += resDirPath
-                            }
-                            if (resources.isNotEmpty()) {
-                                val name = file.name.replace("jetified-", "").trim()
-                                paths[name] = resources
-                            }
-                        }
-                    }
+
+        // Hash directory / 'transformed' directory / artifact directory
+        val crawler = DirectoryCrawler(
+            maxDepth = 3,
+            enter = { entry -> entry.depth == 1 || entry.name == "transformed" },
+        ) { entry ->
+            if (entry.depth == 3 && entry.attrs.isDirectory) {
+                val classesJarPath = "${entry.path.toAbsolutePath()}/jars/classes.jar"
+                val resDirPath = "${entry.path.toAbsolutePath()}/res"
+                val resources = mutableSetOf<String>()
+
+                if (File(classesJarPath).exists()) {
+                    resources += classesJarPath
+                }
+                if (File(resDirPath).exists()) {
+                    resources += resDirPath
+                }
+                if (resources.isNotEmpty()) {
+                    entry.name.replace("jetified-", "").trim() to resources
+                } else {
+                    null
                 }
+            } else {
+                null
             }
         }
-        return paths
+        return crawler.crawl(fullPath).toMap()
     }
 
     private fun parsePomFile(pkg: String, artifact: String, version: String, pomFile: File): GradleCacheItem.Pom {
@@ -307,10 +294,6 @@ class ProjectResolver(
         return GradleCacheItem.Pom(pkg = pkg, artifact = artifact, version = version, dependencies = emptySet())
     }
 
-    private fun File.files(filter: FileFilter? = null, action: (File) -> Unit) = checkNotNull(listFiles(filter)) {
-        "Failed to list files for directory: $path"
-    }.forEach(action)
-
     /**
      * Parse module info and return library artifacts mapped to the
      * appropriate resolved versions instead of placeholders
@@ -407,15 +390,16 @@ class ProjectResolver(
                         Telemetry.err("No JARs / AARs found in Gradle cache for artifact: $artifact ($version)")
                     }
                 } else if (version.isBlank()) {
-                    val latestVersion = versions.keys.maxOrNull()
+                    val latestVersion = versions.keys.maxByOrNull(Version::parse)
                     val paths = checkNotNull(versions[latestVersion]) { "No paths for version $version" }
                     cachePaths += artifact to paths
                 } else {
                     var paths = versions[version]
 
                     if (paths == null) {
-                        val latestVersion = versions.keys.maxOrNull()
-                        val fallbackVersion = versions.keys.lastOrNull { it.isVersionGreaterOrEquals(version) } ?: latestVersion
+                        // The closest greater version if any, otherwise the latest one
+                        val latestVersion = versions.keys.maxByOrNull(Version::parse)
+                        val fallbackVersion = versions.keys.filter { it.isVersionGreaterOrEquals(version) }.minByOrNull(Version::parse) ?: latestVersion
                         checkNotNull(fallbackVersion) { "Fallback version is null for artifact $artifact:$version" }
                         paths = checkNotNull(versions[fallbackVersion]) { "No paths for version $version" }
                         cachePaths += artifact to paths
@@ -454,56 +438,26 @@ class ProjectResolver(
         modulePath: String,
         modules: Map<String, Set<Dependency>>,
         moduleNameToPath: Map<String, String>, // TODO: refactor
-    ): Set<Dependency> {
-        val getModulePathByName = { name: String ->
-            val path = moduleNameToPath[name]
-            if (path == null) {
-                // May occur for dependencies inside try-catch block
-                Telemetry.verboseErr("No module path for name: $name")
-            }
-            path
-        }
-        val getProjectDeps = { path: String ->
-            checkNotNull(modules[path]) { "Module path $path not found" }
-        }
-        val moduleDeps = getProjectDeps(modulePath).toMutableSet()
-        val tempDeps = mutableSetOf<Dependency>()
-        val resolvedModulePaths = mutableSetOf<String>()
-        var hasUnresolvedProjects = true
-
-        while (hasUnresolvedProjects) {
-            moduleDeps
-                .filterNot { dep -> dep is Dependency.Project && isIgnoredModule(moduleName = dep.moduleName) }
-                .filterNot { dep -> dep is Dependency.Library && isIgnoredLib(artifact = dep.artifact) }
-                .forEach { dep ->
-                    when (dep) {
-                        is Dependency.Project -> {
-                            val path = getModulePathByName(dep.moduleName)
-
-                            if (path != null) {
-                                tempDeps += dep.copy(relation = Relation.IMPLEMENTATION)
-
-                                if (!resolvedModulePaths.contains(path)) {
-                                    resolvedModulePaths += path
-                                    tempDeps += getProjectDeps(path).filter { project -> project.isTransitive() }
-                                }
-                            }
-                        }
-                        is Dependency.Library -> {
-                            tempDeps += dep.copy(relation = Relation.IMPLEMENTATION) // TODO: refactor
-                        }
-                        is Dependency.Files -> {
-                            tempDeps += dep.copy(relation = Relation.IMPLEMENTATION)
-                        }
-                    }
-                }
-            moduleDeps.clear()
-            moduleDeps += tempDeps
-            tempDeps.clear()
-            hasUnresolvedProjects = moduleDeps.find { project -> project.isTransitive() } != null
-        }
-        return moduleDeps
-    }
+    ): Set<Dependency> = buildDependencyGraph(modules, moduleNameToPath).getAllDependencies(modulePath)
+
+    /**
+     * Build dependency graph for all project modules. Use it to get dependencies of several modules,
+     * because transitive closures are computed once for the whole project
+     *
+     * @param modules dependencies for all project modules
+     * @param moduleNameToPath map for module path by name
+     */
+    fun buildDependencyGraph(
+        modules: Map<String, Set<Dependency>>,
+        moduleNameToPath: Map<String, String>,
+    ) = DependencyGraph(
+        modules = modules,
+        moduleNameToPath = moduleNameToPath,
+        isIgnored = { dep ->
+            dep is Dependency.Project && isIgnoredModule(moduleName = dep.moduleName) ||
+                dep is Dependency.Library && isIgnoredLib(artifact = dep.artifact)
+        },
+    )
 
     /**
      * Get compilation order for modules. Modules with the same order value can be compiled concurrently
@@ -614,7 +568,7 @@ class ProjectResolver(
 
     private fun isIgnoredLib(artifact: String) = ignoredLibs.contains(artifact)
 
-    private fun parseFilesDependency(modulePath: String, line: String): Dependency? {
+    private fun parseFilesDependency(modulePath: String, line: String, relation: Relation): Dependency {
         if (line.count { char -> char == '\'' } != 2) {
             error("[File dependency] Failed to parse line: $line")
         }
@@ -625,14 +579,10 @@ class ProjectResolver(
             error("[File dependency] Failed to parse line: $line")
         }
         val filePath = line.substring(startIndex + 1, endIndex)
-        return when {
-            line.hasFilesImplementationPrefix() -> Dependency.Files(modulePath = modulePath, filePath = filePath, relation = Relation.IMPLEMENTATION)
-            line.hasFilesApiPrefix() -> Dependency.Files(modulePath = modulePath, filePath = filePath, relation = Relation.API)
-            else -> null
-        }
+        return Dependency.Files(modulePath = modulePath, filePath = filePath, relation = relation)
     }
 
-    private fun parseModuleDependency(line: String): Dependency? {
+    private fun parseModuleDependency(line: String, relation: Relation): Dependency {
         val startIndex = line.indexOf("':")
         val endIndex = line.lastIndexOf("'")
 
@@ -640,51 +590,35 @@ class ProjectResolver(
             error("[Module dependency] Failed to parse line: $line")
         }
         val moduleName = line.substring(startIndex + 2, endIndex).replace(":", "/")
-        return when {
-            line.hasProjectImplementationPrefix() -> {
-                Dependency.Project(moduleName = moduleName, relation = Relation.IMPLEMENTATION)
-            }
-            line.hasProjectDebugImplementationPrefix() -> {
-                Dependency.Project(moduleName = moduleName, relation = Relation.DEBUG_IMPLEMENTATION)
-            }
-            line.hasProjectCompileOnlyPrefix() -> {
-                Dependency.Project(moduleName = moduleName, relation = Relation.COMPILE_ONLY)
-            }
-            line.hasProjectApiPrefix() -> {
-                Dependency.Project(moduleName = moduleName, relation = Relation.API)
-            }
-            line.hasProjectAndroidTestImplementationPrefix() -> {
-                Dependency.Project(moduleName = moduleName, relation = Relation.ANDROID_TEST_IMPLEMENTATION)
-            }
-            line.hasProjectTestImplementationPrefix() -> {
-                Dependency.Project(moduleName = moduleName, relation = Relation.TEST_IMPLEMENTATION)
-            }
-            else -> null
-        }
+        return Dependency.Project(moduleName = moduleName, relation = relation)
     }
 
-    private fun parseLibraryDependency(variables: Map<String, String>, line: String): Dependency? {
-        val relation = when {
-            line.hasLibraryImplementationPrefix() -> Relation.IMPLEMENTATION
-            line.hasLibraryApiPrefix() -> Relation.API
-            line.hasLibraryAndroidTestImplementationPrefix() -> Relation.ANDROID_TEST_IMPLEMENTATION
-            line.hasLibraryTestImplementationPrefix() -> Relation.TEST_IMPLEMENTATION
-            else -> return null
-        }
+    private fun parseLibraryDependency(variables: Map<String, String>, line: String, relation: Relation): Dependency {
         val extractVersion = { arg: String ->
-            val lastColonIndex = arg.lastIndexOf(":")
-
-            fun extract(arg: String) = arg.substring(lastColonIndex + 1, arg.length)
-                .split("'") // TODO: refactor
-                .map { part ->
-                    if (part.startsWith("\${") && part.endsWith("}")) {
-                        part.substring(part.indexOf("{") + 1, part.indexOf("}"))
-                    } else {
-                        part
+            // Quoted parts after the last colon, the first one looking like a version or a placeholder wins
+            fun extract(arg: String): String? {
+                var partStart = arg.lastIndexOf(':') + 1
+
+                while (partStart <= arg.length) {
+                    val quoteIndex = arg.indexOf('\'', partStart)
+                    val partEnd = if (quoteIndex == -1) arg.length else quoteIndex
+                    var start = partStart
+                    var end = partEnd
+
+                    if (arg.startsWith("\${", start) && end > start && arg[end - 1] == '}') {
+                        start += 2
+                        end = arg.indexOf('}', start)
+                    }
+                    if (arg.startsWith("@aar", end - 4) && end - 4 >= start) {
+                        end -= 4
+                    }
+                    if (isVersionOrPlaceholder(arg, start, end)) {
+                        return arg.substring(start, end)
                     }
+                    partStart = partEnd + 1
                 }
-                .map { part -> part.replace("@aar", "") } // TODO: refactor
-                .find { part -> isVersionOrPlaceholder(part) }
+                return null
+            }
 
             var result = extract(arg)
 
@@ -706,34 +640,25 @@ class ProjectResolver(
 
         line.run {
             if (line.contains("group:") && contains("name:") && contains("version:")) {
-                val parts = line.split(",")
-                var group: String? = null
-                var name: String? = null
-
-                parts.forEach { part ->
-                    when {
-                        part.contains("group:") -> group = part.textInQuotes()
-                        part.contains("name:") -> name = part.textInQuotes()
-                        part.contains("version:") -> version = part.textInQuotes()
-                    }
-                }
+                val group = namedArgument("group")
+                val name = namedArgument("name")
+                version = namedArgument("version")
+
                 checkNotNull(group) { "[Library dependency] Failed to parse parameter 'group' in line: $line" }
                 checkNotNull(name) { "[Library dependency] Failed to parse parameter 'name' in line: $line" }
                 checkNotNull(version) { "[Library dependency] Failed to parse parameter 'version' in line: $line" }
                 artifact = "$group:$name"
 
             } else if (line.contains("rootProject")) {
-                val parts = line.split("rootProject")
-                val left = parts[0]
-                val right = parts[1]
+                val rootProjectIndex = indexOf("rootProject")
                 // TODO: improve and check for errors
-                artifact = left.substring(left.indexOf("'") + 1, left.lastIndexOf(":"))
+                artifact = substring(indexOf("'") + 1, lastIndexOf(":", rootProjectIndex))
 
-                version = when (parts.size) {
-                    2 -> {
+                version = when (indexOf("rootProject", rootProjectIndex + 1)) {
+                    -1 -> {
                         // TODO: improve and check for errors
-                        val start = right.indexOf("'") + 1
-                        right.substring(start, right.indexOf("'", start))
+                        val start = indexOf("'", rootProjectIndex) + 1
+                        substring(start, indexOf("'", start))
                     }
                     else -> {
                         "" // Don't parse compound artifact version, just use the latest one
@@ -765,11 +690,13 @@ class ProjectResolver(
         )
     }
 
-    private fun isVersionOrPlaceholder(part: String): Boolean {
-        if (part.isBlank()) {
+    private fun isVersionOrPlaceholder(text: String, startIndex: Int, endIndex: Int): Boolean {
+        if (startIndex >= endIndex) {
             return false
         }
-        part.forEach { c ->
+        for (index in startIndex until endIndex) {
+            val c = text[index]
+
             if (c != '.' && c != '-' && c != '_' && !c.isLetterOrDigit()) { // TODO: improve
                 return false
             }
@@ -779,6 +706,22 @@ class ProjectResolver(
 
     private fun isVersionResolved(version: String) = version[0].isDigit()
 
+    // Quoted value of the named argument, e.g. 'com.android' for group: 'com.android'
+    private fun String.namedArgument(name: String): String? {
+        val nameIndex = indexOf("$name:")
+
+        if (nameIndex == -1) {
+            return null
+        }
+        val startIndex = indexOf('\'', nameIndex)
+        val endIndex = if (startIndex == -1) -1 else indexOf('\'', startIndex + 1)
+
+        if (startIndex == -1 || endIndex == -1) {
+            return null
+        }
+        return substring(startIndex + 1, endIndex)
+    }
+
     private fun String.textInQuotes(): String {
         val startIndex = indexOf("'")
         val endIndex = lastIndexOf("'")
@@ -789,39 +732,8 @@ class ProjectResolver(
         return substring(startIndex + 1, endIndex)
     }
 
-    // TODO: need to optimize
-    private fun String.collapse() = replace(" ", "").replace("(", "").trim()
-
-    // Files
-    private fun String.hasFilesImplementationPrefix() = collapse().startsWith("implementationfiles")
-
-    private fun String.hasFilesApiPrefix() = collapse().startsWith("apifiles")
-
-    private fun String.hasFileTreeImplementationPrefix() = collapse().startsWith("implementationfileTree")
-
-    // Project
-    private fun String.hasProjectImplementationPrefix() = collapse().startsWith("implementationproject")
-
-    private fun String.hasProjectDebugImplementationPrefix() = collapse().startsWith("debugImplementationproject")
-
-    private fun String.hasProjectApiPrefix() = collapse().startsWith("apiproject")
-
-    private fun String.hasProjectCompileOnlyPrefix() = collapse().startsWith("compileOnlyproject")
-
-    private fun String.hasProjectAndroidTestImplementationPrefix() = collapse().startsWith("androidTestImplementationproject")
-
-    private fun String.hasProjectTestImplementationPrefix() = collapse().startsWith("testImplementationproject")
-
-    // Library
-    private fun String.hasLibraryImplementationPrefix() = collapse().startsWith("implementation")
-
-    private fun String.hasLibraryApiPrefix() = collapse().startsWith("api") && !collapse().startsWith("apiLevel")
-
-    private fun String.hasLibraryAndroidTestImplementationPrefix() = collapse().startsWith("androidTestImplementation")
-
-    private fun String.hasLibraryTestImplementationPrefix() = collapse().startsWith("testImplementation")
-
-    private companion object {
+    companion object {
         const val BUILD_GRADLE_FILE_NAME = "build.gradle"
+        private val IGNORED_LINE_PREFIXES = listOf("#", "//", "implementationClass")
     }
 }
\ No newline at end of file
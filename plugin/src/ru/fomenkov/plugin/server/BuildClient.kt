@@ -0,0 +1,94 @@
+package ru.fomenkov.plugin.server
+
+import ru.fomenkov.plugin.util.CURRENT_DIR
+import ru.fomenkov.plugin.util.Telemetry
+import ru.fomenkov.plugin.util.noTilda
+import java.io.File
+import java.io.IOException
+import java.io.PrintWriter
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.Socket
+
+/**
+ * Forwards build request to the resident [BuildServer] if it's running
+ */
+class BuildClient(greencatRoot: String) {
+
+    private val portFile = File("$greencatRoot/$SERVER_PORT_FILE".noTilda())
+
+    fun isServerRunning() = try {
+        val socket = connect()
+        socket?.close()
+        socket != null
+    } catch (_: IOException) {
+        false
+    }
+
+    fun build(version: String, args: Array<String>): Status {
+        val (port, token) = readPortFile() ?: return Status.UNAVAILABLE
+        val socket = try {
+            connect(port)
+        } catch (_: IOException) {
+            Telemetry.verboseErr("GreenCat server is not responding on port $port")
+            portFile.delete()
+            return Status.UNAVAILABLE
+        }
+        var hasOutput = false
+
+        try {
+            socket.use {
+                val writer = PrintWriter(socket.getOutputStream().bufferedWriter())
+                val reader = socket.getInputStream().bufferedReader()
+                BuildRequest(token, version, CURRENT_DIR, args.toList()).write(writer)
+
+                while (true) {
+                    val line = reader.readLine() ?: break
+
+                    when {
+                        line == STATUS_SUCCESS -> return Status.SUCCESS
+                        line == STATUS_FAILED -> return Status.FAILED
+                        line == STATUS_REJECTED || line == STATUS_RESTART -> return Status.UNAVAILABLE
+                        line.startsWith(OUTPUT_PREFIX) -> Telemetry.log(line.substring(1))
+                        line.startsWith(ERROR_PREFIX) -> Telemetry.err(line.substring(1))
+                    }
+                    hasOutput = true
+                }
+            }
+        } catch (error: IOException) {
+            Telemetry.verboseErr("GreenCat server connection error: ${error.message}")
+        }
+        return when (hasOutput) {
+            true -> {
+                Telemetry.err("Build failed: connection to GreenCat server lost")
+                Status.FAILED
+            }
+            else -> Status.UNAVAILABLE
+        }
+    }
+
+    private fun connect(): Socket? {
+        val (port, _) = readPortFile() ?: return null
+        return connect(port)
+    }
+
+    private fun connect(port: Int) = Socket().apply {
+        connect(InetSocketAddress(InetAddress.getLoopbackAddress(), port), SERVER_CONNECT_TIMEOUT)
+    }
+
+    private fun readPortFile(): Pair<Int, String>? {
+        if (!portFile.exists()) {
+            return null
+        }
+        val lines = portFile.readLines()
+        val port = lines.getOrNull(0)?.toIntOrNull() ?: return null
+        val token = lines.getOrNull(1) ?: return null
+        return port to token
+    }
+
+    enum class Status {
+        SUCCESS,
+        FAILED,
+        UNAVAILABLE, // Build locally
+    }
+}
@@ -0,0 +1,52 @@
+package ru.fomenkov.plugin.server
+
+import java.io.BufferedReader
+import java.io.PrintWriter
+
+/**
+ * Build request protocol (line based, UTF-8):
+ *
+ * Client -> server: token, plugin version, working directory, number of arguments, arguments (one per line)
+ * Server -> client: output lines prefixed with [OUTPUT_PREFIX] or [ERROR_PREFIX], then one of the status lines
+ */
+data class BuildRequest(
+    val token: String,
+    val version: String,
+    val workingDir: String,
+    val args: List<String>,
+) {
+
+    fun write(writer: PrintWriter) {
+        writer.println(token)
+        writer.println(version)
+        writer.println(workingDir)
+        writer.println(args.size)
+        args.forEach(writer::println)
+        writer.flush()
+    }
+
+    companion object {
+
+        fun read(reader: BufferedReader): BuildRequest {
+            fun line() = checkNotNull(reader.readLine()) { "Unexpected end of build request" }
+
+            val token = line()
+            val version = line()
+            val workingDir = line()
+            val count = line().toInt()
+            val args = (0 until count).map { line() }
+            return BuildRequest(token, version, workingDir, args)
+        }
+    }
+}
+
+const val SERVER_PORT_FILE = "server"
+const val SERVER_BACKLOG = 8
+const val SERVER_IDLE_TIMEOUT = 3 * 60 * 60 * 1000L // 3 hours
+const val SERVER_CONNECT_TIMEOUT = 1000
+const val OUTPUT_PREFIX = 'O'
+const val ERROR_PREFIX = 'E'
+const val STATUS_SUCCESS = "#SUCCESS"
+const val STATUS_FAILED = "#FAILED"
+const val STATUS_REJECTED = "#REJECTED"
+const val STATUS_RESTART = "#RESTART"
@@ -0,0 +1,143 @@
+package ru.fomenkov.plugin.server
+
+import ru.fomenkov.plugin.util.CURRENT_DIR
+import ru.fomenkov.plugin.util.Telemetry
+import ru.fomenkov.plugin.util.noTilda
+import java.io.File
+import java.io.PrintWriter
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.Socket
+import java.net.SocketTimeoutException
+import java.util.*
+
+/**
+ * Resident build server. Stays alive on the remote host between builds, so project model,
+ * scanned repositories and compilers are kept warm in memory. Accepts build requests from
+ * [BuildClient] over the loopback TCP socket. Requests are handled one by one
+ *
+ * @param warmUp called once the server is started, before handling the first request
+ * @param build performs the build for the given plugin arguments, returns true on success
+ */
+class BuildServer(
+    private val greencatRoot: String,
+    private val version: String,
+    private val warmUp: () -> Unit,
+    private val build: (args: Array<String>) -> Boolean,
+) {
+
+    private val portFile = File("$greencatRoot/$SERVER_PORT_FILE".noTilda())
+    private val token = UUID.randomUUID().toString()
+
+    fun run() {
+        if (BuildClient(greencatRoot).isServerRunning()) {
+            Telemetry.log("GreenCat server is already running")
+            return
+        }
+        val serverSocket = ServerSocket(0, SERVER_BACKLOG, InetAddress.getLoopbackAddress())
+        serverSocket.soTimeout = SERVER_IDLE_TIMEOUT.toInt()
+        writePortFile(serverSocket.localPort)
+        Runtime.getRuntime().addShutdownHook(Thread { deletePortFile(serverSocket.localPort) })
+        Telemetry.log("GreenCat server v$version is listening on port ${serverSocket.localPort} ($CURRENT_DIR)")
+
+        try {
+            try {
+                warmUp()
+            } catch (error: Throwable) {
+                Telemetry.err("Warm up failed: ${error.message}")
+            }
+            while (true) {
+                val socket = try {
+                    serverSocket.accept()
+                } catch (_: SocketTimeoutException) {
+                    Telemetry.log("No build requests for a long time. Shutting down")
+                    break
+                }
+                val isStopRequested = socket.use(::handle)
+
+                if (isStopRequested) {
+                    break
+                }
+            }
+        } finally {
+            serverSocket.close()
+            deletePortFile(serverSocket.localPort)
+        }
+    }
+
+    /**
+     * @return true if server must be stopped
+     */
+    private fun handle(socket: Socket): Boolean {
+        val reader = socket.getInputStream().bufferedReader()
+        val writer = PrintWriter(socket.getOutputStream().bufferedWriter(), true)
+        val request = try {
+            BuildRequest.read(reader)
+        } catch (error: Throwable) {
+            Telemetry.err("Failed to read build request: ${error.message}")
+            return false
+        }
+        return when {
+            request.token != token -> {
+                writer.println(STATUS_REJECTED)
+                false
+            }
+            request.version != version -> {
+                // Plugin has been updated -> let the client build locally and start a new server
+                writer.println(STATUS_RESTART)
+                true
+            }
+            request.workingDir != CURRENT_DIR -> {
+                writer.println(STATUS_REJECTED)
+                false
+            }
+            else -> {
+                val printer = SocketPrinter(writer)
+                Telemetry.printer = printer
+
+                val isSuccessful = try {
+                    build(request.args.toTypedArray())
+                } catch (error: Throwable) {
+                    Telemetry.err("Build failed: ${error.message}")
+                    false
+                } finally {
+                    Telemetry.printer = Telemetry.Printer.Console
+                }
+                printer.finish(if (isSuccessful) STATUS_SUCCESS else STATUS_FAILED)
+                false
+            }
+        }
+    }
+
+    private fun writePortFile(port: Int) {
+        portFile.parentFile?.mkdirs()
+        portFile.writeText("$port\n$token\n")
+
+        // Token must be visible for the current user only
+        portFile.setReadable(false, false)
+        portFile.setReadable(true, true)
+    }
+
+    private fun deletePortFile(port: Int) {
+        val lines = if (portFile.exists()) portFile.readLines() else emptyList()
+
+        if (lines.firstOrNull() == port.toString()) {
+            portFile.delete()
+        }
+    }
+
+    private class SocketPrinter(private val writer: PrintWriter) : Telemetry.Printer {
+
+        override fun out(message: String) = write(OUTPUT_PREFIX, message)
+
+        override fun err(message: String) = write(ERROR_PREFIX, message)
+
+        fun finish(status: String) = synchronized(writer) {
+            writer.println(status)
+        }
+
+        private fun write(prefix: Char, message: String) = synchronized(writer) {
+            message.lines().forEach { line -> writer.println("$prefix$line") }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package ru.fomenkov.plugin.task.compile
+
+import ru.fomenkov.plugin.util.ContentHash
+import java.io.File
+
+/**
+ * Writes long tool arguments (classpath, source and class file lists) into @argfiles, so that
+ * the command line stays short regardless of MAX_ARG_STRLEN. Classpath files are stored per module
+ * and named by classpath hash, so they're written once and reused between runs
+ */
+class ArgumentFiles(private val rootDir: File) {
+
+    /**
+     * @return argfile with classpath option, e.g. -classpath "a.jar:b.jar"
+     */
+    fun classpath(moduleName: String, option: String, classpath: String, format: Format = Format.QUOTED): File {
+        val moduleDir = getModuleDir(moduleName)
+        val prefix = "$CLASSPATH_FILE_PREFIX${format.name.lowercase()}-"
+        val fileName = prefix + ContentHash().update(option).update(classpath).digest()
+        val file = File(moduleDir, fileName)
+
+        if (!file.exists()) {
+            // Remove files for outdated classpath of the same module
+            moduleDir.listFiles { child -> child.name.startsWith(prefix) }?.forEach(File::delete)
+            write(file, listOf(option, classpath), format)
+        }
+        return file
+    }
+
+    /**
+     * @return argfile with the given arguments, rewritten on each call
+     */
+    fun arguments(moduleName: String, name: String, args: Collection<String>, format: Format = Format.QUOTED): File {
+        val file = File(getModuleDir(moduleName), name)
+        write(file, args, format)
+        return file
+    }
+
+    private fun getModuleDir(moduleName: String) = File(rootDir, moduleName).apply {
+        if (!exists() && !mkdirs()) {
+            error("Failed to create directory: $absolutePath")
+        }
+    }
+
+    // Written to the temporary file first, because several tools may read the same argfile
+    private fun write(file: File, args: Collection<String>, format: Format) {
+        val tmpFile = File(file.parentFile, "${file.name}.tmp")
+        tmpFile.writeText(args.joinToString(separator = "\n", postfix = "\n") { arg -> format.encode(arg) })
+
+        if (!tmpFile.renameTo(file)) {
+            error("Failed to write argument file: ${file.absolutePath}")
+        }
+    }
+
+    enum class Format {
+
+        QUOTED { // javac and kotlinc: quoted arguments with escaped backslashes and quotes
+            override fun encode(arg: String) = "\"" + arg.replace("\\", "\\\\").replace("\"", "\\\"") + "\""
+        },
+        LINES { // D8: each line is a single argument as is
+            override fun encode(arg: String) = arg
+        };
+
+        abstract fun encode(arg: String): String
+    }
+
+    private companion object {
+        const val CLASSPATH_FILE_PREFIX = "classpath-"
+    }
+}
@@ -0,0 +1,69 @@
+package ru.fomenkov.plugin.task.compile
+
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Stamps of classpath entries for cache keys: size and modification time of a file, number of files and the latest
+ * modification time in a directory. Walking build directories takes thousands of stats, so directory stamps are kept
+ * between builds in server mode until Gradle runs tasks again, which is seen from its execution history
+ *
+ * @param gradleDir project '.gradle' directory
+ */
+class ClasspathStamps(private val gradleDir: File) {
+
+    private val directoryStamps = ConcurrentHashMap<String, String>() // Directory path -> stamp
+    private var gradleStamp: String? = null
+
+    /**
+     * Called before each build. Directory stamps are dropped if Gradle execution history has changed or can't be found
+     */
+    @Synchronized
+    fun refresh() {
+        val stamp = getGradleStamp()
+
+        if (stamp == null || stamp != gradleStamp) {
+            directoryStamps.clear()
+        }
+        gradleStamp = stamp
+    }
+
+    fun get(path: String): String {
+        val file = File(path)
+
+        return when {
+            file.isDirectory -> directoryStamps.getOrPut(path) { getDirectoryStamp(file) }
+            file.exists() -> "${file.length()}:${file.lastModified()}"
+            else -> NO_STAMP
+        }
+    }
+
+    private fun getDirectoryStamp(dir: File): String {
+        var count = 0
+        var lastModified = 0L
+
+        dir.walk().filter(File::isFile).forEach { child ->
+            count++
+            lastModified = maxOf(lastModified, child.lastModified())
+        }
+        return "$count:$lastModified"
+    }
+
+    // Execution history of each Gradle version, e.g. '.gradle/7.4/executionHistory/executionHistory.bin'
+    private fun getGradleStamp(): String? {
+        val historyFiles = gradleDir.listFiles { file -> file.isDirectory }.orEmpty()
+            .map { dir -> File(dir, EXECUTION_HISTORY_FILE) }
+            .filter(File::exists)
+            .sortedBy(File::getPath)
+
+        return when (historyFiles.isEmpty()) {
+            true -> null
+            else -> historyFiles.joinToString(separator = " ") { file -> "${file.path}:${file.length()}:${file.lastModified()}" }
+        }
+    }
+
+    private companion object {
+        const val NO_STAMP = "-"
+        const val EXECUTION_HISTORY_FILE = "executionHistory/executionHistory.bin"
+    }
+}
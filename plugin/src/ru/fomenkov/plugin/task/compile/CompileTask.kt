@@ -1,6 +1,11 @@
 package ru.fomenkov.plugin.task.compile
 
+import ru.fomenkov.plugin.abi.ClassAbiFingerprint
+import ru.fomenkov.plugin.abi.HeaderJarCache
+import ru.fomenkov.plugin.cache.FileCache
+import ru.fomenkov.plugin.dex.DexFileReader
 import ru.fomenkov.plugin.task.Task
+import ru.fomenkov.plugin.task.resolve.ProjectModel
 import ru.fomenkov.plugin.task.resolve.ProjectResolverOutput
 import ru.fomenkov.plugin.util.*
 import ru.fomenkov.runner.*
@@ -14,6 +19,10 @@ class CompileTask(
     private val mappedModules: Map<String, String>,
     private val projectInfo: ProjectResolverOutput,
     private val executor: ExecutorService,
+    private val javacCompiler: JavacCompiler,
+    private val kotlinCompiler: KotlinCompiler,
+    private val d8Compiler: D8Compiler,
+    private val classpathStamps: ClasspathStamps,
     private val showErrorLogs: Boolean,
 ) : Task<Unit> {
 
@@ -21,65 +30,104 @@ class CompileTask(
     private val debugCompileModule = false
     private val debugModuleName = ""
 
+    // Compiled classes and DEX output of modules, keyed by sources, classpath and compiler flags
+    private val classCache = FileCache(File("$greencatRoot/$CACHE_DIR".noTilda()), CLASS_CACHE_SIZE_LIMIT)
+    private val moduleCacheKeys = ConcurrentHashMap<String, String>()
+    private val argumentFiles = ArgumentFiles(File("$greencatRoot/$ARGS_DIR".noTilda()))
+    private val headerJarCache = HeaderJarCache(classCache)
+
+    // Modules are dexed as soon as they're compiled, overlapped with compilation of their dependents
+    private val dexTasks = ConcurrentHashMap<String, Future<DexResult>>()
+
+    // Modules with compiled classes, which ABI differs from the last Gradle build output
+    private val abiChangedModules = ConcurrentHashMap.newKeySet<String>()
+
     override fun run() {
+        classpathStamps.refresh()
         clearDirectory(CLASS_FILES_DIR)
         clearDirectory(DEX_FILES_DIR)
-        val orderMap = mutableMapOf<Int, MutableSet<String>>()
 
-        projectInfo.moduleCompilationOrderMap.forEach { (moduleName: String, order: Int) ->
-            val modules = orderMap[order] ?: mutableSetOf()
-            modules += moduleName
-            orderMap[order] = modules
+        if (debugCompileModule) {
+            compileModuleForDebug(debugModuleName)
+            return
         }
-        orderMap.keys.sorted().forEach { order ->
-            val modules = checkNotNull(orderMap[order]) {
-                "No modules for compilation order $order"
-            }
-            if (debugCompileModule) {
-                compileModuleForDebug(debugModuleName)
-            } else {
-                Telemetry.log("Compilation round ${order + 1}/${orderMap.size}: ${modules.joinToString(separator = ", ")}")
-                val tasks = modules.map { moduleName -> compile(moduleName) }
-
-                tasks.forEach { task ->
-                    val result = task.get()
-
-                    if (result is CompilationResult.Error) {
-                        if (showErrorLogs) {
-                            result.output.forEach { line -> Telemetry.err(line) }
-                        }
-                        deleteClasspathForModule(result.moduleName)
-                        error("Failed to compile module ${result.moduleName}")
-                    }
-                }
+        val dexTarget = getDexTarget()
+        compileModules(projectInfo.sourceFilesMap, dexTarget, checkAbi = projectInfo.dependentFilesMap.isNotEmpty())
+
+        val dependentFilesMap = getDependentFilesMap()
+
+        if (dependentFilesMap.isEmpty() && projectInfo.dependentFilesMap.isNotEmpty()) {
+            Telemetry.log("ABI is not changed, skipping dependent files")
+        } else if (dependentFilesMap.isNotEmpty()) {
+            Telemetry.log("ABI changed for module(s): ${abiChangedModules.sorted().joinToString(separator = ", ")}")
+
+            // Modules are compiled and dexed once again -> DEX output of the first round is awaited and dropped
+            dependentFilesMap.keys.mapNotNull(dexTasks::remove).forEach { task -> runCatching { task.get() } }
+            compileModules(dependentFilesMap, dexTarget, checkAbi = false)
+        }
+        runD8(dexTarget, compilationFinishedAt = System.currentTimeMillis())
+        classCache.trim()
+    }
+
+    private fun compileModules(srcFilesMap: Map<String, Set<String>>, dexTarget: DexTarget, checkAbi: Boolean) {
+        val dependencies = projectInfo.moduleDependenciesMap.filterKeys(srcFilesMap::containsKey)
+        val scheduler = ModuleScheduler(
+            dependencies = dependencies,
+            executor = executor,
+            parallelism = Runtime.getRuntime().availableProcessors(),
+            weight = { moduleName -> srcFilesMap[moduleName]?.size?.toLong() ?: 1 },
+        )
+        Telemetry.log("Compiling ${dependencies.size} module(s), critical path: ${getCriticalPath(scheduler, dependencies)}")
+
+        val results = scheduler.run(
+            task = { moduleName -> compile(moduleName, srcFilesMap.getValue(moduleName), dexTarget, checkAbi) },
+            isSuccessful = { result -> result is CompilationResult.Successful },
+        )
+        results.filterIsInstance<CompilationResult.Error>().firstOrNull()?.let { result ->
+            if (showErrorLogs) {
+                result.output.forEach { line -> Telemetry.err(line) }
             }
+            invalidateClasspathForModule(result.moduleName)
+            error("Failed to compile module ${result.moduleName}")
         }
-        if (!debugCompileModule) {
-            runD8()
+    }
+
+    /**
+     * Dependent files are compiled only for modules, which have changed ABI or depend on modules with changed ABI.
+     * Changed source files of the module are compiled along with its dependent files
+     */
+    private fun getDependentFilesMap() = projectInfo.dependentFilesMap
+        .filterKeys { moduleName ->
+            moduleName in abiChangedModules || projectInfo.moduleDependenciesMap[moduleName].orEmpty().any(abiChangedModules::contains)
+        }
+        .mapValues { (moduleName, files) -> projectInfo.sourceFilesMap[moduleName].orEmpty() + files }
+
+    private fun getCriticalPath(scheduler: ModuleScheduler, dependencies: Map<String, Set<String>>): String {
+        val paths = scheduler.criticalPaths
+        val chain = mutableListOf<String>()
+        var next = paths.keys.filter { moduleName -> dependencies[moduleName].isNullOrEmpty() }.maxByOrNull(paths::getValue)
+
+        while (next != null) {
+            chain += next
+            next = dependencies.filterValues { deps -> next in deps }.keys.maxByOrNull(paths::getValue)
         }
+        return chain.joinToString(separator = " -> ")
     }
 
     private fun compileModuleForDebug(moduleName: String) {
-        var moduleClasspathFile = File("$greencatRoot/$CLASSPATH_DIR/$moduleName")
         val modulePath = "$CURRENT_DIR/$moduleName"
-
         var moduleClasspath = projectInfo.moduleClasspathMap[moduleName]
 
         if (moduleClasspath == null) {
             val mappedModuleName = mappedModules[moduleName]
             moduleClasspath = projectInfo.moduleClasspathMap[mappedModuleName]
-            moduleClasspathFile = File("$greencatRoot/$CLASSPATH_DIR/$mappedModuleName")
             checkNotNull(moduleClasspath) { "No classpath for module $moduleName" }
         }
-        if (moduleClasspathFile.exists()) {
-            Telemetry.log("\n# Starting debug compilation for module $moduleName ($modulePath) #")
-        } else {
-            error("No classpath file for module $moduleName")
-        }
-        val javaFilePaths = exec("find $modulePath -name '*.java'")
+        Telemetry.log("\n# Starting debug compilation for module $moduleName ($modulePath) #")
+        val javaFilePaths = findFilesWithExtension(modulePath, "java")
             .filterNot { path -> path.contains("/build/") }
 
-        val kotlinFilePaths = exec("find $modulePath -name '*.kt'")
+        val kotlinFilePaths = findFilesWithExtension(modulePath, "kt")
             .filterNot { path -> path.contains("/build/") }
 
         val allSourcePaths = javaFilePaths + kotlinFilePaths
@@ -109,32 +157,171 @@ class CompileTask(
         }
     }
 
-    private fun compile(moduleName: String): Future<CompilationResult> {
-        val srcFiles = checkNotNull(projectInfo.sourceFilesMap[moduleName]) {
-            "No source files for module $moduleName"
-        }
+    /**
+     * Compile module sources. Must be called when all module dependencies are compiled.
+     * Compiled module is scheduled for dexing right away
+     */
+    private fun compile(moduleName: String, srcFiles: Set<String>, dexTarget: DexTarget, checkAbi: Boolean): CompilationResult {
         val moduleClasspath = checkNotNull(projectInfo.moduleClasspathMap[moduleName]) {
             "No classpath for module $moduleName"
         }
         val javaSrcFiles = srcFiles.filter { path -> path.endsWith(".java") }.toSet()
         val kotlinSrcFiles = srcFiles.filter { path -> path.endsWith(".kt") }.toSet()
-        val greencatClassDirs = getGreenCatClassDirectories(greencatRoot)
-        val classpath = greencatClassDirs.joinToString(separator = ":") + ":$moduleClasspath"
+        val dependencies = projectInfo.moduleDependenciesMap[moduleName].orEmpty().sorted()
+        val upstreamKeys = dependencies.mapNotNull(moduleCacheKeys::get)
+        val greencatClassDirs = dependencies
+            .map { dep -> File("$greencatRoot/$CLASS_FILES_DIR/$dep".noTilda()) }
+            .filter(File::exists)
+            .map(File::getAbsolutePath)
+        val classpath = (greencatClassDirs + getHeaderClasspath(moduleName, moduleClasspath)).joinToString(separator = ":")
+
+        Telemetry.log("Compiling module $moduleName")
+        val cacheKey = getCacheKey(moduleName, srcFiles, moduleClasspath, upstreamKeys)
+        val classDir = File("$greencatRoot/$CLASS_FILES_DIR/$moduleName".noTilda())
+        val cachedClassDir = classCache.get(cacheKey, CLASSES_SECTION)
+        val result = if (cachedClassDir != null && cachedClassDir.copyRecursively(classDir, overwrite = true)) {
+            Telemetry.log("[$moduleName] Using compiled classes from cache")
+            CompilationResult.Successful
+        } else {
+            compileSources(moduleName, javaSrcFiles, kotlinSrcFiles, classpath).also { result ->
+                if (result is CompilationResult.Successful && classDir.exists()) {
+                    classCache.put(cacheKey, CLASSES_SECTION, classDir)
+                }
+            }
+        }
+        if (result is CompilationResult.Successful) {
+            moduleCacheKeys[moduleName] = cacheKey
 
-        return Callable {
-            val result = when (javaSrcFiles.isEmpty()) {
-                true -> CompilationResult.Successful
-                else -> compileWithJavac(srcFiles = javaSrcFiles, moduleName = moduleName, moduleClasspath = classpath)
+            if (checkAbi && isAbiChanged(moduleName, moduleClasspath)) {
+                abiChangedModules += moduleName
             }
-            if (result is CompilationResult.Error) {
-                result
-            } else {
-                when (kotlinSrcFiles.isEmpty()) {
-                    true -> CompilationResult.Successful
-                    else -> compileWithKotlin(srcFiles = kotlinSrcFiles, moduleName = moduleName, moduleClasspath = classpath)
+
+            if (classDir.exists()) {
+                scheduleDex(moduleName, dexTarget)
+            }
+        }
+        return result
+    }
+
+    /**
+     * Compare ABI of compiled classes with the same classes in the module build directories of the last Gradle build.
+     * Classes without Gradle output are changed, except anonymous and local classes, which can't be referenced.
+     * Anonymous classes used by Kotlin inline functions are copied into callers, so they're compared as a whole
+     */
+    private fun isAbiChanged(moduleName: String, moduleClasspath: String): Boolean {
+        val classDir = File("$greencatRoot/$CLASS_FILES_DIR/$moduleName".noTilda())
+        val buildDirs = getFriendModulePaths(moduleName, moduleClasspath).map(::File).filter(File::isDirectory)
+        val changedClasses = mutableListOf<String>()
+
+        fun compare(paths: Collection<String>, isInlined: Boolean): Set<String> {
+            val referencedClasses = mutableSetOf<String>()
+
+            paths.forEach { path ->
+                val buildFile = buildDirs.map { dir -> File(dir, path) }.firstOrNull(File::exists)
+
+                try {
+                    val abi = ClassAbiFingerprint.read(File(classDir, path).readBytes(), isInlined)
+                    referencedClasses += abi.referencedClasses
+
+                    if (buildFile == null || abi.fingerprint != ClassAbiFingerprint.of(buildFile.readBytes(), isInlined)) {
+                        changedClasses += path
+                    }
+                } catch (error: Throwable) {
+                    Telemetry.verboseErr("[$moduleName] Failed to compare ABI of $path: ${error.message}")
+                    changedClasses += path
+                }
+            }
+            return referencedClasses
+        }
+
+        val time = timeMillis {
+            val (anonymousClasses, classes) = classDir.walk()
+                .filter { file -> file.isFile && file.extension == "class" }
+                .map { file -> file.relativeTo(classDir).path }
+                .partition { path -> ANONYMOUS_CLASS_REGEX.containsMatchIn(path) }
+            val pendingClasses = anonymousClasses.toMutableSet()
+            var referencedClasses = compare(classes, isInlined = false)
+
+            // Inlined classes may use other anonymous classes in turn, e.g. nested lambdas
+            while (true) {
+                val inlinedClasses = pendingClasses.filter { path -> path.removeSuffix(".class") in referencedClasses }
+
+                if (inlinedClasses.isEmpty()) {
+                    break
                 }
+                pendingClasses -= inlinedClasses.toSet()
+                referencedClasses = compare(inlinedClasses, isInlined = true)
+            }
+        }
+        changedClasses.forEach { path -> Telemetry.verboseLog("[$moduleName] ABI changed: $path") }
+        Telemetry.verboseLog("[$moduleName] ABI comparison takes ${formatMillis(time)}")
+        return changedClasses.isNotEmpty()
+    }
+
+    // Dependency class directories and JARs are replaced with cached ABI-only header JARs.
+    // Build directories of the module itself are kept, because they're Kotlin friend paths
+    private fun getHeaderClasspath(moduleName: String, moduleClasspath: String): List<String> {
+        val friendPaths = getFriendModulePaths(moduleName, moduleClasspath).toSet()
+        var replaced = 0
+
+        val classpath = moduleClasspath.split(":").map { path ->
+            val file = File(path)
+            val isConvertible = file.isDirectory || file.isFile && file.extension == "jar"
+
+            when {
+                path in friendPaths || !isConvertible -> path
+                else -> headerJarCache.get(file, classpathStamps.get(path))
+                    ?.also { replaced++ }
+                    ?.absolutePath ?: path
             }
-        }.run { executor.submit(this) }
+        }
+        Telemetry.verboseLog("[$moduleName] $replaced classpath entries replaced with header JARs")
+        return classpath
+    }
+
+    private fun compileSources(
+        moduleName: String,
+        javaSrcFiles: Set<String>,
+        kotlinSrcFiles: Set<String>,
+        classpath: String,
+    ): CompilationResult {
+        val result = when (javaSrcFiles.isEmpty()) {
+            true -> CompilationResult.Successful
+            else -> compileWithJavac(srcFiles = javaSrcFiles, moduleName = moduleName, moduleClasspath = classpath)
+        }
+        return if (result is CompilationResult.Error) {
+            result
+        } else {
+            when (kotlinSrcFiles.isEmpty()) {
+                true -> CompilationResult.Successful
+                else -> compileWithKotlin(srcFiles = kotlinSrcFiles, moduleName = moduleName, moduleClasspath = classpath)
+            }
+        }
+    }
+
+    // Module output depends on its sources, library and project classpath, compiler flags and
+    // classes of the compiled modules it depends on. Classpath directories are stamped by the latest
+    // modification time of their files, JARs by modification time and size
+    private fun getCacheKey(moduleName: String, srcFiles: Set<String>, moduleClasspath: String, upstreamKeys: List<String>): String {
+        val hash = ContentHash()
+            .update(moduleName)
+            .update(getCompilerFingerprint())
+
+        srcFiles.sorted().forEach { path ->
+            hash.update(path).update(File(path))
+        }
+        moduleClasspath.split(":").forEach { path ->
+            hash.update(path).update(classpathStamps.get(path))
+        }
+        upstreamKeys.forEach(hash::update)
+        return hash.digest()
+    }
+
+    private fun getCompilerFingerprint(): String {
+        val kotlinVersionFile = File("$greencatRoot/$KOTLINC_DIR/$KOTLINC_VERSION_FILE".noTilda())
+        val kotlinVersion = if (kotlinVersionFile.exists()) kotlinVersionFile.readText().trim() else ""
+        val javaVersion = System.getProperty("java.version")
+        return "javac $javaVersion ${JavacCompiler.OPTIONS}, kotlinc $kotlinVersion $KOTLIN_COMPILER_FLAGS"
     }
 
     private fun getGreenCatClassDirectories(greencatRoot: String): Set<String> {
@@ -143,26 +330,46 @@ class CompileTask(
         return files.map { file -> file.absolutePath }.toSet()
     }
 
-    private fun deleteClasspathForModule(moduleName: String) {
-        Telemetry.log("Delete classpath file for module $moduleName")
-        File("$greencatRoot/$CLASSPATH_DIR/$moduleName").delete()
+    // Module is resolved again on the next attempt, even if its fingerprint is the same
+    private fun invalidateClasspathForModule(moduleName: String) {
+        val model = ProjectModel(File("$greencatRoot/$PROJECT_MODEL_FILE".noTilda())).load()
+
+        if (model.removeModule(moduleName)) {
+            Telemetry.log("Invalidate classpath for module $moduleName")
+            model.save()
+        }
     }
 
     private fun compileWithJavac(srcFiles: Set<String>, moduleName: String, moduleClasspath: String): CompilationResult {
         val classDir = "$greencatRoot/$CLASS_FILES_DIR/$moduleName".noTilda()
-        val srcFilesLine = srcFiles.joinToString(separator = " ")
-        var javac = exec("echo \$JAVA_HOME/bin/javac").first()
 
-        if (!File(javac).exists()) {
-            javac = "javac"
+        if (!javacCompiler.isAvailable()) {
+            return compileWithJavacProcess(srcFiles, moduleName, moduleClasspath)
+        }
+        val result = javacCompiler.compile(srcFiles = srcFiles, classpath = moduleClasspath, outputDir = classDir)
+        Telemetry.verboseLog("[$moduleName] javac emitted ${result.classFiles.size} class file(s)")
+
+        return when (result.isSuccessful) {
+            true -> CompilationResult.Successful
+            else -> CompilationResult.Error(
+                moduleName = moduleName,
+                output = result.diagnostics.map(CompilerDiagnostic::toString),
+                diagnostics = result.diagnostics,
+            )
         }
+    }
+
+    // Fallback for JRE without system Java compiler
+    private fun compileWithJavacProcess(srcFiles: Set<String>, moduleName: String, moduleClasspath: String): CompilationResult {
+        val classDir = "$greencatRoot/$CLASS_FILES_DIR/$moduleName".noTilda()
+        val classpathFile = argumentFiles.classpath(moduleName, "-cp", moduleClasspath)
+        val srcFilesFile = argumentFiles.arguments(moduleName, "javac-sources", srcFiles)
+        val javac = JAVA_HOME?.let { dir -> "$dir/bin/javac" }?.takeIf { path -> File(path).exists() } ?: "javac"
         Telemetry.verboseLog("Using Java compiler: $javac")
-        val cmd = "$javac -source 1.8 -target 1.8 -encoding utf-8 -g -cp $moduleClasspath -d $classDir $srcFilesLine"
-        val lines = exec(cmd)
-        Telemetry.log("Java compilation command length = ${cmd.length}, MAX_ARG_STRLEN = 131072")
+        val lines = exec("$javac -source 1.8 -target 1.8 -encoding utf-8 -g @${classpathFile.absolutePath} -d $classDir @${srcFilesFile.absolutePath}")
 
         val inputFileNames = srcFiles.map { path -> File(path).nameWithoutExtension }.toSet()
-        val outputFileNames = exec("find $classDir -name '*.class'").map { path -> File(path).nameWithoutExtension }.toSet()
+        val outputFileNames = findFilesWithExtension(classDir, "class").map { path -> File(path).nameWithoutExtension }.toSet()
 
         return when ((inputFileNames - outputFileNames).isEmpty()) {
             true -> CompilationResult.Successful
@@ -171,6 +378,33 @@ class CompileTask(
     }
 
     private fun compileWithKotlin(srcFiles: Set<String>, moduleName: String, moduleClasspath: String): CompilationResult {
+        val kotlinHome = "$greencatRoot/$KOTLINC_DIR".noTilda()
+
+        if (!kotlinCompiler.isAvailable(kotlinHome)) {
+            return compileWithKotlinProcess(srcFiles, moduleName, moduleClasspath)
+        }
+        val classDir = "$greencatRoot/$CLASS_FILES_DIR/$moduleName".noTilda()
+        val friendPaths = getFriendModulePaths(moduleName, moduleClasspath).joinToString(separator = ",")
+        val args = KOTLIN_COMPILER_FLAGS + listOf(
+            "-Xfriend-paths=$friendPaths",
+            "-module-name", "${moduleName.replace("-", "_")}_debug",
+            "-d", classDir,
+            "-classpath", moduleClasspath,
+        ) + srcFiles
+        val result = kotlinCompiler.compile(kotlinHome, args)
+
+        return when (result.isSuccessful) {
+            true -> CompilationResult.Successful
+            else -> CompilationResult.Error(
+                moduleName = moduleName,
+                output = result.diagnostics.map(CompilerDiagnostic::toString),
+                diagnostics = result.diagnostics,
+            )
+        }
+    }
+
+    // Fallback when compiler JARs can't be loaded into the plugin JVM
+    private fun compileWithKotlinProcess(srcFiles: Set<String>, moduleName: String, moduleClasspath: String): CompilationResult {
         val kotlinDir = "$greencatRoot/$KOTLINC_DIR"
         val kotlinc = "$kotlinDir/bin/kotlinc".noTilda()
 
@@ -178,15 +412,14 @@ class CompileTask(
             error("Kotlin compiler not found: $kotlinc")
         }
         val classDir = "$greencatRoot/$CLASS_FILES_DIR/$moduleName".noTilda()
-        val srcFilesLine = srcFiles.joinToString(separator = " ")
         val moduleNameArg = "-module-name ${moduleName.replace("-", "_")}_debug"
         val friendPaths = getFriendModulePaths(moduleName, moduleClasspath).joinToString(separator = ",")
-        val cmd = "$kotlinc -Xjvm-default=all-compatibility -Xfriend-paths=$friendPaths $moduleNameArg -d $classDir -classpath $moduleClasspath $srcFilesLine"
-        Telemetry.log("Kotlin compilation command length = ${cmd.length}, MAX_ARG_STRLEN = 131072")
-
-        val lines = exec(cmd)
+        val classpathFile = argumentFiles.classpath(moduleName, "-classpath", moduleClasspath)
+        val argsFile = argumentFiles.arguments(moduleName, "kotlinc-args", listOf("-Xfriend-paths=$friendPaths") + srcFiles)
+        val flags = KOTLIN_COMPILER_FLAGS.joinToString(separator = " ")
+        val lines = exec("$kotlinc $flags $moduleNameArg -d $classDir @${classpathFile.absolutePath} @${argsFile.absolutePath}")
         val inputFileNames = srcFiles.map { path -> File(path).nameWithoutExtension }.toSet()
-        val outputFileNames = exec("find $classDir -name '*.class'").map { path -> File(path).nameWithoutExtension }.toSet()
+        val outputFileNames = findFilesWithExtension(classDir, "class").map { path -> File(path).nameWithoutExtension }.toSet()
 
         return when ((inputFileNames - outputFileNames).isEmpty()) {
             true -> CompilationResult.Successful
@@ -197,89 +430,170 @@ class CompileTask(
     private fun getFriendModulePaths(moduleName: String, moduleClasspath: String) =
         moduleClasspath.split(":").filter { path -> path.contains("$moduleName/build") }
 
-    private fun runD8() {
-        val buildToolsDir = getBuildToolsDir()
-        val d8ToolPath = "$buildToolsDir/d8"
-        val dexDumpToolPath = "$buildToolsDir/dexdump"
-        val classDir = "$greencatRoot/$CLASS_FILES_DIR".noTilda()
-        val moduleDirs = File(classDir).list { file, _ -> file.isDirectory } ?: emptyArray()
-        val dexDir = "$greencatRoot/$DEX_FILES_DIR".noTilda()
-        val standardDexFileName = "classes.dex"
-        val dexFilePath = "$dexDir/$OUTPUT_DEX_FILE".noTilda()
+    private fun getDexTarget(): DexTarget {
         val currentApiLevel = try {
             deviceApiLevel.toInt()
         } catch (_: Throwable) {
             error("Failed to parse device API level: $deviceApiLevel")
         }
-        val minApiLevelArg = if (currentApiLevel >= MIN_API_LEVEL) {
-            "--min-api $MIN_API_LEVEL"
+        val minApiLevel = if (currentApiLevel >= MIN_API_LEVEL) {
+            MIN_API_LEVEL
         } else {
-            ""
+            null
         }
-        check(moduleDirs.isNotEmpty()) { "Class directory is empty" }
-        Telemetry.log("Running D8 (API level: $deviceApiLevel)...")
-
-        val tasks = moduleDirs.map { moduleDir ->
-            val task = Callable {
-                val outDir = File("$dexDir/$moduleDir")
-                val classDirs = exec("find $classDir/$moduleDir -name '*.class'")
-                    .map { path -> "${File(path).parentFile.absolutePath}/*.class" }
-                    .toSet()
-                    .joinToString(separator = " ")
+        return DexTarget(
+            buildToolsDir = getBuildToolsDir(),
+            minApiLevel = minApiLevel,
+            dexSection = if (minApiLevel == null) DEX_SECTION_PREFIX else "$DEX_SECTION_PREFIX-$minApiLevel",
+        )
+    }
 
-                if (!outDir.exists()) {
-                    outDir.mkdir()
-                }
-                exec("$d8ToolPath $classDirs --file-per-class --output ${outDir.absolutePath} $minApiLevelArg")
-                    .forEach { line -> Telemetry.log("[$moduleDir] D8: ${line.trim()}") }
-                exec("find ${outDir.absolutePath} -name '*.dex'").isNotEmpty()
-            }
-            executor.submit(task)
+    private fun scheduleDex(moduleName: String, target: DexTarget) {
+        val task = Callable {
+            val startTime = System.currentTimeMillis()
+            val dexFiles = dexModule(moduleName, target)
+            DexResult(moduleName, dexFiles, startTime, endTime = System.currentTimeMillis())
         }
-        tasks.forEach { future ->
-            val isOk = try {
+        dexTasks[moduleName] = executor.submit(task)
+    }
+
+    private fun runD8(target: DexTarget, compilationFinishedAt: Long) {
+        val buildToolsDir = target.buildToolsDir
+        val minApiLevel = target.minApiLevel
+        val d8ToolPath = "$buildToolsDir/d8"
+        val dexDir = "$greencatRoot/$DEX_FILES_DIR".noTilda()
+        val standardDexFileName = "classes.dex"
+        val dexFilePath = "$dexDir/$OUTPUT_DEX_FILE".noTilda()
+
+        check(dexTasks.isNotEmpty()) { "Class directory is empty" }
+        Telemetry.log("Running D8 (API level: $deviceApiLevel)...")
+
+        val results = dexTasks.values.map { future ->
+            try {
                 future.get()
             } catch (error: Throwable) {
                 error("Error running D8 (message = ${error.message})")
             }
-            if (!isOk) {
-                error("Error running D8")
-            }
         }
-        val dexFiles = exec("find $dexDir -name '*.dex'")
+        results.sortedBy(DexResult::startTime).forEach { result ->
+            val overlap = (minOf(result.endTime, compilationFinishedAt) - result.startTime).coerceAtLeast(0)
+            Telemetry.log("[${result.moduleName}] D8 took ${formatMillis(result.endTime - result.startTime)}, overlapped with compilation: ${formatMillis(overlap)}")
+        }
+        val dexFiles = results.flatMap(DexResult::dexFiles)
 
         if (dexFiles.isEmpty()) {
             error("No DEX files found")
         }
-        val dexFilesArg = dexFiles.joinToString(separator = " ") { path -> "'$path'" }
+        when (d8Compiler.isAvailable(buildToolsDir)) {
+            true -> {
+                val result = d8Compiler.merge(buildToolsDir, dexFiles, File(dexDir), minApiLevel)
+                result.diagnostics.forEach { diagnostic -> Telemetry.log("Merge D8: $diagnostic") }
+
+                if (!result.isSuccessful) {
+                    error("Failed to merge DEX files")
+                }
+            }
+            else -> {
+                val dexFilesFile = argumentFiles.arguments(
+                    moduleName = MERGE_ARGUMENTS_DIR,
+                    name = "d8-dex",
+                    args = dexFiles.map(File::getAbsolutePath),
+                    format = ArgumentFiles.Format.LINES,
+                )
+                exec("$d8ToolPath @${dexFilesFile.absolutePath} --output $dexDir ${getMinApiLevelArg(minApiLevel)}")
+                    .forEach { line -> Telemetry.log("Merge D8: ${line.trim()}") }
+            }
+        }
 
-        exec("$d8ToolPath $dexFilesArg --output $dexDir $minApiLevelArg")
-            .forEach { line -> Telemetry.log("Merge D8: ${line.trim()}") }
+        val standardDexFile = File("$dexDir/$standardDexFileName")
 
-        val entries = exec("$dexDumpToolPath $dexDir/$standardDexFileName | grep 'Class descriptor'")
-        Telemetry.log("\nOutput DEX file contains ${entries.size} class entries:\n")
+        if (!standardDexFile.exists()) {
+            error("Failed to generate output DEX file: ${standardDexFile.path}")
+        }
+        val dexInfo = DexFileReader.read(standardDexFile)
 
-        entries.forEach { line ->
-            val startIndex = line.indexOfFirst { c -> c == '\'' }
-            val endIndex = line.indexOfLast { c -> c == ';' }
+        if (!dexInfo.isChecksumValid) {
+            error("Output DEX file is corrupted: ${standardDexFile.path}")
+        }
+        Telemetry.log("\nOutput DEX file contains ${dexInfo.classes.size} class entries:\n")
 
-            if (startIndex == -1 || endIndex == -1) {
-                error("Failed to parse dexdump output")
-            }
-            Telemetry.log(" # ${line.substring(startIndex + 1, endIndex)}")
+        dexInfo.classes.forEach { dexClass ->
+            Telemetry.log(" # ${dexClass.descriptor.removeSuffix(";")}")
         }
         Telemetry.log("")
+        Telemetry.verboseLog("Methods: ${dexInfo.methodIdsCount}, fields: ${dexInfo.fieldIdsCount}, checksum: ${dexInfo.checksum}")
 
-        File("$dexDir/$standardDexFileName").apply {
-            if (!exists()) {
-                error("Failed to generate output DEX file: $path")
+        if (!standardDexFile.renameTo(File(dexFilePath))) {
+            error("Failed to rename: ${standardDexFile.path} -> $dexFilePath")
+        }
+    }
+
+    /**
+     * Dex class files of the module one by one. Output of each class file is cached by its content hash,
+     * so only changed classes are passed to D8
+     *
+     * @return DEX files for all class files of the module
+     */
+    private fun dexModule(moduleName: String, target: DexTarget): List<File> {
+        val buildToolsDir = target.buildToolsDir
+        val minApiLevel = target.minApiLevel
+        val classDir = File("$greencatRoot/$CLASS_FILES_DIR/$moduleName".noTilda())
+        val outDir = File("$greencatRoot/$DEX_FILES_DIR/$moduleName".noTilda())
+        val classFiles = classDir.walk().filter { file -> file.isFile && file.extension == "class" }.toList()
+        val cacheKeys = classFiles.associateWith { file ->
+            ContentHash().update(buildToolsDir).update(file).digest()
+        }
+        val dexFiles = classFiles.associateWith { file -> classCache.get(cacheKeys.getValue(file), target.dexSection) }
+        val changedClassFiles = dexFiles.filterValues { dexFile -> dexFile == null }.keys
+
+        if (!outDir.exists()) {
+            outDir.mkdir()
+        }
+        when {
+            changedClassFiles.isEmpty() -> Unit
+            d8Compiler.isAvailable(buildToolsDir) -> {
+                val result = d8Compiler.dexPerClassFile(buildToolsDir, changedClassFiles.toList(), outDir, minApiLevel)
+                result.diagnostics.forEach { diagnostic -> Telemetry.log("[$moduleName] D8: $diagnostic") }
+
+                if (!result.isSuccessful) {
+                    error("[$moduleName] Failed to dex class files")
+                }
             }
-            if (!renameTo(File(dexFilePath))) {
-                error("Failed to rename: $path -> $dexFilePath")
+            else -> dexModuleWithProcess(moduleName, buildToolsDir, changedClassFiles, outDir, minApiLevel)
+        }
+        Telemetry.log("[$moduleName] D8: ${changedClassFiles.size} class file(s) dexed, ${classFiles.size - changedClassFiles.size} cached")
+
+        return classFiles.map { file ->
+            dexFiles[file] ?: run {
+                // D8 mirrors class file layout for the output
+                val dexFile = File(outDir, file.relativeTo(classDir).path.removeSuffix(".class") + ".dex")
+
+                if (!dexFile.exists()) {
+                    error("[$moduleName] No DEX output for class file: ${file.path}")
+                }
+                classCache.put(cacheKeys.getValue(file), target.dexSection, dexFile)
+                dexFile
             }
         }
     }
 
+    // Fallback for build-tools without d8.jar
+    private fun dexModuleWithProcess(moduleName: String, buildToolsDir: String, classFiles: Collection<File>, outDir: File, minApiLevel: Int?) {
+        val classFilesFile = argumentFiles.arguments(
+            moduleName = moduleName,
+            name = "d8-classes",
+            args = classFiles.map(File::getAbsolutePath),
+            format = ArgumentFiles.Format.LINES,
+        )
+        exec("$buildToolsDir/d8 @${classFilesFile.absolutePath} --file-per-class-file --output ${outDir.absolutePath} ${getMinApiLevelArg(minApiLevel)}")
+            .forEach { line -> Telemetry.log("[$moduleName] D8: ${line.trim()}") }
+    }
+
+    private fun getMinApiLevelArg(minApiLevel: Int?) = when (minApiLevel) {
+        null -> ""
+        else -> "--min-api $minApiLevel"
+    }
+
     private fun getBuildToolsDir() = File("$androidSdkRoot/build-tools").run {
         if (!exists()) {
             error("No build-tools directory in Android SDK: $absolutePath")
@@ -289,12 +603,12 @@ class CompileTask(
         if (dirs.isNullOrEmpty()) {
             error("No build tools installed")
         }
-        dirs.sortedDescending()[0].absolutePath
+        checkNotNull(dirs.maxByOrNull { dir -> Version.parse(dir.name) }).absolutePath
     }
 
     private fun clearDirectory(dirName: String) {
         val path = "$greencatRoot/$dirName".noTilda()
-        exec("rm -rf $path")
+        deleteRecursively(path)
 
         if (File(path).exists()) {
             error("Failed to clear directory: $path")
@@ -304,11 +618,28 @@ class CompileTask(
         }
     }
 
+    private data class DexTarget(
+        val buildToolsDir: String,
+        val minApiLevel: Int?,
+        val dexSection: String, // Cache section for per-class DEX output
+    )
+
+    private class DexResult(
+        val moduleName: String,
+        val dexFiles: List<File>,
+        val startTime: Long,
+        val endTime: Long,
+    )
+
     sealed class CompilationResult {
 
         object Successful : CompilationResult()
 
-        data class Error(val moduleName: String, val output: List<String>) : CompilationResult()
+        data class Error(
+            val moduleName: String,
+            val output: List<String>,
+            val diagnostics: List<CompilerDiagnostic> = emptyList(),
+        ) : CompilationResult()
     }
 
     private companion object {
@@ -316,5 +647,11 @@ class CompileTask(
         // classpath fixes the problem, but slows down build
         // TODO: need research about desugaring
         const val MIN_API_LEVEL = 24
+        const val CLASS_CACHE_SIZE_LIMIT = 1024L * 1024 * 1024
+        const val CLASSES_SECTION = "classes"
+        const val DEX_SECTION_PREFIX = "dex"
+        const val MERGE_ARGUMENTS_DIR = ".merge"
+        val ANONYMOUS_CLASS_REGEX = Regex("\\$\\d") // E.g. Foo$1 or Foo$onCreate$1
+        val KOTLIN_COMPILER_FLAGS = listOf("-Xjvm-default=all-compatibility")
     }
 }
\ No newline at end of file
@@ -0,0 +1,33 @@
+package ru.fomenkov.plugin.task.compile
+
+data class CompilerDiagnostic(
+    val kind: Kind,
+    val path: String?,  // Source file path if any
+    val line: Long,     // 1-based, -1 if unknown
+    val column: Long,   // 1-based, -1 if unknown
+    val message: String,
+) {
+
+    fun isError() = kind == Kind.ERROR
+
+    override fun toString() = StringBuilder().apply {
+        if (path != null) {
+            append(path)
+
+            if (line > 0) {
+                append(":$line")
+            }
+            if (column > 0) {
+                append(":$column")
+            }
+            append(": ")
+        }
+        append("${kind.name.lowercase()}: $message")
+    }.toString()
+
+    enum class Kind {
+        ERROR,
+        WARNING,
+        NOTE,
+    }
+}
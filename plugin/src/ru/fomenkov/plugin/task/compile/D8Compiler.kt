@@ -0,0 +1,169 @@
+package ru.fomenkov.plugin.task.compile
+
+import ru.fomenkov.plugin.util.Telemetry
+import java.io.File
+import java.lang.reflect.InvocationHandler
+import java.lang.reflect.InvocationTargetException
+import java.lang.reflect.Method
+import java.lang.reflect.Proxy
+import java.net.URLClassLoader
+import java.nio.file.Path
+
+/**
+ * D8 dexer running inside the plugin JVM. d8.jar from the Android SDK build-tools is loaded once
+ * into an isolated class loader and driven through the R8 library API. Class files are passed
+ * as in-memory program data, diagnostics are collected through DiagnosticsHandler proxy
+ */
+class D8Compiler {
+
+    private val dexers = mutableMapOf<String, LoadedD8>() // build-tools directory -> loaded D8
+
+    fun isAvailable(buildToolsDir: String) = File(buildToolsDir, D8_JAR_PATH).exists()
+
+    /**
+     * Produce a separate DEX file for each class file. Output layout mirrors class names
+     */
+    fun dexPerClassFile(buildToolsDir: String, classFiles: List<File>, outputDir: File, minApiLevel: Int?): Result {
+        val d8 = load(buildToolsDir)
+
+        return d8.run(outputDir, d8.perClassFileMode, minApiLevel) { builder ->
+            classFiles.forEach { file ->
+                d8.addClassProgramDataMethod.invoke(builder, file.readBytes(), d8.createOrigin(file))
+            }
+        }
+    }
+
+    /**
+     * Merge DEX files into the single indexed classes.dex
+     */
+    fun merge(buildToolsDir: String, dexFiles: List<File>, outputDir: File, minApiLevel: Int?): Result {
+        val d8 = load(buildToolsDir)
+
+        return d8.run(outputDir, d8.indexedMode, minApiLevel) { builder ->
+            d8.addProgramFilesMethod.invoke(builder, dexFiles.map(File::toPath))
+        }
+    }
+
+    private fun load(buildToolsDir: String) = synchronized(dexers) {
+        dexers.getOrPut(buildToolsDir) {
+            val jar = File(buildToolsDir, D8_JAR_PATH)
+            Telemetry.verboseLog("Loading D8 from ${jar.absolutePath}")
+            val classLoader = URLClassLoader(
+                arrayOf(jar.toURI().toURL()),
+                ClassLoader.getSystemClassLoader().parent, // Isolate from plugin classes
+            )
+            LoadedD8(classLoader)
+        }
+    }
+
+    data class Result(
+        val isSuccessful: Boolean,
+        val diagnostics: List<CompilerDiagnostic>,
+    )
+
+    private class LoadedD8(val classLoader: ClassLoader) {
+
+        val commandClass: Class<*> = classLoader.loadClass(COMMAND_CLASS)
+        val builderClass: Class<*> = classLoader.loadClass(COMMAND_BUILDER_CLASS)
+        val handlerClass: Class<*> = classLoader.loadClass(DIAGNOSTICS_HANDLER_CLASS)
+        val diagnosticClass: Class<*> = classLoader.loadClass(DIAGNOSTIC_CLASS)
+        val originClass: Class<*> = classLoader.loadClass(ORIGIN_CLASS)
+        val pathOriginClass: Class<*> = classLoader.loadClass(PATH_ORIGIN_CLASS)
+        val outputModeClass: Class<*> = classLoader.loadClass(OUTPUT_MODE_CLASS)
+
+        val builderMethod: Method = commandClass.getMethod("builder", handlerClass)
+        val addClassProgramDataMethod: Method = builderClass.getMethod("addClassProgramData", ByteArray::class.java, originClass)
+        val addProgramFilesMethod: Method = builderClass.getMethod("addProgramFiles", Collection::class.java)
+        val setMinApiLevelMethod: Method = builderClass.getMethod("setMinApiLevel", Int::class.javaPrimitiveType)
+        val setOutputMethod: Method = builderClass.getMethod("setOutput", Path::class.java, outputModeClass)
+        val buildMethod: Method = builderClass.getMethod("build")
+        val runMethod: Method = classLoader.loadClass(D8_CLASS).getMethod("run", commandClass)
+        val messageMethod: Method = diagnosticClass.getMethod("getDiagnosticMessage")
+        val originMethod: Method = diagnosticClass.getMethod("getOrigin")
+
+        val perClassFileMode = outputMode(OUTPUT_MODE_PER_CLASS_FILE)
+        val indexedMode = outputMode(OUTPUT_MODE_INDEXED)
+
+        fun createOrigin(file: File): Any = pathOriginClass.getConstructor(Path::class.java).newInstance(file.toPath())
+
+        fun run(outputDir: File, outputMode: Any, minApiLevel: Int?, addInputs: (builder: Any) -> Unit): Result {
+            val diagnostics = mutableListOf<CompilerDiagnostic>()
+            val builder = builderMethod.invoke(null, createHandler(diagnostics))
+
+            addInputs(builder)
+            setOutputMethod.invoke(builder, outputDir.toPath(), outputMode)
+
+            if (minApiLevel != null) {
+                setMinApiLevelMethod.invoke(builder, minApiLevel)
+            }
+            val isSuccessful = try {
+                runMethod.invoke(null, buildMethod.invoke(builder))
+                true
+            } catch (error: InvocationTargetException) {
+                // CompilationFailedException. Errors are already reported to the handler
+                if (diagnostics.none(CompilerDiagnostic::isError)) {
+                    val message = error.targetException.message ?: error.targetException.toString()
+                    diagnostics += CompilerDiagnostic(CompilerDiagnostic.Kind.ERROR, null, -1, -1, message)
+                }
+                false
+            }
+            return Result(
+                isSuccessful = isSuccessful,
+                diagnostics = synchronized(diagnostics) { diagnostics.toList() },
+            )
+        }
+
+        private fun createHandler(diagnostics: MutableList<CompilerDiagnostic>): Any {
+            val handler = InvocationHandler { proxy, method, args ->
+                val kind = when (method.name) {
+                    "error" -> CompilerDiagnostic.Kind.ERROR
+                    "warning" -> CompilerDiagnostic.Kind.WARNING
+                    "info" -> CompilerDiagnostic.Kind.NOTE
+                    else -> null
+                }
+                when {
+                    kind != null -> {
+                        synchronized(diagnostics) { diagnostics += toCompilerDiagnostic(kind, args[0]) }
+                        null
+                    }
+                    method.name == "hashCode" -> System.identityHashCode(proxy)
+                    method.name == "equals" -> proxy === args[0]
+                    method.name == "toString" -> "GreenCat"
+                    // Default methods like modifyDiagnosticsLevel(level, diagnostic) -> keep as is
+                    !args.isNullOrEmpty() && method.returnType.isInstance(args[0]) -> args[0]
+                    else -> null
+                }
+            }
+            return Proxy.newProxyInstance(classLoader, arrayOf(handlerClass), handler)
+        }
+
+        private fun toCompilerDiagnostic(kind: CompilerDiagnostic.Kind, diagnostic: Any): CompilerDiagnostic {
+            val origin = originMethod.invoke(diagnostic)?.toString()
+
+            return CompilerDiagnostic(
+                kind = kind,
+                path = origin?.takeIf { path -> path.isNotBlank() && path != UNKNOWN_ORIGIN },
+                line = -1,
+                column = -1,
+                message = messageMethod.invoke(diagnostic) as String? ?: "",
+            )
+        }
+
+        private fun outputMode(name: String) = outputModeClass.enumConstants.first { mode -> (mode as Enum<*>).name == name }
+    }
+
+    private companion object {
+        const val D8_JAR_PATH = "lib/d8.jar"
+        const val D8_CLASS = "com.android.tools.r8.D8"
+        const val COMMAND_CLASS = "com.android.tools.r8.D8Command"
+        const val COMMAND_BUILDER_CLASS = "com.android.tools.r8.D8Command\$Builder"
+        const val DIAGNOSTICS_HANDLER_CLASS = "com.android.tools.r8.DiagnosticsHandler"
+        const val DIAGNOSTIC_CLASS = "com.android.tools.r8.Diagnostic"
+        const val ORIGIN_CLASS = "com.android.tools.r8.origin.Origin"
+        const val PATH_ORIGIN_CLASS = "com.android.tools.r8.origin.PathOrigin"
+        const val OUTPUT_MODE_CLASS = "com.android.tools.r8.OutputMode"
+        const val OUTPUT_MODE_PER_CLASS_FILE = "DexFilePerClassFile"
+        const val OUTPUT_MODE_INDEXED = "DexIndexed"
+        const val UNKNOWN_ORIGIN = "<unknown>"
+    }
+}
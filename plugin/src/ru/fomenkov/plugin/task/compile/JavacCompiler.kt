@@ -0,0 +1,103 @@
+package ru.fomenkov.plugin.task.compile
+
+import ru.fomenkov.plugin.util.Telemetry
+import java.io.File
+import java.util.concurrent.ConcurrentLinkedQueue
+import javax.tools.*
+
+/**
+ * In-process Java compiler built on top of javax.tools API.
+ * File managers are pooled and reused between modules and compilation rounds, so opened
+ * archives and platform classes stay cached. Thread-safe: each compilation borrows its own file manager
+ */
+class JavacCompiler {
+
+    private val compiler: JavaCompiler? = ToolProvider.getSystemJavaCompiler()
+    private val fileManagers = ConcurrentLinkedQueue<StandardJavaFileManager>()
+
+    fun isAvailable() = compiler != null
+
+    fun compile(srcFiles: Set<String>, classpath: String, outputDir: String): Result {
+        val compiler = checkNotNull(compiler) { "No system Java compiler available" }
+        val diagnostics = DiagnosticCollector<JavaFileObject>()
+        val fileManager = fileManagers.poll() ?: compiler.getStandardFileManager(null, null, Charsets.UTF_8)
+
+        try {
+            val outputFile = File(outputDir)
+
+            if (!outputFile.exists() && !outputFile.mkdirs()) {
+                error("Failed to create directory: $outputDir")
+            }
+            fileManager.setLocation(StandardLocation.CLASS_OUTPUT, listOf(outputFile))
+            fileManager.setLocation(StandardLocation.CLASS_PATH, classpath.split(":").filter(String::isNotBlank).map(::File))
+
+            val trackingFileManager = OutputTrackingFileManager(fileManager)
+            val units = fileManager.getJavaFileObjectsFromStrings(srcFiles)
+            val isSuccessful = compiler.getTask(null, trackingFileManager, diagnostics, OPTIONS, null, units).call()
+
+            return Result(
+                isSuccessful = isSuccessful,
+                diagnostics = diagnostics.diagnostics.map(::toCompilerDiagnostic),
+                classFiles = trackingFileManager.classFiles.toSet(),
+            )
+        } finally {
+            fileManager.flush()
+            fileManagers += fileManager
+        }
+    }
+
+    fun close() {
+        while (true) {
+            val fileManager = fileManagers.poll() ?: break
+
+            try {
+                fileManager.close()
+            } catch (error: Throwable) {
+                Telemetry.verboseErr("Failed to close file manager: ${error.message}")
+            }
+        }
+    }
+
+    private fun toCompilerDiagnostic(diagnostic: Diagnostic<out JavaFileObject>) = CompilerDiagnostic(
+        kind = when (diagnostic.kind) {
+            Diagnostic.Kind.ERROR -> CompilerDiagnostic.Kind.ERROR
+            Diagnostic.Kind.WARNING, Diagnostic.Kind.MANDATORY_WARNING -> CompilerDiagnostic.Kind.WARNING
+            else -> CompilerDiagnostic.Kind.NOTE
+        },
+        path = diagnostic.source?.toUri()?.path,
+        line = diagnostic.lineNumber,
+        column = diagnostic.columnNumber,
+        message = diagnostic.getMessage(null) ?: "",
+    )
+
+    data class Result(
+        val isSuccessful: Boolean,
+        val diagnostics: List<CompilerDiagnostic>,
+        val classFiles: Set<String>, // Absolute paths of emitted class files
+    )
+
+    private class OutputTrackingFileManager(
+        fileManager: StandardJavaFileManager,
+    ) : ForwardingJavaFileManager<StandardJavaFileManager>(fileManager) {
+
+        val classFiles = mutableSetOf<String>()
+
+        override fun getJavaFileForOutput(
+            location: JavaFileManager.Location?,
+            className: String?,
+            kind: JavaFileObject.Kind?,
+            sibling: FileObject?,
+        ): JavaFileObject {
+            val file = super.getJavaFileForOutput(location, className, kind, sibling)
+
+            if (kind == JavaFileObject.Kind.CLASS) {
+                synchronized(classFiles) { classFiles += File(file.toUri()).absolutePath }
+            }
+            return file
+        }
+    }
+
+    companion object {
+        val OPTIONS = listOf("-source", "1.8", "-target", "1.8", "-g")
+    }
+}
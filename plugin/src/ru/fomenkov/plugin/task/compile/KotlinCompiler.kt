@@ -0,0 +1,135 @@
+package ru.fomenkov.plugin.task.compile
+
+import ru.fomenkov.plugin.util.Telemetry
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.PrintStream
+import java.lang.reflect.InvocationHandler
+import java.lang.reflect.Method
+import java.lang.reflect.Proxy
+import java.net.URLClassLoader
+
+/**
+ * Kotlin compiler running inside the plugin JVM. Compiler JARs from the installed kotlinc
+ * distribution are loaded once into an isolated class loader and reused for all modules and rounds.
+ * Messages are collected through MessageRenderer proxy as structured diagnostics
+ */
+class KotlinCompiler {
+
+    private val compilers = mutableMapOf<String, LoadedCompiler>() // kotlinc home -> loaded compiler
+
+    init {
+        // Keep compiler application environment alive between compilations
+        System.setProperty(KEEPALIVE_PROPERTY, "true")
+    }
+
+    fun isAvailable(kotlinHome: String) = File(kotlinHome, COMPILER_JAR_PATH).exists()
+
+    fun compile(kotlinHome: String, args: List<String>): Result {
+        val compiler = load(kotlinHome)
+        val diagnostics = mutableListOf<CompilerDiagnostic>()
+        val output = ByteArrayOutputStream()
+        val renderer = compiler.createRenderer(diagnostics)
+        val thread = Thread.currentThread()
+        val contextClassLoader = thread.contextClassLoader
+
+        val exitCode = try {
+            thread.contextClassLoader = compiler.classLoader
+            val instance = compiler.compilerClass.getDeclaredConstructor().newInstance()
+            val allArgs = (listOf("-kotlin-home", kotlinHome) + args).toTypedArray()
+            compiler.execMethod.invoke(instance, PrintStream(output), renderer, allArgs).toString()
+        } finally {
+            thread.contextClassLoader = contextClassLoader
+        }
+        output.toString().lines()
+            .filter(String::isNotBlank)
+            .forEach { line -> diagnostics += CompilerDiagnostic(CompilerDiagnostic.Kind.NOTE, null, -1, -1, line) }
+
+        return Result(
+            isSuccessful = exitCode == EXIT_CODE_OK,
+            diagnostics = synchronized(diagnostics) { diagnostics.toList() },
+        )
+    }
+
+    private fun load(kotlinHome: String) = synchronized(compilers) {
+        compilers.getOrPut(kotlinHome) {
+            val libDir = File(kotlinHome, "lib")
+            val jars = libDir.listFiles { file -> file.extension == "jar" } ?: emptyArray()
+
+            if (jars.isEmpty()) {
+                error("No Kotlin compiler JARs found at ${libDir.absolutePath}")
+            }
+            Telemetry.verboseLog("Loading Kotlin compiler from ${libDir.absolutePath}")
+            val classLoader = URLClassLoader(
+                jars.map { file -> file.toURI().toURL() }.toTypedArray(),
+                ClassLoader.getSystemClassLoader().parent, // Isolate from plugin classes
+            )
+            LoadedCompiler(classLoader)
+        }
+    }
+
+    data class Result(
+        val isSuccessful: Boolean,
+        val diagnostics: List<CompilerDiagnostic>,
+    )
+
+    private class LoadedCompiler(val classLoader: ClassLoader) {
+
+        val compilerClass: Class<*> = classLoader.loadClass(COMPILER_CLASS)
+        val rendererClass: Class<*> = classLoader.loadClass(MESSAGE_RENDERER_CLASS)
+        val locationClass: Class<*> = classLoader.loadClass(MESSAGE_LOCATION_CLASS)
+        val execMethod: Method = compilerClass.getMethod(
+            "exec",
+            PrintStream::class.java,
+            rendererClass,
+            Array<String>::class.java,
+        )
+
+        fun createRenderer(diagnostics: MutableList<CompilerDiagnostic>): Any {
+            val handler = InvocationHandler { proxy, method, args ->
+                when (method.name) {
+                    "render" -> {
+                        val diagnostic = toCompilerDiagnostic(args[0], args[1] as String?, args[2])
+
+                        if (diagnostic != null) {
+                            synchronized(diagnostics) { diagnostics += diagnostic }
+                        }
+                        ""
+                    }
+                    "getName" -> "GreenCat"
+                    "hashCode" -> System.identityHashCode(proxy)
+                    "equals" -> proxy === args[0]
+                    else -> ""
+                }
+            }
+            return Proxy.newProxyInstance(classLoader, arrayOf(rendererClass), handler)
+        }
+
+        private fun toCompilerDiagnostic(severity: Any, message: String?, location: Any?): CompilerDiagnostic? {
+            val kind = when ((severity as Enum<*>).name) {
+                "EXCEPTION", "ERROR" -> CompilerDiagnostic.Kind.ERROR
+                "STRONG_WARNING", "FIXED_WARNING", "WARNING" -> CompilerDiagnostic.Kind.WARNING
+                "INFO" -> CompilerDiagnostic.Kind.NOTE
+                else -> return null // Logging and output messages
+            }
+            fun property(name: String) = location?.let { locationClass.getMethod(name).invoke(location) }
+
+            return CompilerDiagnostic(
+                kind = kind,
+                path = property("getPath") as String?,
+                line = (property("getLine") as Int? ?: -1).toLong(),
+                column = (property("getColumn") as Int? ?: -1).toLong(),
+                message = message ?: "",
+            )
+        }
+    }
+
+    private companion object {
+        const val COMPILER_CLASS = "org.jetbrains.kotlin.cli.jvm.K2JVMCompiler"
+        const val MESSAGE_RENDERER_CLASS = "org.jetbrains.kotlin.cli.common.messages.MessageRenderer"
+        const val MESSAGE_LOCATION_CLASS = "org.jetbrains.kotlin.cli.common.messages.CompilerMessageSourceLocation"
+        const val COMPILER_JAR_PATH = "lib/kotlin-compiler.jar"
+        const val KEEPALIVE_PROPERTY = "kotlin.environment.keepalive"
+        const val EXIT_CODE_OK = "OK"
+    }
+}
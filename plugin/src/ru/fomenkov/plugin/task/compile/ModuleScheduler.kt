@@ -0,0 +1,124 @@
+package ru.fomenkov.plugin.task.compile
+
+import java.util.*
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.LinkedBlockingQueue
+
+/**
+ * Runs module tasks in dependency order. A module is dispatched as soon as all of its dependencies
+ * are done, without waiting for unrelated modules. Ready modules are ordered by their critical path
+ * length, so the longest chains of dependent modules start first
+ *
+ * @param dependencies module name -> modules it depends on. Unknown modules are ignored
+ * @param parallelism max number of tasks running at the same time
+ * @param weight estimated cost of the module task
+ */
+class ModuleScheduler(
+    private val dependencies: Map<String, Set<String>>,
+    private val executor: ExecutorService,
+    private val parallelism: Int,
+    private val weight: (moduleName: String) -> Long = { 1 },
+) {
+
+    private val modules = dependencies.keys
+    private val moduleDependencies = modules.associateWith { moduleName ->
+        dependencies.getValue(moduleName).filter { dep -> dep != moduleName && dep in modules }.toSet()
+    }
+    private val moduleDependents = modules.associateWith { mutableSetOf<String>() }.apply {
+        moduleDependencies.forEach { (moduleName, deps) ->
+            deps.forEach { dep -> getValue(dep) += moduleName }
+        }
+    }
+
+    /**
+     * Critical path length for each module: its own weight plus the longest chain of dependents
+     */
+    val criticalPaths: Map<String, Long> by lazy {
+        val paths = mutableMapOf<String, Long>()
+        val visiting = mutableSetOf<String>()
+
+        fun path(moduleName: String): Long = paths[moduleName] ?: run {
+            check(visiting.add(moduleName)) { "Cyclic module dependency: $moduleName" }
+            val value = weight(moduleName) + (moduleDependents.getValue(moduleName).maxOfOrNull(::path) ?: 0)
+            visiting -= moduleName
+            paths[moduleName] = value
+            value
+        }
+        modules.forEach(::path)
+        paths
+    }
+
+    /**
+     * Run tasks for all modules. No new modules are dispatched after the first failure,
+     * already running tasks are awaited
+     *
+     * @return task results in order of completion
+     */
+    fun <R> run(task: (moduleName: String) -> R, isSuccessful: (R) -> Boolean): List<R> {
+        check(parallelism > 0) { "Invalid parallelism: $parallelism" }
+        val paths = criticalPaths
+        val remainingDeps = moduleDependencies.mapValues { (_, deps) -> deps.size }.toMutableMap()
+        val ready = PriorityQueue(compareByDescending<String> { moduleName -> paths.getValue(moduleName) }.thenBy { moduleName -> moduleName })
+        val completed = LinkedBlockingQueue<Completion<R>>()
+        val results = mutableListOf<R>()
+        var running = 0
+        var failure: Throwable? = null
+        var isStopped = false
+
+        ready += remainingDeps.filterValues { count -> count == 0 }.keys
+
+        while (true) {
+            while (!isStopped && running < parallelism && ready.isNotEmpty()) {
+                val moduleName = ready.poll()
+                running++
+                executor.submit {
+                    val completion = try {
+                        Completion(moduleName, task(moduleName), null)
+                    } catch (error: Throwable) {
+                        Completion<R>(moduleName, null, error)
+                    }
+                    completed.put(completion)
+                }
+            }
+            if (running == 0) {
+                break
+            }
+            val completion = completed.take()
+            running--
+
+            when {
+                completion.error != null -> {
+                    failure = failure ?: completion.error
+                    isStopped = true
+                }
+                else -> {
+                    @Suppress("UNCHECKED_CAST")
+                    val result = completion.result as R
+                    results += result
+
+                    if (isSuccessful(result)) {
+                        moduleDependents.getValue(completion.moduleName).forEach { dependent ->
+                            val count = remainingDeps.getValue(dependent) - 1
+                            remainingDeps[dependent] = count
+
+                            if (count == 0) {
+                                ready += dependent
+                            }
+                        }
+                    } else {
+                        isStopped = true
+                    }
+                }
+            }
+        }
+        failure?.let { error -> throw error }
+        check(isStopped || results.size == modules.size) { "Cyclic module dependencies" }
+        return results
+    }
+
+    private class Completion<R>(
+        val moduleName: String,
+        val result: R?,
+        val error: Throwable?,
+    )
+}
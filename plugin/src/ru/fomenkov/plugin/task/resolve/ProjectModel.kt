@@ -0,0 +1,134 @@
+package ru.fomenkov.plugin.task.resolve
+
+import ru.fomenkov.plugin.resolver.ModuleDeclaration
+import ru.fomenkov.plugin.util.Telemetry
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.File
+
+/**
+ * Persistent binary project model: module declarations with Gradle properties, build scripts with project properties
+ * and resolved modules with their dependency edges and classpath. Each part keeps the fingerprint of its inputs,
+ * so it's reused until settings.gradle, gradle.properties, build scripts or resolved paths change
+ */
+class ProjectModel(private val file: File) {
+
+    var project: Project? = null
+        private set
+
+    // Build scripts which define project.ext properties, as of the last parsing
+    var propertyScripts: Set<String> = emptySet()
+
+    private val modules = mutableMapOf<String, Module>()
+
+    fun load() = apply {
+        project = null
+        propertyScripts = emptySet()
+        modules.clear()
+
+        if (!file.exists()) {
+            return@apply
+        }
+        try {
+            DataInputStream(file.inputStream().buffered()).use { input ->
+                if (input.readInt() != FORMAT_VERSION) {
+                    Telemetry.verboseLog("Project model format changed, resolving from scratch")
+                    return@apply
+                }
+                project = Project(
+                    fingerprint = input.readUTF(),
+                    declarations = input.readList { ModuleDeclaration(name = readUTF(), path = readUTF()) }.toSet(),
+                    properties = input.readList { readUTF() to readUTF() }.toMap(),
+                )
+                propertyScripts = input.readList { readUTF() }.toSet()
+                input.readList {
+                    Module(
+                        name = readUTF(),
+                        fingerprint = readUTF(),
+                        children = readList { readUTF() }.toSet(),
+                        classpath = readList { readUTF() },
+                        unversionedLibraries = readList { readUTF() },
+                    )
+                }.forEach { module -> modules[module.name] = module }
+            }
+        } catch (error: Throwable) {
+            Telemetry.verboseErr("Failed to read project model ${file.path}: ${error.message}")
+            project = null
+            propertyScripts = emptySet()
+            modules.clear()
+        }
+    }
+
+    // Written to the temporary file first, so the model is never left half-written
+    fun save() {
+        val tmpFile = File(file.parentFile, "${file.name}.tmp")
+        val project = checkNotNull(project) { "No project declarations to save" }
+
+        DataOutputStream(tmpFile.outputStream().buffered()).use { output ->
+            output.writeInt(FORMAT_VERSION)
+            output.writeUTF(project.fingerprint)
+            output.writeList(project.declarations) { dec ->
+                writeUTF(dec.name)
+                writeUTF(dec.path)
+            }
+            output.writeList(project.properties.entries) { (property, value) ->
+                writeUTF(property)
+                writeUTF(value)
+            }
+            output.writeList(propertyScripts) { path -> writeUTF(path) }
+            output.writeList(modules.values) { module ->
+                writeUTF(module.name)
+                writeUTF(module.fingerprint)
+                writeList(module.children) { moduleName -> writeUTF(moduleName) }
+                writeList(module.classpath) { path -> writeUTF(path) }
+                writeList(module.unversionedLibraries) { artifact -> writeUTF(artifact) }
+            }
+        }
+        if (!tmpFile.renameTo(file)) {
+            error("Failed to write project model: ${file.absolutePath}")
+        }
+    }
+
+    /**
+     * Replace project declarations. Resolved modules are dropped when the project fingerprint changes
+     */
+    fun setProject(project: Project) {
+        if (this.project?.fingerprint != project.fingerprint) {
+            modules.clear()
+        }
+        this.project = project
+    }
+
+    fun getModule(moduleName: String) = modules[moduleName]
+
+    fun putModule(module: Module) {
+        modules[module.name] = module
+    }
+
+    fun removeModule(moduleName: String) = modules.remove(moduleName) != null
+
+    data class Project(
+        val fingerprint: String, // settings.gradle and gradle.properties content
+        val declarations: Set<ModuleDeclaration>,
+        val properties: Map<String, String>,
+    )
+
+    data class Module(
+        val name: String,
+        val fingerprint: String, // Build scripts and outputs of the module and its children, classpath entries
+        val children: Set<String>, // Module itself and all modules it depends on, including transitive
+        val classpath: List<String>,
+        val unversionedLibraries: List<String> = emptyList(), // groupId:artifactId of libraries resolved to the latest version
+    )
+
+    private fun <T> DataInputStream.readList(readItem: DataInputStream.() -> T) = (0 until readInt()).map { readItem() }
+
+    private fun <T> DataOutputStream.writeList(items: Collection<T>, writeItem: DataOutputStream.(T) -> Unit) {
+        writeInt(items.size)
+        items.forEach { item -> writeItem(item) }
+    }
+
+    private companion object {
+        const val FORMAT_VERSION = 2
+    }
+}
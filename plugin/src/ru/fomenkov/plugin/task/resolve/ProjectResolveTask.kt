@@ -1,20 +1,30 @@
 package ru.fomenkov.plugin.task.resolve
 
+import ru.fomenkov.plugin.cache.FileCache
 import ru.fomenkov.plugin.repository.ClasspathOptimizer
+import ru.fomenkov.plugin.repository.ExplodedAarCache
 import ru.fomenkov.plugin.repository.MetadataArtifactDependencyResolver
+import ru.fomenkov.plugin.repository.SourceReferenceIndex
+import ru.fomenkov.plugin.repository.VersionConflictResolver
 import ru.fomenkov.plugin.resolver.Dependency
 import ru.fomenkov.plugin.resolver.ModuleDeclaration
 import ru.fomenkov.plugin.resolver.ProjectResolver
 import ru.fomenkov.plugin.resolver.Relation
 import ru.fomenkov.plugin.task.Task
 import ru.fomenkov.plugin.util.*
-import ru.fomenkov.runner.CLASSPATH_DIR
+import ru.fomenkov.runner.AAR_CACHE_DIR
+import ru.fomenkov.runner.PROJECT_MODEL_FILE
 import ru.fomenkov.runner.SOURCE_FILES_DIR
 import java.io.File
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
 
 class ProjectResolveTask(
     private val input: ProjectResolverInput,
     private val artifactResolver: MetadataArtifactDependencyResolver,
+    private val executor: ExecutorService,
+    private val cache: ProjectResolverCache? = null,
+    private val referenceIndex: SourceReferenceIndex? = null,
 ) : Task<ProjectResolverOutput> {
 
     private val resolver = ProjectResolver(
@@ -22,16 +32,32 @@ class ProjectResolveTask(
         settingsFileName = input.settingsFileName,
     )
     private val classpathOptimizer = ClasspathOptimizer()
+    private val aarCache = ExplodedAarCache(FileCache(File("${input.greencatRoot}/$AAR_CACHE_DIR".noTilda()), AAR_CACHE_SIZE_LIMIT))
     private val moduleDeclarations = mutableSetOf<ModuleDeclaration>()
     private val gradleProperties = mutableMapOf<String, String>()
     private val modulePathsMap = mutableMapOf<String, String>()
+    private val propertyScripts = mutableSetOf<String>() // Build scripts with project.ext properties
+    private var propertiesFingerprint = NO_FINGERPRINT
+
+    // Module path -> dependencies declared in its build.gradle. Parsed once per run, only if some module is resolved
+    private val moduleDependencies by lazy { parseBuildScripts() }
+
+    // Transitive dependencies of all modules, computed once per run
+    private val dependencyGraph by lazy {
+        resolver.buildDependencyGraph(modules = moduleDependencies, moduleNameToPath = modulePathsMap)
+    }
 
     override fun run(): ProjectResolverOutput {
-        moduleDeclarations += resolver.parseModuleDeclarations()
+        val model = ProjectModel(File("${input.greencatRoot}/$PROJECT_MODEL_FILE".noTilda())).load()
+        val project = getProject(model)
+        val isProjectChanged = model.project !== project
+        model.setProject(project)
+        moduleDeclarations += project.declarations
         modulePathsMap += moduleDeclarations.associate { dec -> dec.name to dec.path }
-        gradleProperties += resolver.parseGradleProperties()
+        gradleProperties += project.properties
+        propertiesFingerprint = getPropertiesFingerprint(model.propertyScripts)
 
-        val srcFiles = exec("find ${input.greencatRoot}/$SOURCE_FILES_DIR").filter(::isFileSupported)
+        val srcFiles = findFiles("${input.greencatRoot}/$SOURCE_FILES_DIR".noTilda()) { path -> isFileSupported(path.toString()) }
         val srcModuleGroups = mutableMapOf<String, MutableSet<String>>() // Module name -> source files
 
         if (srcFiles.isEmpty()) {
@@ -50,6 +76,21 @@ class ProjectResolveTask(
             }
             Telemetry.log("")
         }
+        val dependentFiles = findDependentFiles(srcFiles)
+        val dependentModuleGroups = mutableMapOf<String, MutableSet<String>>() // Module name -> dependent files
+
+        if (dependentFiles.isNotEmpty()) {
+            Telemetry.log("Total ${dependentFiles.size} dependent file(s) to compile if ABI changes:\n")
+
+            dependentFiles.forEach { path ->
+                val moduleName = getSourceFileModuleName(path)
+                dependentModuleGroups.getOrPut(moduleName) { mutableSetOf() } += path
+                Telemetry.log(" - [$moduleName] $path")
+            }
+            Telemetry.log("")
+        }
+        // Classpath is resolved for modules of dependent files as well
+        val moduleNames = srcModuleGroups.keys + dependentModuleGroups.keys
         if (input.mappedModules.isNotEmpty()) {
             Telemetry.log("Mapped modules:\n")
 
@@ -61,52 +102,173 @@ class ProjectResolveTask(
         Telemetry.log("Project contains ${moduleDeclarations.size} module(s)")
         Telemetry.log("Resolving dependencies...\n")
 
-        val cpDir = "${input.greencatRoot}/$CLASSPATH_DIR".noTilda()
-        val allCpFiles = File(cpDir).listFiles(File::isFile)?.map(File::getName)?.toSet() ?: emptySet()
-        val absentCpFiles = srcModuleGroups.keys.filterNot { moduleName -> allCpFiles.contains(moduleName) }.toSet()
+        val moduleFingerprints = mutableMapOf<String, String>()
+        val outdatedModules = moduleNames.filter { moduleName ->
+            val module = model.getModule(moduleName) ?: return@filter true
+            val fingerprint = getModuleFingerprint(module.children, module.classpath, module.unversionedLibraries)
+            moduleFingerprints[moduleName] = fingerprint
+            fingerprint != module.fingerprint
+        }.toSet()
 
-        if (absentCpFiles.isNotEmpty()) {
-            Telemetry.log("No classpath files for the next module(s): " + absentCpFiles.joinToString(separator = ", "))
+        if (outdatedModules.isNotEmpty()) {
+            Telemetry.log("Missing or outdated classpath for the next module(s): " + outdatedModules.joinToString(separator = ", "))
             Telemetry.log("Building dependency tree. It may take a while...")
-            val cpFile = File(cpDir)
+            artifactResolver.refresh() // Resolver is kept between builds in server mode
+            resolveLibraries(outdatedModules)
+
+            // Build scripts are parsed just now -> properties are taken from the current set of scripts
+            model.propertyScripts = propertyScripts.toSet()
+            propertiesFingerprint = getPropertiesFingerprint(model.propertyScripts)
 
-            if (!cpFile.exists()) {
-                cpFile.mkdir()
+            outdatedModules.forEach { moduleName ->
+                val module = resolveModule(moduleName)
+                model.putModule(module)
+                moduleFingerprints[moduleName] = module.fingerprint
             }
-            absentCpFiles.forEach(::generateClasspathFile)
+            aarCache.trim()
+        }
+        if (outdatedModules.isNotEmpty() || isProjectChanged) {
+            model.save()
+        }
+        deleteLegacyClasspathFiles()
+
+        val cacheKey = ProjectResolverCache.Key(
+            input = input,
+            sourceFiles = srcFiles.toSet() + dependentFiles,
+            moduleFingerprints = moduleFingerprints,
+        )
+        val cachedOutput = cache?.get(cacheKey)
+
+        if (cachedOutput != null) {
+            Telemetry.log("Using resolved project from the previous build")
+            return cachedOutput.copy(resolvedModules = emptySet())
         }
         val moduleClasspathMap = mutableMapOf<String, String>()
         val moduleChildren = mutableMapOf<String, Set<String>>()
 
-        srcModuleGroups.keys.forEach { moduleName ->
-            val cpFilePath = "${input.greencatRoot}/$CLASSPATH_DIR/$moduleName".noTilda()
-            val cpFile = File(cpFilePath)
-
-            if (!cpFile.exists()) {
-                error("Classpath file doesn't exist: $cpFilePath")
-            }
-            val (classpath, children) = cpFile.readLines()
-            moduleClasspathMap += moduleName to classpath
-            moduleChildren += moduleName to children.split(":").toSet()
+        moduleNames.forEach { moduleName ->
+            val module = checkNotNull(model.getModule(moduleName)) { "No classpath for module: $moduleName" }
+            moduleClasspathMap += moduleName to module.classpath.joinToString(separator = ":")
+            moduleChildren += moduleName to module.children
+        }
+        val moduleDependenciesMap = moduleChildren.mapValues { (moduleName, children) ->
+            children.filter { child -> child != moduleName && child in moduleNames }.toSet()
         }
-        val moduleCompilationOrderMap = CompilationOrderResolver().getModulesCompilationOrder(moduleChildren)
-        check(srcModuleGroups.size == moduleCompilationOrderMap.size) { "Missing some modules" }
+        check(moduleNames.size == moduleDependenciesMap.size) { "Missing some modules" }
 
-        moduleCompilationOrderMap.keys.forEach { moduleName ->
+        moduleDependenciesMap.keys.forEach { moduleName ->
             checkNotNull(modulePathsMap[moduleName]) { "Module not found: $moduleName" }
         }
         return ProjectResolverOutput(
             sourceFilesMap = srcModuleGroups,
+            dependentFilesMap = dependentModuleGroups,
             moduleClasspathMap = moduleClasspathMap,
-            moduleCompilationOrderMap = moduleCompilationOrderMap,
-        )
+            moduleDependenciesMap = moduleDependenciesMap,
+            resolvedModules = outdatedModules,
+        ).also { output -> cache?.put(cacheKey, output) }
+    }
+
+    /**
+     * Project files which reference changed files directly, so that constants, inline functions and signatures
+     * they use are compiled against the changed versions. Files of unknown modules are skipped
+     */
+    private fun findDependentFiles(srcFiles: List<String>): Set<String> {
+        val index = referenceIndex ?: return emptySet()
+        val srcDir = "${input.greencatRoot}/$SOURCE_FILES_DIR".noTilda()
+        val changedPaths = srcFiles.map { path -> "$CURRENT_DIR/${path.removePrefix("$srcDir/")}" }.toSet()
+        val dependentFiles = mutableSetOf<String>()
+        val time = timeMillis {
+            index.refresh(moduleDeclarations.map { dec -> "$CURRENT_DIR/${dec.path}/src" })
+
+            srcFiles.forEach { path ->
+                dependentFiles += index.getDependents(path).filter { dependent ->
+                    dependent !in changedPaths && modulePathsMap.containsKey(getSourceFileModuleName(dependent))
+                }
+            }
+        }
+        Telemetry.log("Finding dependent files takes ${formatMillis(time)}")
+        return dependentFiles
+    }
+
+    /**
+     * Module declarations and Gradle properties from the model, if settings.gradle,
+     * gradle.properties and installed Android platforms haven't changed since the last build
+     */
+    private fun getProject(model: ProjectModel): ProjectModel.Project {
+        val fingerprint = ContentHash()
+            .update(File(input.settingsFileName))
+            .update(File(input.propertiesFileName))
+            .update(input.androidSdkPath)
+            .update(File("${input.androidSdkPath}/platforms").list()?.sorted()?.joinToString(separator = ":") ?: "")
+            .digest()
+
+        return when (model.project?.fingerprint) {
+            fingerprint -> checkNotNull(model.project)
+            else -> ProjectModel.Project(
+                fingerprint = fingerprint,
+                declarations = resolver.parseModuleDeclarations(),
+                properties = resolver.parseGradleProperties(),
+            )
+        }
+    }
+
+    /**
+     * Fingerprint of build scripts which may define library versions: the root one and the ones with project.ext properties
+     */
+    private fun getPropertiesFingerprint(scripts: Set<String>): String {
+        val hash = ContentHash()
+
+        (scripts + ProjectResolver.BUILD_GRADLE_FILE_NAME).sorted().forEach { path ->
+            val buildFile = File(path)
+
+            hash.update(path)
+            when (buildFile.exists()) {
+                true -> hash.update(buildFile)
+                else -> hash.update(NO_FINGERPRINT)
+            }
+        }
+        return hash.digest()
+    }
+
+    /**
+     * Fingerprint of module classpath inputs: build scripts, available build outputs and local JARs
+     * of the module and its children, project properties, versions in Gradle cache of libraries declared
+     * without a version, and whether resolved classpath entries still exist
+     */
+    private fun getModuleFingerprint(children: Set<String>, classpath: List<String>, unversionedLibraries: List<String>): String {
+        val hash = ContentHash().update(propertiesFingerprint)
+
+        children.sorted().forEach { moduleName ->
+            val modulePath = modulePathsMap[moduleName] ?: return NO_FINGERPRINT // Module is removed from the project
+            val buildFile = File("$modulePath/${ProjectResolver.BUILD_GRADLE_FILE_NAME}")
+
+            hash.update(moduleName).update(modulePath)
+            when (buildFile.exists()) {
+                true -> hash.update(buildFile)
+                else -> hash.update(NO_FINGERPRINT)
+            }
+            getBuildSubDirectories("$CURRENT_DIR/$modulePath/build").forEach { path ->
+                hash.update(File(path).exists().toString())
+            }
+            getLocalJars(modulePath).forEach { path -> hash.update(path) }
+        }
+        unversionedLibraries.forEach { artifact ->
+            val parts = artifact.split(":")
+            val versions = artifactResolver.getCachedVersions(groupId = parts.first(), artifactId = parts.last())
+            hash.update(artifact).update(versions.joinToString(separator = ":"))
+        }
+        classpath.forEach { path ->
+            hash.update(path).update(File(path).exists().toString())
+        }
+        return hash.digest()
     }
 
     /**
-     * Get module classpath with children modules
+     * Get module classpath with children modules and runtime-only library paths, which are not in classpath
      */
-    private fun getModuleClasspath(moduleName: String, deps: Set<Dependency>): Pair<Set<String>, Set<String>> {
+    private fun getModuleClasspath(moduleName: String, deps: Set<Dependency>): Triple<Set<String>, Set<String>, Set<String>> {
         val classpath = mutableSetOf<String>()
+        val runtimeOnlyPaths = mutableSetOf<String>()
         val children = mutableSetOf<String>()
         val androidSdkPath = input.androidSdkPath
         val current = Dependency.Project(moduleName = moduleName, relation = Relation.IMPLEMENTATION)
@@ -127,15 +289,25 @@ class ProjectResolveTask(
             getBuildSubDirectories(buildPath).forEach { path -> path.toClasspath() }
 
             // Local lib directory if any
-            File("$modulePath/libs").apply {
-                if (exists()) {
-                    exec("find $absolutePath -name '*.jar'").forEach { localJar -> localJar.toClasspath() }
+            getLocalJars(modulePath).forEach { localJar -> localJar.toClasspath() }
+            children += dep.moduleName
+        }
+        val libraryPaths = libs.map(::getLibraryPaths)
+        val artifacts = libraryPaths.flatMap { paths -> paths.artifacts.keys }
+        val selectedArtifacts = VersionConflictResolver.resolve(artifacts)
+
+        libraryPaths.forEach { paths ->
+            paths.artifacts.forEach { (artifact, artifactPaths) ->
+                if (artifact in selectedArtifacts) {
+                    artifactPaths.forEach { path -> path.toClasspath() }
                 }
             }
-            children += dep.moduleName
+            runtimeOnlyPaths += paths.runtimeOnly.filter { path -> File(path).exists() }
         }
-        libs.forEach { dep ->
-            getLibraryPaths(dep).forEach { path -> path.toClasspath() }
+        val evictedArtifacts = artifacts.toSet() - selectedArtifacts
+
+        if (evictedArtifacts.isNotEmpty()) {
+            Telemetry.verboseLog("Evicted by version conflict resolution for '$moduleName': ${evictedArtifacts.joinToString()}")
         }
         files.forEach { dep ->
             "${dep.modulePath}/${dep.filePath}".toClasspath()
@@ -150,11 +322,13 @@ class ProjectResolveTask(
             if (dirs.isEmpty()) {
                 error("No Android platforms installed")
             }
-            val platformDir = dirs.sortedDescending()[0]
+            val platformDir = checkNotNull(dirs.maxByOrNull { dir -> Version.parse(dir.name) }) // E.g. android-31
             "${platformDir.absolutePath}/android.jar".toClasspath()
             "${platformDir.absolutePath}/data/res".toClasspath()
         }
-        return classpathOptimizer.optimize(classpath) to children
+        // AARs from the support cache can't be read by compilers. Extracted JARs may be evicted by a concurrent build
+        val jarClasspath = aarCache.replaceArchives(classpath).filterTo(LinkedHashSet()) { path -> File(path).exists() }
+        return Triple(classpathOptimizer.optimize(jarClasspath), children, runtimeOnlyPaths - classpath)
     }
 
     // TODO: other subdirectories?
@@ -176,7 +350,20 @@ class ProjectResolveTask(
         "$buildPath/classes/kotlin/debug",
     )
 
-    private fun getLibraryPaths(lib: Dependency.Library): Set<String> {
+    private fun getLocalJars(modulePath: String): List<String> {
+        val libsDir = File("$modulePath/libs")
+
+        return when (libsDir.exists()) {
+            true -> libsDir.absoluteFile.walk()
+                .filter { file -> file.isFile && file.name.endsWith(".jar") }
+                .map(File::getPath)
+                .sorted()
+                .toList()
+            else -> emptyList()
+        }
+    }
+
+    private fun getLibraryPaths(lib: Dependency.Library): MetadataArtifactDependencyResolver.ArtifactPaths {
         var version = gradleProperties[lib.version]
 
         if (lib.version.isBlank()) {
@@ -192,42 +379,93 @@ class ProjectResolveTask(
         val parts = lib.artifact.split(":")
         val groupId = parts.first()
         val artifactId = parts.last()
-        // TODO: optimize library classpath - no recursive resolution for non-transitive dependency
         return artifactResolver.resolvePaths(groupId, artifactId, version)
     }
 
     /**
-     * Generate classpath file for the specific module
-     * Line 1: module classpath separated with ":"
-     * Line 2: child modules, including transitive, separated with ":"
+     * Resolve library paths for all given modules at once on the common fork-join pool.
+     * Paths are kept by artifact resolver, so module classpath is generated without waiting for each library
+     */
+    private fun resolveLibraries(moduleNames: Set<String>) {
+        val libs = moduleNames.flatMap { moduleName ->
+            val modulePath = checkNotNull(modulePathsMap[moduleName]) { "No path for module: $moduleName" }
+            dependencyGraph.getAllDependencies(modulePath).filterIsInstance<Dependency.Library>()
+        }.toSet()
+        val time = timeMillis {
+            libs.parallelStream().forEach { lib -> getLibraryPaths(lib) }
+        }
+        Telemetry.log("Resolving ${libs.size} library dependencies takes ${formatMillis(time)}")
+    }
+
+    /**
+     * Resolve module children and classpath. Fingerprint is taken after resolution,
+     * so that the model entry describes the state it was resolved from
      */
-    private fun generateClasspathFile(moduleName: String) {
-        var length = 0
+    private fun resolveModule(moduleName: String): ProjectModel.Module {
+        lateinit var module: ProjectModel.Module
+        var runtimeOnlyCount = 0
         val time = timeMillis {
             val modulePath = checkNotNull(modulePathsMap[moduleName]) { "No path for module: $moduleName" }
-            val moduleDependencies = mutableMapOf<String, Set<Dependency>>()
-            val classpathFilePath = "${input.greencatRoot}/$CLASSPATH_DIR/$moduleName".noTilda()
-
-            moduleDeclarations.forEach { module ->
-                moduleDependencies += module.path to resolver.parseModuleBuildGradleFile(
-                    modulePath = module.path,
-                    properties = gradleProperties,
-                )
-            }
-            val deps = resolver.getAllModuleDependencies(
-                modulePath = modulePath,
-                modules = moduleDependencies,
-                moduleNameToPath = modulePathsMap,
+            val deps = dependencyGraph.getAllDependencies(modulePath)
+            val (classpath, children, runtimeOnlyPaths) = getModuleClasspath(moduleName, deps)
+            val unversionedLibraries = deps.filterIsInstance<Dependency.Library>()
+                .filter { lib -> lib.version.isBlank() }
+                .map(Dependency.Library::artifact)
+                .distinct()
+                .sorted()
+            runtimeOnlyCount = runtimeOnlyPaths.size
+            module = ProjectModel.Module(
+                name = moduleName,
+                fingerprint = getModuleFingerprint(children, classpath.toList(), unversionedLibraries),
+                children = children,
+                classpath = classpath.toList(),
+                unversionedLibraries = unversionedLibraries,
             )
-            val (classpath, children) = getModuleClasspath(moduleName, deps)
-            val content = StringBuilder().apply {
-                append("${classpath.joinToString(separator = ":")}\n") // Line 1: module classpath
-                append(children.joinToString(separator = ":"))         // Line 2: child modules
+        }
+        // Length with runtime-only libraries is what the classpath would be without dependency scopes
+        val length = module.classpath.size
+        Telemetry.log("Generating classpath for '$moduleName' takes ${formatMillis(time)} (length = ${length + runtimeOnlyCount} -> $length)")
+        return module
+    }
+
+    /**
+     * Parse build.gradle files of all modules in parallel. Properties from project.ext are merged
+     * into Gradle properties in module declaration order, so the result doesn't depend on parsing order
+     */
+    private fun parseBuildScripts(): Map<String, Set<Dependency>> {
+        val moduleDependencies = mutableMapOf<String, Set<Dependency>>()
+        val time = timeMillis {
+            val tasks = moduleDeclarations.map { declaration ->
+                executor.submit(Callable {
+                    val properties = mutableMapOf<String, String>()
+                    val deps = resolver.parseModuleBuildGradleFile(
+                        modulePath = declaration.path,
+                        properties = properties,
+                    )
+                    Triple(declaration.path, deps, properties)
+                })
+            }
+            tasks.forEach { task ->
+                val (modulePath, deps, properties) = task.get()
+                moduleDependencies += modulePath to deps
+                gradleProperties += properties
+
+                if (properties.isNotEmpty()) {
+                    propertyScripts += "$modulePath/${ProjectResolver.BUILD_GRADLE_FILE_NAME}"
+                }
             }
-            length = classpath.size
-            File(classpathFilePath).writeText(content.toString())
         }
-        Telemetry.log("Generating classpath for '$moduleName' takes ${formatMillis(time)} (length = $length)")
+        Telemetry.log("Parsing ${moduleDeclarations.size} build script(s) takes ${formatMillis(time)}")
+        return moduleDependencies
+    }
+
+    // Classpath text files of the previous versions, replaced with the project model
+    private fun deleteLegacyClasspathFiles() {
+        val cpDir = File("${input.greencatRoot}/$LEGACY_CLASSPATH_DIR".noTilda())
+
+        if (cpDir.exists()) {
+            cpDir.deleteRecursively()
+        }
     }
 
     private fun getSourceFileModuleName(sourceFile: String): String {
@@ -241,4 +479,10 @@ class ProjectResolveTask(
         val mappedName = input.mappedModules[sourceName]
         return mappedName ?: sourceName
     }
-}
\ No newline at end of file
+
+    private companion object {
+        const val LEGACY_CLASSPATH_DIR = "cp"
+        const val NO_FINGERPRINT = "-"
+        const val AAR_CACHE_SIZE_LIMIT = 2L * 1024 * 1024 * 1024
+    }
+}
@@ -0,0 +1,35 @@
+package ru.fomenkov.plugin.task.resolve
+
+/**
+ * Keeps the last resolved project in memory between builds of the resident server.
+ * Output is reused while the set of source files and module fingerprints stay the same
+ */
+class ProjectResolverCache {
+
+    private var key: Key? = null
+    private var output: ProjectResolverOutput? = null
+
+    @Synchronized
+    fun get(key: Key) = when (key == this.key) {
+        true -> output
+        else -> null
+    }
+
+    @Synchronized
+    fun put(key: Key, output: ProjectResolverOutput) {
+        this.key = key
+        this.output = output
+    }
+
+    @Synchronized
+    fun clear() {
+        key = null
+        output = null
+    }
+
+    data class Key(
+        val input: ProjectResolverInput,
+        val sourceFiles: Set<String>,
+        val moduleFingerprints: Map<String, String>, // Module name -> project model fingerprint
+    )
+}
@@ -2,6 +2,8 @@ package ru.fomenkov.plugin.task.resolve
 
 data class ProjectResolverOutput(
     val sourceFilesMap: Map<String, Set<String>>, // Module name -> source files
+    val dependentFilesMap: Map<String, Set<String>>, // Module name -> project files referencing changed source files
     val moduleClasspathMap: Map<String, String>, // Module name -> module classpath
-    val moduleCompilationOrderMap: Map<String, Int>, // Module name -> compilation order
+    val moduleDependenciesMap: Map<String, Set<String>>, // Module name -> compiled modules it depends on
+    val resolvedModules: Set<String>, // Modules with classpath resolved during this build
 )
\ No newline at end of file
@@ -0,0 +1,50 @@
+package ru.fomenkov.plugin.util
+
+import java.io.File
+import java.security.MessageDigest
+
+/**
+ * Incremental SHA-1 digest for content-addressed cache keys
+ */
+class ContentHash {
+
+    private val digest = MessageDigest.getInstance("SHA-1")
+
+    fun update(value: String) = apply {
+        digest.update(value.toByteArray())
+        digest.update(0)
+    }
+
+    fun update(value: Long) = update(value.toString())
+
+    fun update(bytes: ByteArray) = apply {
+        digest.update(bytes)
+    }
+
+    fun update(file: File) = apply {
+        file.inputStream().use { input ->
+            val buffer = ByteArray(BUFFER_SIZE)
+
+            while (true) {
+                val count = input.read(buffer)
+
+                if (count == -1) {
+                    break
+                }
+                digest.update(buffer, 0, count)
+            }
+        }
+        digest.update(0)
+    }
+
+    fun digest(): String = digest.digest().joinToString(separator = "") { byte -> "%02x".format(byte) }
+
+    companion object {
+
+        private const val BUFFER_SIZE = 64 * 1024
+
+        fun of(bytes: ByteArray) = ContentHash().update(bytes).digest()
+
+        fun of(file: File) = ContentHash().update(file).digest()
+    }
+}
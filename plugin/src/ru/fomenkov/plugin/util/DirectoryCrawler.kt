@@ -0,0 +1,89 @@
+package ru.fomenkov.plugin.util
+
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.LinkOption
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveTask
+
+/**
+ * Parallel directory crawler: each directory is listed by a separate fork-join task with basic attributes
+ * of its entries read along the way. Symbolic links are not followed
+ *
+ * @param maxDepth max depth of entries to visit, root entries have depth 1
+ * @param enter whether to crawl the directory, so unneeded subtrees are pruned without listing them
+ * @param visit maps the visited entry (file or directory) to the result, null to skip it
+ */
+class DirectoryCrawler<T : Any>(
+    private val maxDepth: Int = Int.MAX_VALUE,
+    private val enter: (Entry) -> Boolean = { true },
+    private val visit: (Entry) -> T?,
+) {
+
+    fun crawl(root: String): List<T> = crawl(listOf(root))
+
+    /**
+     * @return results for all roots, roots which are not directories are skipped
+     */
+    fun crawl(roots: Collection<String>): List<T> {
+        val tasks = roots
+            .map { root -> Paths.get(root) }
+            .filter { root -> Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS) }
+            .map { root -> CrawlTask(root, root, depth = 1) }
+
+        return when (tasks.isEmpty()) {
+            true -> emptyList()
+            else -> ForkJoinPool.commonPool().invoke(object : RecursiveTask<List<T>>() {
+                override fun compute() = invokeAll(tasks).flatMap { task -> task.join() }
+            })
+        }
+    }
+
+    /**
+     * @param root crawled root directory
+     * @param path entry path
+     * @param depth 1 for entries of the root directory
+     */
+    class Entry(
+        val root: Path,
+        val path: Path,
+        val attrs: BasicFileAttributes,
+        val depth: Int,
+    ) {
+        val name: String
+            get() = path.fileName.toString()
+    }
+
+    private inner class CrawlTask(
+        private val root: Path,
+        private val dir: Path,
+        private val depth: Int,
+    ) : RecursiveTask<List<T>>() {
+
+        override fun compute(): List<T> {
+            val results = mutableListOf<T>()
+            val subtasks = mutableListOf<CrawlTask>()
+
+            try {
+                Files.newDirectoryStream(dir).use { stream ->
+                    stream.forEach { path ->
+                        val attrs = Files.readAttributes(path, BasicFileAttributes::class.java, LinkOption.NOFOLLOW_LINKS)
+                        val entry = Entry(root, path, attrs, depth)
+                        visit(entry)?.let(results::add)
+
+                        if (attrs.isDirectory && depth < maxDepth && enter(entry)) {
+                            subtasks.add(CrawlTask(root, path, depth + 1).apply { fork() })
+                        }
+                    }
+                }
+            } catch (error: IOException) {
+                Telemetry.verboseErr("Failed to list directory $dir: ${error.message}")
+            }
+            subtasks.forEach { task -> results += task.join() }
+            return results
+        }
+    }
+}
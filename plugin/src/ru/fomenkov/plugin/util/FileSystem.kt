@@ -0,0 +1,77 @@
+package ru.fomenkov.plugin.util
+
+import java.io.IOException
+import java.nio.file.FileVisitResult
+import java.nio.file.Files
+import java.nio.file.LinkOption
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.SimpleFileVisitor
+import java.nio.file.attribute.BasicFileAttributes
+
+// File operations without spawning shell processes
+
+val JAVA_HOME: String? by lazy { System.getenv("JAVA_HOME")?.takeIf(String::isNotBlank) }
+
+/**
+ * Walk directory tree in parallel. Symbolic links are not followed
+ *
+ * @return paths of all regular files under the root directory, which match the filter
+ */
+fun findFiles(root: String, filter: (Path) -> Boolean = { true }): List<String> = DirectoryCrawler { entry ->
+    entry.path.toString().takeIf { entry.attrs.isRegularFile && filter(entry.path) }
+}.crawl(root)
+
+/**
+ * @return paths of all files with extension under the root directory, e.g. 'class' or 'kt'
+ */
+fun findFilesWithExtension(root: String, extension: String) = findFiles(root) { path ->
+    path.fileName.toString().endsWith(".$extension")
+}
+
+/**
+ * Delete file or directory with its content. Symbolic links are deleted, not their targets
+ */
+fun deleteRecursively(path: String) {
+    val rootPath = Paths.get(path)
+
+    if (!Files.exists(rootPath, LinkOption.NOFOLLOW_LINKS)) {
+        return
+    }
+    Files.walkFileTree(rootPath, object : SimpleFileVisitor<Path>() {
+
+        override fun visitFile(file: Path, attrs: BasicFileAttributes): FileVisitResult {
+            Files.delete(file)
+            return FileVisitResult.CONTINUE
+        }
+
+        override fun postVisitDirectory(dir: Path, error: IOException?): FileVisitResult {
+            if (error != null) {
+                throw error
+            }
+            Files.delete(dir)
+            return FileVisitResult.CONTINUE
+        }
+    })
+}
+
+/**
+ * Create symbolic link to the target in the directory, named after the target. Existing file is kept
+ *
+ * @return true if the link exists after the call
+ */
+fun createSymlink(target: String, dir: String): Boolean {
+    val targetPath = Paths.get(target)
+    val link = Paths.get(dir, targetPath.fileName.toString())
+
+    if (Files.exists(link, LinkOption.NOFOLLOW_LINKS)) {
+        return true
+    }
+    return try {
+        Files.createSymbolicLink(link, targetPath)
+        true
+    } catch (error: IOException) {
+        Telemetry.verboseErr("Failed to create symbolic link $link -> $target: ${error.message}")
+        false
+    }
+}
@@ -1,9 +1,20 @@
 package ru.fomenkov.plugin.util
 
+import java.util.concurrent.atomic.AtomicInteger
+
 private const val SHELL = "/bin/sh" // Keep sh for mainframer
+private val subprocessCount = AtomicInteger()
+
+/**
+ * Number of shell processes spawned since the last reset, e.g. for the current build
+ */
+fun getSubprocessCount() = subprocessCount.get()
+
+fun resetSubprocessCount() = subprocessCount.set(0)
 
 fun exec(cmd: String, print: Boolean = false): List<String> {
     try {
+        subprocessCount.incrementAndGet()
         val output = mutableListOf<String>()
         Runtime.getRuntime().exec(arrayOf(SHELL, "-c", cmd)).apply {
             val inputReader = inputStream.bufferedReader()
@@ -5,15 +5,33 @@ object Telemetry {
 
     var isVerbose = false
 
+    // Can be replaced to redirect output, e.g. to the build server client
+    @Volatile
+    var printer: Printer = Printer.Console
+
     fun verboseLog(message: String) {
-        if (isVerbose) println(message)
+        if (isVerbose) printer.out(message)
     }
 
     fun verboseErr(message: String) {
-        if (isVerbose) System.err.println(message)
+        if (isVerbose) printer.err(message)
     }
 
-    fun log(message: String) = println(message)
+    fun log(message: String) = printer.out(message)
+
+    fun err(message: String) = printer.err(message)
+
+    interface Printer {
+
+        fun out(message: String)
 
-    fun err(message: String) = System.err.println(message)
-}
\ No newline at end of file
+        fun err(message: String)
+
+        object Console : Printer {
+
+            override fun out(message: String) = println(message)
+
+            override fun err(message: String) = System.err.println(message)
+        }
+    }
+}
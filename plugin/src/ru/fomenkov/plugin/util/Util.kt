@@ -4,7 +4,7 @@ import java.io.File
 
 val CURRENT_DIR: String = File("").absolutePath
 val DISTINCT_ID = CURRENT_DIR.noTilda().split("/")[2]
-val HOME_DIR: String = exec("echo ~").firstOrNull().let { path ->
+val HOME_DIR: String = System.getProperty("user.home").let { path ->
     when {
         path.isNullOrBlank() -> error("Failed to get home directory")
         else -> path
@@ -21,7 +21,7 @@ fun formatMillis(value: Long) = when {
     else -> "${"%.1f".format(value / 1000f)} sec".replace(",", ".")
 }
 
-fun String.isVersionGreaterOrEquals(version: String) = this >= version
+fun String.isVersionGreaterOrEquals(version: String) = Version.parse(this) >= Version.parse(version)
 
 fun timeMillis(action: () -> Unit): Long {
     val start = System.currentTimeMillis()
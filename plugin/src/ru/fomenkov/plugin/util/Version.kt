@@ -0,0 +1,108 @@
+package ru.fomenkov.plugin.util
+
+/**
+ * Artifact version with Gradle ordering. Version is split into parts by '.', '-', '_' and '+'
+ * and between digits and letters. Parts are compared one by one:
+ *
+ * - numeric parts are compared as numbers and are greater than non-numeric ones
+ * - qualifiers are ordered as dev < (other qualifiers) < rc < snapshot < final < ga < release < sp,
+ *   other qualifiers are compared alphabetically
+ * - if one version has an extra part, it's greater if the part is numeric, e.g. 1.0.1 > 1.0 > 1.0-beta
+ */
+class Version private constructor(
+    val text: String,
+    private val parts: List<String>,
+) : Comparable<Version> {
+
+    override fun compareTo(other: Version): Int {
+        for (index in 0 until maxOf(parts.size, other.parts.size)) {
+            val part = parts.getOrNull(index)
+            val otherPart = other.parts.getOrNull(index)
+
+            val result = when {
+                part == null -> if (checkNotNull(otherPart).isNumeric()) -1 else 1
+                otherPart == null -> if (part.isNumeric()) 1 else -1
+                else -> comparePart(part, otherPart)
+            }
+            if (result != 0) {
+                return result
+            }
+        }
+        return 0
+    }
+
+    override fun equals(other: Any?) = other is Version && compareTo(other) == 0
+
+    override fun hashCode() = parts.map { part -> if (part.isNumeric()) part.trimStart('0') else part.lowercase() }.hashCode()
+
+    override fun toString() = text
+
+    private fun comparePart(part: String, otherPart: String): Int {
+        val isNumeric = part.isNumeric()
+        val isOtherNumeric = otherPart.isNumeric()
+
+        return when {
+            isNumeric && isOtherNumeric -> compareNumbers(part, otherPart)
+            isNumeric -> 1
+            isOtherNumeric -> -1
+            else -> {
+                val rank = getQualifierRank(part)
+                val otherRank = getQualifierRank(otherPart)
+
+                when {
+                    rank != otherRank -> rank.compareTo(otherRank)
+                    else -> part.compareTo(otherPart)
+                }
+            }
+        }
+    }
+
+    // Numbers of any length, e.g. timestamps
+    private fun compareNumbers(number: String, otherNumber: String): Int {
+        val value = number.trimStart('0')
+        val otherValue = otherNumber.trimStart('0')
+
+        return when (value.length == otherValue.length) {
+            true -> value.compareTo(otherValue)
+            else -> value.length.compareTo(otherValue.length)
+        }
+    }
+
+    private fun getQualifierRank(qualifier: String) = when (val index = QUALIFIERS.indexOf(qualifier.lowercase())) {
+        0 -> -1 // dev
+        -1 -> 0 // Other qualifiers
+        else -> index
+    }
+
+    private fun String.isNumeric() = isNotEmpty() && all(Char::isDigit)
+
+    companion object {
+
+        private val QUALIFIERS = listOf("dev", "rc", "snapshot", "final", "ga", "release", "sp")
+        private val SEPARATORS = setOf('.', '-', '_', '+')
+
+        fun parse(text: String): Version {
+            val parts = mutableListOf<String>()
+            val part = StringBuilder()
+
+            fun addPart() {
+                if (part.isNotEmpty()) {
+                    parts += part.toString()
+                    part.clear()
+                }
+            }
+            text.trim().forEach { char ->
+                when {
+                    char in SEPARATORS -> addPart()
+                    part.isNotEmpty() && part.last().isDigit() != char.isDigit() -> {
+                        addPart()
+                        part.append(char)
+                    }
+                    else -> part.append(char)
+                }
+            }
+            addPart()
+            return Version(text, parts)
+        }
+    }
+}
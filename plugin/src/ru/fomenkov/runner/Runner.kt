@@ -231,7 +231,6 @@ private fun syncWithMainframer(
     ssh {
         cmd("mkdir -p ${params.greencatRoot}")
         cmd("cd ${params.greencatRoot}")
-        cmd("mkdir $CLASSPATH_DIR")
         cmd("rm -rf $SOURCE_FILES_DIR; mkdir $SOURCE_FILES_DIR")
         cmd("rm -rf $CLASS_FILES_DIR; mkdir $CLASS_FILES_DIR")
         cmd("rm -rf $DEX_FILES_DIR; mkdir $DEX_FILES_DIR")
@@ -277,12 +276,18 @@ const val PROJECT_GITHUB = "https://github.com/andreyfomenkov/green-cat"
 const val PLUGIN_ARTIFACT_VERSION_INFO_URL = "https://raw.githubusercontent.com/andreyfomenkov/green-cat/master/artifacts/version-info"
 const val COMPILER_ARTIFACT_VERSION_INFO_URL = "https://raw.githubusercontent.com/andreyfomenkov/kotlin-relaxed/relaxed-restrictions/artifact/date"
 const val GREENCAT_JAR = "greencat.jar"
-const val CLASSPATH_DIR = "cp"
 const val SOURCE_FILES_DIR = "src"
 const val CLASS_FILES_DIR = "class"
 const val DEX_FILES_DIR = "dex"
 const val KOTLINC_DIR = "kotlinc"
 const val KOTLINC_VERSION_FILE = "date"
+const val CACHE_DIR = "cache"
+const val AAR_CACHE_DIR = "aar"
+const val ARGS_DIR = "args"
+const val PROJECT_MODEL_FILE = "model"
+const val TRANSFORMS_INDEX_FILE = "transforms-index"
+const val DESCRIPTORS_CACHE_FILE = "descriptors"
+const val REFERENCE_INDEX_FILE = "references"
 const val ANDROID_DEVICE_DEX_DIR = "/data/local/tmp"
 const val OUTPUT_DEX_FILE = "patch.dex"
 const val PLUGIN_UPDATE_TIMESTAMP_FILE = "greencat_update"
@@ -0,0 +1,131 @@
+package ru.fomenkov.plugin.abi
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.nio.file.Files
+import javax.tools.ToolProvider
+import kotlin.test.assertEquals
+import kotlin.test.assertNotEquals
+import kotlin.test.assertTrue
+
+class ClassAbiFingerprintTest {
+
+    private val tmpDir = Files.createTempDirectory("greencat-abi-fingerprint").toFile()
+
+    @AfterEach
+    fun tearDown() {
+        tmpDir.deleteRecursively()
+    }
+
+    @Test
+    fun `Test body-only changes keep fingerprint`() {
+        val original = fingerprint(
+            """
+            public class Foo {
+                public static final int LIMIT = 10;
+                private int counter;
+                public int sum(int a, int b) { return a + b; }
+                protected void run() { System.out.println("run"); }
+            }
+            """,
+        )
+        assertEquals(
+            original,
+            fingerprint(
+                """
+                public class Foo {
+                    public static final int LIMIT = 10;
+                    private String cache = "new private field";
+                    protected void run() { System.out.println("changed " + helper()); }
+                    public int sum(int a, int b) { return b + a + counter; }
+                    private int counter;
+                    private int helper() { return 42; }
+                }
+                """,
+            ),
+        )
+    }
+
+    @Test
+    fun `Test ABI changes change fingerprint`() {
+        val original = fingerprint("public class Foo { public static final int LIMIT = 10; public int sum(int a, int b) { return a + b; } }")
+
+        listOf(
+            "public class Foo { public static final int LIMIT = 11; public int sum(int a, int b) { return a + b; } }",
+            "public class Foo { public static final int LIMIT = 10; public long sum(int a, int b) { return a + b; } }",
+            "public class Foo { public static final int LIMIT = 10; protected int sum(int a, int b) { return a + b; } }",
+            "public class Foo { public static final int LIMIT = 10; public int sum(int a, int b) { return a + b; } void run() {} }",
+            "public final class Foo { public static final int LIMIT = 10; public int sum(int a, int b) { return a + b; } }",
+            "public class Foo implements Runnable { public static final int LIMIT = 10; public int sum(int a, int b) { return a + b; } public void run() {} }",
+        ).forEach { source ->
+            assertNotEquals(original, fingerprint(source), source)
+        }
+    }
+
+    @Test
+    fun `Test Kotlin inline function bodies and metadata`() {
+        // Kotlin compiler marks inline functions with a fake local variable named after the function
+        fun kotlinClass(metadata: String, twice: String, thrice: String) = fingerprint(
+            """
+            @kotlin.Metadata(d2 = {"$metadata"})
+            public class Foo {
+                public static int twice(int x) { int ${'$'}i${'$'}f${'$'}twice = 0; return $twice; }
+                public static int thrice(int x) { return $thrice; }
+            }
+            """,
+        )
+        val original = kotlinClass(metadata = "twice", twice = "x * 2", thrice = "x * 3")
+
+        assertEquals(original, kotlinClass(metadata = "twice", twice = "x * 2", thrice = "x + x + x"))
+        assertNotEquals(original, kotlinClass(metadata = "twice", twice = "x + x", thrice = "x * 3"))
+        assertNotEquals(original, kotlinClass(metadata = "thrice", twice = "x * 2", thrice = "x * 3"))
+    }
+
+    @Test
+    fun `Test anonymous classes of Kotlin inline functions`() {
+        fun kotlinClass(message: String) = compile(
+            """
+            @kotlin.Metadata(d2 = {"task"})
+            public class Foo {
+                public static Runnable task() {
+                    int ${'$'}i${'$'}f${'$'}task = 0;
+                    return new Runnable() { public void run() { System.out.println("$message"); } };
+                }
+            }
+            """,
+        )
+        val original = kotlinClass(message = "run")
+        val changed = kotlinClass(message = "changed")
+
+        // Inline body creates the anonymous class -> class is copied into callers along with the body
+        assertTrue("Foo$1" in ClassAbiFingerprint.read(original.getValue("Foo.class")).referencedClasses)
+        assertEquals(ClassAbiFingerprint.of(original.getValue("Foo.class")), ClassAbiFingerprint.of(changed.getValue("Foo.class")))
+        assertEquals(ClassAbiFingerprint.of(original.getValue("Foo$1.class")), ClassAbiFingerprint.of(changed.getValue("Foo$1.class")))
+        assertNotEquals(
+            ClassAbiFingerprint.of(original.getValue("Foo$1.class"), isInlined = true),
+            ClassAbiFingerprint.of(changed.getValue("Foo$1.class"), isInlined = true),
+        )
+    }
+
+    private fun fingerprint(source: String) = ClassAbiFingerprint.of(compile(source).getValue("Foo.class"))
+
+    // Class file name -> content
+    private fun compile(source: String): Map<String, ByteArray> {
+        val srcDir = File(tmpDir, "src").apply { deleteRecursively() }
+        val classDir = File(tmpDir, "classes").apply { deleteRecursively() }
+        val srcFiles = listOf(
+            "Foo.java" to source,
+            "kotlin/Metadata.java" to "package kotlin; public @interface Metadata { String[] d2() default {}; }",
+        ).map { (path, content) ->
+            File(srcDir, path).apply {
+                parentFile.mkdirs()
+                writeText(content.trimIndent())
+            }
+        }
+        val args = listOf("-g", "-d", classDir.path) + srcFiles.map(File::getPath)
+        val exitCode = ToolProvider.getSystemJavaCompiler().run(null, null, null, *args.toTypedArray())
+        assertEquals(0, exitCode, "Failed to compile: $source")
+        return classDir.listFiles { file -> file.extension == "class" }.orEmpty().associate { file -> file.name to file.readBytes() }
+    }
+}
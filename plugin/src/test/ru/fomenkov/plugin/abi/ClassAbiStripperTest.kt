@@ -0,0 +1,129 @@
+package ru.fomenkov.plugin.abi
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import ru.fomenkov.plugin.cache.FileCache
+import java.io.File
+import java.io.PrintWriter
+import java.io.StringWriter
+import java.nio.file.Files
+import java.util.jar.JarFile
+import javax.tools.ToolProvider
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class ClassAbiStripperTest {
+
+    private val tmpDir = Files.createTempDirectory("greencat-abi").toFile()
+
+    @AfterEach
+    fun tearDown() {
+        tmpDir.deleteRecursively()
+    }
+
+    @Test
+    fun `Test strip method bodies and private members`() {
+        val classDir = compile(
+            "lib",
+            "lib/Foo.java" to """
+                package lib;
+                public class Foo {
+                    public static final int CONSTANT = 42;
+                    private int secretField;
+                    protected String name = "foo";
+                    public int sum(int a, int b) { return secret(a) + b; }
+                    private int secret(int value) { return value * 2; }
+                    public static class Inner { public void run() { System.out.println(CONSTANT); } }
+                }
+            """,
+        )
+        val classFile = File(classDir, "lib/Foo.class")
+        val original = classFile.readBytes()
+        val stripped = ClassAbiStripper.strip(original)
+        classFile.writeBytes(stripped)
+
+        assertTrue(stripped.size < original.size)
+        assertEquals(
+            listOf(
+                "public class lib.Foo {",
+                "public static final int CONSTANT;",
+                "protected java.lang.String name;",
+                "public lib.Foo();",
+                "public int sum(int, int);",
+                "}",
+            ),
+            javap(classFile).filter { line -> line.isNotEmpty() && !line.startsWith("Compiled from") },
+        )
+        assertFalse(javap(classFile, "-c").any { line -> line.trim() == "Code:" })
+
+        // Public API is enough to compile against
+        File(classDir, "lib/Foo\$Inner.class").apply { writeBytes(ClassAbiStripper.strip(readBytes())) }
+        compile(
+            "app",
+            "app/App.java" to """
+                package app;
+                public class App extends lib.Foo {
+                    int value = new lib.Foo().sum(1, 2) + CONSTANT + name.length();
+                    void run() { new lib.Foo.Inner().run(); }
+                }
+            """,
+            classpath = classDir,
+        )
+    }
+
+    @Test
+    fun `Test Kotlin classes are kept intact`() {
+        val classDir = compile(
+            "kotlin",
+            "kotlin/Metadata.java" to "package kotlin; public @interface Metadata {}",
+            "lib/Bar.java" to "package lib; @kotlin.Metadata public class Bar { private void inlined() {} }",
+        )
+        val original = File(classDir, "lib/Bar.class").readBytes()
+        assertTrue(original.contentEquals(ClassAbiStripper.strip(original)))
+    }
+
+    @Test
+    fun `Test create header JAR for class directory`() {
+        val classDir = compile("lib", "lib/Foo.java" to "package lib; public class Foo { public void run() {} }")
+        File(classDir, "META-INF/services").mkdirs()
+        File(classDir, "META-INF/services/javax.annotation.processing.Processor").writeText("lib.Processor")
+        File(classDir, "META-INF/lib.kotlin_module").writeText("module")
+
+        val headerJarCache = HeaderJarCache(FileCache(File(tmpDir, "cache"), Long.MAX_VALUE))
+        val headerJar = assertNotNull(headerJarCache.get(classDir, stamp = "1"))
+
+        JarFile(headerJar).use { jar ->
+            assertEquals(
+                listOf("META-INF/lib.kotlin_module", "lib/Foo.class"),
+                jar.entries().asSequence().map { entry -> entry.name }.toList(),
+            )
+        }
+        assertEquals(headerJar, HeaderJarCache(FileCache(File(tmpDir, "cache"), Long.MAX_VALUE)).get(classDir, stamp = "1"))
+        assertNull(headerJarCache.get(File(tmpDir, "lib-src"), stamp = "1")) // No class files
+    }
+
+    private fun compile(name: String, vararg sources: Pair<String, String>, classpath: File? = null): File {
+        val srcDir = File(tmpDir, "$name-src")
+        val classDir = File(tmpDir, "$name-classes").apply { mkdirs() }
+        val srcFiles = sources.map { (path, content) ->
+            File(srcDir, path).apply {
+                parentFile.mkdirs()
+                writeText(content.trimIndent())
+            }
+        }
+        val args = listOfNotNull("-d", classDir.path, classpath?.let { "-cp" }, classpath?.path) + srcFiles.map(File::getPath)
+        val exitCode = ToolProvider.getSystemJavaCompiler().run(null, null, null, *args.toTypedArray())
+        assertEquals(0, exitCode, "Failed to compile $name")
+        return classDir
+    }
+
+    private fun javap(classFile: File, vararg options: String): List<String> {
+        val output = StringWriter()
+        val javap = java.util.spi.ToolProvider.findFirst("javap").get()
+        javap.run(PrintWriter(output), PrintWriter(output), "-p", *options, classFile.path)
+        return output.toString().lines().map(String::trim)
+    }
+}
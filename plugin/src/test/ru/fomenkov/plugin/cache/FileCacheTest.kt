@@ -0,0 +1,79 @@
+package ru.fomenkov.plugin.cache
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.nio.file.Files
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class FileCacheTest {
+
+    private val tmpDir = Files.createTempDirectory("greencat-cache").toFile()
+
+    @AfterEach
+    fun tearDown() {
+        tmpDir.deleteRecursively()
+    }
+
+    @Test
+    fun `Test put and get cache sections`() {
+        val cache = FileCache(File(tmpDir, "cache"), sizeLimit = Long.MAX_VALUE)
+        val sourceDir = createDir("classes", "a/A.class" to "A", "a/B.class" to "B")
+
+        assertNull(cache.get(key = "key", section = "classes"))
+        cache.put(key = "key", section = "classes", source = sourceDir)
+
+        val sectionDir = assertNotNull(cache.get(key = "key", section = "classes"))
+        assertEquals("A", File(sectionDir, "a/A.class").readText())
+        assertEquals("B", File(sectionDir, "a/B.class").readText())
+        assertNull(cache.get(key = "key", section = "dex"))
+        assertNull(cache.get(key = "other", section = "classes"))
+
+        // Sections are immutable
+        cache.put(key = "key", section = "classes", source = createDir("classes2", "a/A.class" to "X"))
+        assertEquals("A", File(sectionDir, "a/A.class").readText())
+    }
+
+    @Test
+    fun `Test single file sections`() {
+        val cache = FileCache(File(tmpDir, "cache"), sizeLimit = Long.MAX_VALUE)
+        val sourceFile = File(tmpDir, "A.dex").apply { writeText("dex") }
+
+        cache.put(key = "key", section = "dex-24", source = sourceFile)
+
+        assertEquals("dex", assertNotNull(cache.get(key = "key", section = "dex-24")).readText())
+        assertNull(cache.get(key = "key", section = "dex"))
+    }
+
+    @Test
+    fun `Test evict least recently used entries`() {
+        val cache = FileCache(File(tmpDir, "cache"), sizeLimit = 10)
+        val sourceDir = createDir("classes", "A.class" to "12345")
+
+        cache.put(key = "key1", section = "classes", source = sourceDir)
+        cache.put(key = "key2", section = "classes", source = sourceDir)
+        cache.put(key = "key3", section = "classes", source = sourceDir)
+
+        File(tmpDir, "cache/key1").setLastModified(1000)
+        File(tmpDir, "cache/key2").setLastModified(3000)
+        File(tmpDir, "cache/key3").setLastModified(2000)
+        cache.trim()
+
+        assertTrue(File(tmpDir, "cache/key2").exists())
+        assertTrue(File(tmpDir, "cache/key3").exists())
+        assertFalse(File(tmpDir, "cache/key1").exists())
+    }
+
+    private fun createDir(name: String, vararg files: Pair<String, String>) = File(tmpDir, name).apply {
+        files.forEach { (path, content) ->
+            File(this, path).apply {
+                parentFile.mkdirs()
+                writeText(content)
+            }
+        }
+    }
+}
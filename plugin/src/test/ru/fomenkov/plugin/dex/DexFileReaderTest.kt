@@ -0,0 +1,94 @@
+package ru.fomenkov.plugin.dex
+
+import org.junit.jupiter.api.Test
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.zip.Adler32
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class DexFileReaderTest {
+
+    @Test
+    fun `Test read class list and counts`() {
+        val dex = createDexFile()
+        val info = DexFileReader.read(ByteBuffer.wrap(dex))
+
+        assertEquals("035", info.version)
+        assertEquals(dex.size, info.fileSize)
+        assertEquals(5, info.stringIdsCount)
+        assertEquals(3, info.typeIdsCount)
+        assertEquals(7, info.fieldIdsCount)
+        assertEquals(11, info.methodIdsCount)
+        assertTrue(info.isChecksumValid)
+        assertEquals(
+            listOf("Lcom/example/Foo;", "Lcom/example/Bär\$1;"),
+            info.classes.map(DexClass::descriptor),
+        )
+        val foo = info.classes[0]
+        assertEquals("com.example.Foo", foo.className)
+        assertEquals("Ljava/lang/Object;", foo.superclassDescriptor)
+        assertEquals("Foo.kt", foo.sourceFile)
+        assertEquals(3, foo.fieldsCount)
+        assertEquals(300, foo.methodsCount)
+
+        val bar = info.classes[1]
+        assertNull(bar.sourceFile)
+        assertEquals(0, bar.fieldsCount)
+        assertEquals(0, bar.methodsCount)
+    }
+
+    @Test
+    fun `Test detect corrupted file`() {
+        val dex = createDexFile()
+        dex[dex.size - 1] = 42
+        assertFalse(DexFileReader.read(ByteBuffer.wrap(dex)).isChecksumValid)
+    }
+
+    private fun createDexFile(): ByteArray {
+        val strings = listOf("Foo.kt", "Ljava/lang/Object;", "Lcom/example/Foo;", "Lcom/example/Bär\$1;", "V")
+        val buffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN)
+        val stringIdsOffset = 0x70
+        val typeIdsOffset = stringIdsOffset + strings.size * 4
+        val classDefsOffset = typeIdsOffset + 3 * 4
+        var dataOffset = classDefsOffset + 2 * 32
+
+        buffer.put("dex\n035\u0000".toByteArray())
+        buffer.putInt(0x38, strings.size).putInt(0x3c, stringIdsOffset)
+        buffer.putInt(0x40, 3).putInt(0x44, typeIdsOffset)
+        buffer.putInt(0x50, 7).putInt(0x58, 11)
+        buffer.putInt(0x60, 2).putInt(0x64, classDefsOffset)
+
+        strings.forEachIndexed { index, string ->
+            buffer.putInt(stringIdsOffset + index * 4, dataOffset)
+            buffer.position(dataOffset)
+            buffer.put(string.length.toByte())
+            buffer.put(string.toByteArray()) // Same as MUTF-8 for these strings
+            buffer.put(0)
+            dataOffset = buffer.position()
+        }
+        listOf(1, 2, 3).forEachIndexed { index, stringIndex -> buffer.putInt(typeIdsOffset + index * 4, stringIndex) }
+
+        // Foo: 1 static field, 2 instance fields, 44 direct and 256 virtual methods (2-byte ULEB128)
+        buffer.position(dataOffset)
+        buffer.put(byteArrayOf(1, 2, 44, 0x80.toByte(), 2))
+        putClassDef(buffer, classDefsOffset, classIndex = 1, superclassIndex = 0, sourceFileIndex = 0, classDataOffset = dataOffset)
+        putClassDef(buffer, classDefsOffset + 32, classIndex = 2, superclassIndex = 0, sourceFileIndex = -1, classDataOffset = 0)
+
+        val size = dataOffset + 5
+        buffer.putInt(0x20, size)
+        val checksum = Adler32().apply { update(buffer.array(), 12, size - 12) }.value
+        buffer.putInt(0x08, checksum.toInt())
+        return buffer.array().copyOf(size)
+    }
+
+    private fun putClassDef(buffer: ByteBuffer, offset: Int, classIndex: Int, superclassIndex: Int, sourceFileIndex: Int, classDataOffset: Int) {
+        buffer.putInt(offset, classIndex)
+        buffer.putInt(offset + 4, 1)
+        buffer.putInt(offset + 8, superclassIndex)
+        buffer.putInt(offset + 16, sourceFileIndex)
+        buffer.putInt(offset + 24, classDataOffset)
+    }
+}
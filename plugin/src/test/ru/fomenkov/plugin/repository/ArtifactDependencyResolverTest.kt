@@ -5,6 +5,7 @@ import ru.fomenkov.plugin.repository.parser.JetifiedResourceParser
 import ru.fomenkov.plugin.repository.parser.MetadataDescriptionParser
 import ru.fomenkov.plugin.util.Telemetry
 import ru.fomenkov.plugin.util.exec
+import java.io.File
 
 // Playground
 class ArtifactDependencyResolverTest {
@@ -12,9 +13,11 @@ class ArtifactDependencyResolverTest {
     @Test
     fun test() {
         val jetifiedResourceParser = JetifiedResourceParser()
-        val jetifiedJarRepository = JetifiedJarRepository(jetifiedResourceParser)
+        val transformsIndexFile = File.createTempFile("transforms", "index")
+        val jetifiedJarRepository = JetifiedJarRepository(jetifiedResourceParser, transformsIndexFile)
         val descriptionParser = MetadataDescriptionParser()
         val resolver = MetadataArtifactDependencyResolver(jetifiedJarRepository, descriptionParser)
+        resolver.refresh()
 
         exec("find ~/.gradle/caches/modules-2/metadata-2.97 -name 'descriptor.bin'")
             .map { path ->
@@ -26,7 +29,7 @@ class ArtifactDependencyResolverTest {
             }
             .toSet()
             .forEach { artifact ->
-                val paths = resolver.resolvePaths(artifact.groupId, artifact.artifactId, artifact.version)
+                val paths = resolver.resolvePaths(artifact.groupId, artifact.artifactId, artifact.version).compile
 
                 Telemetry.log("\n$artifact (${paths.size}) paths")
                 paths.forEach { path -> Telemetry.log(" - $path") }
@@ -0,0 +1,77 @@
+package ru.fomenkov.plugin.repository
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import ru.fomenkov.plugin.cache.FileCache
+import java.io.File
+import java.nio.file.Files
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class ExplodedAarCacheTest {
+
+    private val tmpDir = Files.createTempDirectory("greencat-aar").toFile()
+    private val cacheDir = File(tmpDir, "cache")
+
+    @AfterEach
+    fun tearDown() {
+        tmpDir.deleteRecursively()
+    }
+
+    @Test
+    fun `Test replace AAR with extracted JARs`() {
+        val aar = createAar(
+            "files-2.1/androidx.core/core/1.6.0/0f7d3a4c5bbbd1b1eaa3b6e4a07d5e1ac1c0f3a2/core-1.6.0.aar",
+            "classes.jar", "libs/repackaged.jar", "R.txt", "res/values/values.xml", "AndroidManifest.xml",
+        )
+        val cache = ExplodedAarCache(FileCache(cacheDir, Long.MAX_VALUE))
+        val classpath = cache.replaceArchives(setOf("app/build/classes", aar.path, "lib.jar"))
+        val jars = classpath.filter { path -> path.startsWith(cacheDir.absolutePath) }
+
+        assertEquals(listOf("classes.jar", "repackaged.jar"), jars.map { path -> File(path).name })
+        assertEquals(listOf("app/build/classes", jars[0], jars[1], "lib.jar"), classpath.toList())
+        assertTrue(File(File(jars[0]).parentFile, "R.txt").exists())
+
+        // Same content hash -> extracted once and reused by another instance
+        aar.delete()
+        assertEquals(jars, ExplodedAarCache(FileCache(cacheDir, Long.MAX_VALUE)).getJars(aar))
+    }
+
+    @Test
+    fun `Test AAR without classes`() {
+        val aar = createAar("resources-only.aar", "R.txt", "res/values/values.xml")
+        assertEquals(emptyList(), ExplodedAarCache(FileCache(cacheDir, Long.MAX_VALUE)).getJars(aar))
+    }
+
+    @Test
+    fun `Test memoized AAR is touched on use and extracted again after eviction`() {
+        val aar = createAar("library.aar", "classes.jar")
+        val cache = ExplodedAarCache(FileCache(cacheDir, Long.MAX_VALUE))
+        val jars = cache.getJars(aar)
+        val entryDir = File(jars.single()).parentFile.parentFile
+
+        // Used again -> entry is the most recent one for LRU eviction
+        assertTrue(entryDir.setLastModified(0))
+        assertEquals(jars, cache.getJars(aar))
+        assertTrue(entryDir.lastModified() > 0)
+
+        // Evicted by another process -> extracted once again instead of returning a deleted JAR
+        assertTrue(entryDir.deleteRecursively())
+        assertEquals(jars, cache.getJars(aar))
+        assertTrue(File(jars.single()).exists())
+    }
+
+    private fun createAar(path: String, vararg entries: String) = File(tmpDir, path).apply {
+        parentFile.mkdirs()
+
+        ZipOutputStream(outputStream()).use { output ->
+            entries.forEach { name ->
+                output.putNextEntry(ZipEntry(name))
+                output.write(name.toByteArray())
+                output.closeEntry()
+            }
+        }
+    }
+}
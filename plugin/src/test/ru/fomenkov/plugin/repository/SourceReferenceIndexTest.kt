@@ -0,0 +1,156 @@
+package ru.fomenkov.plugin.repository
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import ru.fomenkov.plugin.repository.parser.ImportParser
+import ru.fomenkov.plugin.repository.parser.SourceFileReader
+import java.io.File
+import java.nio.file.Files
+import kotlin.test.assertEquals
+
+class SourceReferenceIndexTest {
+
+    private val tmpDir = Files.createTempDirectory("greencat-references").toFile()
+    private val indexFile = File(tmpDir, "references")
+    private val sourceRoots = listOf("module-1/src", "module-2/src").map { path -> File(tmpDir, path).path }
+
+    @AfterEach
+    fun tearDown() {
+        tmpDir.deleteRecursively()
+    }
+
+    @Test
+    fun `Test find dependent files`() {
+        val changed = createFile(
+            "module-1/src/main/java/a/b/Constants.java",
+            """
+            package a.b;
+
+            public final class Constants {
+                public static final int LIMIT = 10;
+            }
+            """.trimIndent(),
+        )
+        createFile("module-1/src/main/java/a/b/SamePackage.java", "package a.b;\n\nclass SamePackage { int limit = Constants.LIMIT; }")
+        createFile("module-1/src/main/java/a/b/Unrelated.java", "package a.b;\n\nclass Unrelated {}")
+        createFile("module-1/src/test/java/a/b/ConstantsTest.java", "package a.b;\n\nclass ConstantsTest { int limit = Constants.LIMIT; }")
+        createFile("module-2/src/main/java/c/Explicit.java", "package c;\n\nimport a.b.Constants;\n\nclass Explicit {}")
+        createFile("module-2/src/main/java/c/Static.java", "package c;\n\nimport static a.b.Constants.LIMIT;\n\nclass Static {}")
+        createFile("module-2/src/debug/kotlin/c/Wildcard.kt", "package c\n\nimport a.b.*\n\nval limit = Constants.LIMIT")
+        createFile("module-2/src/main/kotlin/c/WildcardUnused.kt", "package c\n\nimport a.b.*\n\nval limit = 0")
+
+        val index = SourceReferenceIndex(indexFile, SourceFileReader(ImportParser()))
+        index.refresh(sourceRoots)
+
+        assertEquals(
+            setOf(
+                "module-1/src/main/java/a/b/SamePackage.java",
+                "module-2/src/main/java/c/Explicit.java",
+                "module-2/src/main/java/c/Static.java",
+                "module-2/src/debug/kotlin/c/Wildcard.kt",
+            ),
+            (index.getDependents(changed.path) - changed.path).map(::relativePath).toSet(),
+        )
+    }
+
+    @Test
+    fun `Test find dependent files of Kotlin top-level declarations`() {
+        val changed = createFile(
+            "module-1/src/main/kotlin/a/Utils.kt",
+            """
+            package a
+
+            const val TIMEOUT = 1000
+
+            inline fun <reified T> String.parse(): T = TODO()
+
+            internal data class Point(val x: Int)
+            """.trimIndent(),
+        )
+        createFile("module-2/src/main/kotlin/b/Timeout.kt", "package b\n\nimport a.TIMEOUT\n")
+        createFile("module-2/src/main/kotlin/b/Parse.kt", "package b\n\nimport a.parse\n")
+        createFile("module-2/src/main/kotlin/b/Point.kt", "package b\n\nimport a.Point as APoint\n")
+        createFile("module-2/src/main/java/b/Facade.java", "package b;\n\nimport a.UtilsKt;\n")
+        createFile("module-2/src/main/kotlin/b/Other.kt", "package b\n\nimport a.Other\n")
+
+        val index = SourceReferenceIndex(indexFile, SourceFileReader(ImportParser()))
+        index.refresh(sourceRoots)
+
+        assertEquals(
+            setOf(
+                "module-2/src/main/kotlin/b/Timeout.kt",
+                "module-2/src/main/kotlin/b/Parse.kt",
+                "module-2/src/main/kotlin/b/Point.kt",
+                "module-2/src/main/java/b/Facade.java",
+            ),
+            (index.getDependents(changed.path) - changed.path).map(::relativePath).toSet(),
+        )
+    }
+
+    @Test
+    fun `Test find dependent files of nested classes and members`() {
+        val changed = createFile(
+            "module-1/src/main/kotlin/a/Outer.kt",
+            """
+            package a
+
+            class Outer {
+                class Inner {
+                    companion object {
+                        const val LIMIT = 10
+                    }
+                }
+                companion object {
+                    fun create() = Outer()
+                }
+            }
+            """.trimIndent(),
+        )
+        createFile("module-2/src/main/kotlin/b/Nested.kt", "package b\n\nimport a.Outer.Inner\n")
+        createFile("module-2/src/main/kotlin/b/Companion.kt", "package b\n\nimport a.Outer.Companion.create\n")
+        createFile("module-2/src/main/java/b/StaticNested.java", "package b;\n\nimport static a.Outer.Inner.LIMIT;\n")
+        createFile("module-2/src/main/java/b/NestedWildcard.java", "package b;\n\nimport a.Outer.*;\n")
+        createFile("module-2/src/main/java/b/Other.java", "package b;\n\nimport a.Other.Inner;\n")
+
+        val index = SourceReferenceIndex(indexFile, SourceFileReader(ImportParser()))
+        index.refresh(sourceRoots)
+
+        assertEquals(
+            setOf(
+                "module-2/src/main/kotlin/b/Nested.kt",
+                "module-2/src/main/kotlin/b/Companion.kt",
+                "module-2/src/main/java/b/StaticNested.java",
+                "module-2/src/main/java/b/NestedWildcard.java",
+            ),
+            (index.getDependents(changed.path) - changed.path).map(::relativePath).toSet(),
+        )
+    }
+
+    @Test
+    fun `Test refresh changed and removed files`() {
+        val changed = createFile("module-1/src/main/java/a/A.java", "package a;\n\npublic class A {}")
+        val explicit = createFile("module-2/src/main/java/b/B.java", "package b;\n\nimport a.A;\n\nclass B {}")
+        val removed = createFile("module-2/src/main/java/b/C.java", "package b;\n\nimport a.A;\n\nclass C {}")
+        SourceReferenceIndex(indexFile, SourceFileReader(ImportParser())).refresh(sourceRoots)
+
+        // Index is loaded from the file by another instance
+        explicit.writeText("package b;\n\nclass B { a.A a; }")
+        explicit.setLastModified(explicit.lastModified() - 10_000)
+        removed.delete()
+        createFile("module-2/src/main/java/b/D.java", "package b;\n\nimport a.A;\n\nclass D {}")
+        val index = SourceReferenceIndex(indexFile, SourceFileReader(ImportParser()))
+        index.refresh(sourceRoots)
+
+        assertEquals(
+            setOf("module-2/src/main/java/b/D.java"),
+            (index.getDependents(changed.path) - changed.path).map(::relativePath).toSet(),
+        )
+    }
+
+    private fun createFile(path: String, text: String) = File(tmpDir, path).apply {
+        parentFile.mkdirs()
+        writeText(text)
+    }
+
+    private fun relativePath(path: String) = File(path).relativeTo(tmpDir).path
+}
@@ -0,0 +1,99 @@
+package ru.fomenkov.plugin.repository
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import ru.fomenkov.plugin.repository.parser.JetifiedResourceParser
+import java.io.File
+import java.nio.file.Files
+import kotlin.test.assertEquals
+
+class TransformsIndexTest {
+
+    private val tmpDir = Files.createTempDirectory("greencat-transforms").toFile()
+    private val cachesDir = File(tmpDir, "caches")
+    private val indexFile = File(tmpDir, "transforms-index")
+
+    @AfterEach
+    fun tearDown() {
+        tmpDir.deleteRecursively()
+    }
+
+    @Test
+    fun `Test find transforms directories`() {
+        listOf("transforms-2", "transforms-10", "transforms-3", "modules-2").forEach { name -> File(cachesDir, name).mkdirs() }
+        assertEquals(
+            listOf("transforms-10", "transforms-3", "transforms-2"),
+            TransformsIndex.findCacheDirs(cachesDir.path).map(File::getName),
+        )
+    }
+
+    @Test
+    fun `Test index all transforms generations`() {
+        createFile("transforms-3/a1/transformed/jetified-kotlin-stdlib-1.5.31.jar")
+        createFile("transforms-3/a1/transformed/media-1.4.1.aar")
+        createFile("transforms-4/b2/transformed/jetified-core-1.54.4/jars/classes.jar")
+        createFile("transforms-4/b2/transformed/jetified-core-1.54.4/jars/libs/okio-2.8.0.jar")
+        createFile("transforms-4/b2/transformed/jetified-core-1.54.4/jars/classes.txt")
+
+        assertEquals(
+            setOf(
+                "transforms-3/a1/transformed/jetified-kotlin-stdlib-1.5.31.jar" to JetifiedJarRepository.Entry("kotlin-stdlib", "1.5.31"),
+                "transforms-3/a1/transformed/media-1.4.1.aar" to JetifiedJarRepository.Entry("media", "1.4.1"),
+                "transforms-4/b2/transformed/jetified-core-1.54.4/jars/classes.jar" to JetifiedJarRepository.Entry("core", "1.54.4"),
+                "transforms-4/b2/transformed/jetified-core-1.54.4/jars/libs/okio-2.8.0.jar" to JetifiedJarRepository.Entry("okio", "2.8.0"),
+            ),
+            refresh(),
+        )
+    }
+
+    @Test
+    fun `Test rescan changed directories only`() {
+        val unchangedJar = createFile("transforms-3/a1/transformed/media-1.4.1.jar")
+        createFile("transforms-3/b2/transformed/core-1.0.0.jar")
+        makeDirectoriesOlder()
+        refresh()
+
+        // Not visible until the directory is modified
+        keepModificationTimes(unchangedJar.parentFile) { unchangedJar.delete() }
+        createFile("transforms-3/b2/transformed/core-1.1.0.jar")
+        createFile("transforms-3/c3/transformed/annotation-1.2.0.jar")
+
+        assertEquals(
+            setOf(
+                "transforms-3/a1/transformed/media-1.4.1.jar" to JetifiedJarRepository.Entry("media", "1.4.1"),
+                "transforms-3/b2/transformed/core-1.0.0.jar" to JetifiedJarRepository.Entry("core", "1.0.0"),
+                "transforms-3/b2/transformed/core-1.1.0.jar" to JetifiedJarRepository.Entry("core", "1.1.0"),
+                "transforms-3/c3/transformed/annotation-1.2.0.jar" to JetifiedJarRepository.Entry("annotation", "1.2.0"),
+            ),
+            refresh(),
+        )
+        File(cachesDir, "transforms-3/b2").deleteRecursively()
+        unchangedJar.parentFile.setLastModified(System.currentTimeMillis())
+
+        assertEquals(
+            setOf("transforms-3/c3/transformed/annotation-1.2.0.jar" to JetifiedJarRepository.Entry("annotation", "1.2.0")),
+            refresh(),
+        )
+    }
+
+    private fun refresh() = TransformsIndex(indexFile, JetifiedResourceParser())
+        .refresh(TransformsIndex.findCacheDirs(cachesDir.path))
+        .map { resource -> File(resource.path).relativeTo(cachesDir).path to resource.entry }
+        .toSet()
+
+    private fun createFile(path: String) = File(cachesDir, path).apply {
+        parentFile.mkdirs()
+        writeText(path)
+    }
+
+    // Directories modified just now are always rescanned
+    private fun makeDirectoriesOlder() {
+        cachesDir.walk().filter(File::isDirectory).forEach { dir -> dir.setLastModified(dir.lastModified() - 60_000) }
+    }
+
+    private fun keepModificationTimes(dir: File, action: () -> Unit) {
+        val time = dir.lastModified()
+        action()
+        dir.setLastModified(time)
+    }
+}
@@ -0,0 +1,145 @@
+package ru.fomenkov.plugin.repository.parser
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.nio.file.Files
+import kotlin.test.assertEquals
+
+class DescriptorDecoderTest {
+
+    private val tmpDir = Files.createTempDirectory("greencat-descriptors").toFile()
+
+    @AfterEach
+    fun tearDown() {
+        tmpDir.deleteRecursively()
+    }
+
+    @Test
+    fun `Test decode module metadata descriptor`() {
+        val descriptor = DescriptorWriter()
+            .string("androidx.core").string("core").string("1.6.0").raw(0, 2, 1)
+            .string("apiElements-published").raw(1)
+            .string("androidx.annotation").string("annotation").string("1.2.0").raw(0)
+            .string("org.jetbrains.kotlin").string("kotlin-stdlib").string("1.5.31").raw(0, 0)
+            .string("runtimeElements-published").raw(1)
+            .reference("androidx.annotation").reference("annotation").reference("1.2.0").raw(0)
+            .string("androidx.collection").string("collection").reference("1.2.0").raw(0)
+            .string("androidx.lifecycle").string("lifecycle-runtime").string("2.3.1-α").raw(0)
+            .string("androidx.fragment").string("fragment").string("1.3.6 (beta)")
+            .toByteArray()
+
+        assertEquals(
+            setOf(
+                DescriptorDecoder.Dependency(artifact("androidx.core:core:1.6.0"), DescriptorDecoder.Scope.UNKNOWN, 1),
+                DescriptorDecoder.Dependency(artifact("androidx.annotation:annotation:1.2.0"), DescriptorDecoder.Scope.API, 2),
+                DescriptorDecoder.Dependency(artifact("org.jetbrains.kotlin:kotlin-stdlib:1.5.31"), DescriptorDecoder.Scope.API, 1),
+                DescriptorDecoder.Dependency(artifact("androidx.collection:collection:1.2.0"), DescriptorDecoder.Scope.RUNTIME, 1),
+                DescriptorDecoder.Dependency(artifact("androidx.lifecycle:lifecycle-runtime:2.3.1-α"), DescriptorDecoder.Scope.RUNTIME, 1),
+            ),
+            DescriptorDecoder(descriptor.inputStream()).decode().toSet(),
+        )
+    }
+
+    @Test
+    fun `Test decode POM descriptor`() {
+        val descriptor = DescriptorWriter()
+            .string("com.squareup.okio").string("okio").string("2.8.0").raw(3, 0)
+            .string("x").string("compile").raw(0)
+            .string("junit").string("junit").string("4.13").raw(0)
+            .reference("com.squareup.okio").reference("okio").reference("2.8.0").raw(0)
+            .toByteArray()
+
+        assertEquals(
+            mapOf(
+                artifact("com.squareup.okio:okio:2.8.0") to true,
+                artifact("junit:junit:4.13") to false,
+            ),
+            MetadataDescriptionParser().parse(writeFile("descriptor.bin", descriptor).path),
+        )
+    }
+
+    @Test
+    fun `Test descriptors cache`() {
+        val cacheFile = File(tmpDir, "descriptors")
+        val descriptor = writeFile(
+            "descriptor.bin",
+            DescriptorWriter().string("apiElements").string("androidx.core").string("core").string("1.6.0").toByteArray(),
+        )
+        val expected = mapOf(artifact("androidx.core:core:1.6.0") to true)
+        assertEquals(expected, MetadataDescriptionParser(cacheFile).parse(descriptor.path))
+
+        // Same modification time -> decoded dependencies are taken from cache
+        keepModificationTime(descriptor) { descriptor.writeBytes(byteArrayOf()) }
+        assertEquals(expected, MetadataDescriptionParser(cacheFile).parse(descriptor.path))
+
+        descriptor.writeBytes(DescriptorWriter().string("junit").string("junit").string("4.13").toByteArray())
+        descriptor.setLastModified(descriptor.lastModified() + 1_000)
+        assertEquals(mapOf(artifact("junit:junit:4.13") to false), MetadataDescriptionParser(cacheFile).parse(descriptor.path))
+        assertEquals(mapOf(artifact("junit:junit:4.13") to false), MetadataDescriptionParser(cacheFile).parse(descriptor.path))
+    }
+
+    private fun artifact(coordinates: String) = coordinates.split(':').let { (groupId, artifactId, version) ->
+        MetadataDescriptionParser.Artifact(groupId, artifactId, version)
+    }
+
+    private fun writeFile(name: String, bytes: ByteArray) = File(tmpDir, name).apply { writeBytes(bytes) }
+
+    private fun keepModificationTime(file: File, action: () -> Unit) {
+        val time = file.lastModified()
+        action()
+        file.setLastModified(time)
+    }
+
+    // Deduplicated Kryo strings with other fields of the descriptor as raw bytes
+    private class DescriptorWriter {
+
+        private val output = ByteArrayOutputStream()
+        private val strings = mutableListOf<String>()
+
+        fun string(value: String) = apply {
+            writeVarInt(strings.size)
+            strings += value
+
+            if (value.length > 1 && value.all { char -> char.code < 0x80 }) {
+                value.forEachIndexed { index, char ->
+                    output.write(if (index == value.lastIndex) char.code or 0x80 else char.code)
+                }
+            } else {
+                writeUtf8(value)
+            }
+        }
+
+        fun reference(value: String) = apply {
+            writeVarInt(strings.indexOf(value))
+        }
+
+        fun raw(vararg bytes: Int) = apply { bytes.forEach(output::write) }
+
+        fun toByteArray(): ByteArray = output.toByteArray()
+
+        private fun writeVarInt(value: Int) {
+            var remaining = value
+
+            while (remaining >= 0x80) {
+                output.write((remaining and 0x7F) or 0x80)
+                remaining = remaining ushr 7
+            }
+            output.write(remaining)
+        }
+
+        // Length + 1 with the highest bit set, 6 bits in the first byte
+        private fun writeUtf8(value: String) {
+            val length = value.length + 1
+
+            if (length < 0x40) {
+                output.write(length or 0x80)
+            } else {
+                output.write((length and 0x3F) or 0xC0)
+                writeVarInt(length ushr 6)
+            }
+            output.write(value.toByteArray(Charsets.UTF_8))
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package ru.fomenkov.plugin.repository.parser
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.nio.file.Files
+import kotlin.test.assertEquals
+
+class ModuleMetadataParserTest {
+
+    private val tmpDir = Files.createTempDirectory("greencat-module").toFile()
+
+    @AfterEach
+    fun tearDown() {
+        tmpDir.deleteRecursively()
+    }
+
+    @Test
+    fun `Test parse Android library metadata`() {
+        val file = writeFile(
+            "core-1.6.0.module",
+            """
+            {
+              "formatVersion": "1.1",
+              "variants": [
+                {
+                  "name": "releaseVariantReleaseApiPublication",
+                  "attributes": { "org.gradle.category": "library", "org.gradle.usage": "java-api" },
+                  "dependencies": [
+                    { "group": "androidx.annotation", "module": "annotation", "version": { "requires": "1.2.0" } },
+                    { "group": "androidx.compose", "module": "compose-bom", "version": { "requires": "1.0.0" },
+                      "attributes": { "org.gradle.category": "platform" } }
+                  ]
+                },
+                {
+                  "name": "releaseVariantReleaseRuntimePublication",
+                  "attributes": { "org.gradle.category": "library", "org.gradle.usage": "java-runtime" },
+                  "dependencies": [
+                    { "group": "androidx.annotation", "module": "annotation", "version": { "requires": "1.2.0" } },
+                    { "group": "androidx.lifecycle", "module": "lifecycle-runtime", "version": { "strictly": "2.3.1" } },
+                    { "group": "androidx.versionedparcelable", "module": "versionedparcelable" }
+                  ]
+                },
+                {
+                  "name": "sourcesElements",
+                  "attributes": { "org.gradle.category": "documentation", "org.gradle.usage": "java-runtime" },
+                  "dependencies": [
+                    { "group": "com.example", "module": "sources", "version": { "requires": "1.0" } }
+                  ]
+                }
+              ]
+            }
+            """.trimIndent(),
+        )
+        assertEquals(
+            mapOf(
+                artifact("androidx.annotation:annotation:1.2.0") to true,
+                artifact("androidx.lifecycle:lifecycle-runtime:2.3.1") to false,
+                artifact("androidx.versionedparcelable:versionedparcelable:") to false,
+            ),
+            ModuleMetadataParser().parse(file.path),
+        )
+    }
+
+    @Test
+    fun `Test parse Kotlin multiplatform metadata`() {
+        val file = writeFile(
+            "kotlinx-coroutines-core-1.5.2.module",
+            """
+            {
+              "variants": [
+                {
+                  "name": "jvmApiElements-published",
+                  "attributes": { "org.gradle.usage": "java-api", "org.jetbrains.kotlin.platform.type": "jvm" },
+                  "available-at": { "url": "../../kotlinx-coroutines-core-jvm/1.5.2/kotlinx-coroutines-core-jvm-1.5.2.module",
+                    "group": "org.jetbrains.kotlinx", "module": "kotlinx-coroutines-core-jvm", "version": "1.5.2" }
+                },
+                {
+                  "name": "jsApiElements-published",
+                  "attributes": { "org.gradle.usage": "kotlin-api", "org.jetbrains.kotlin.platform.type": "js" },
+                  "available-at": { "group": "org.jetbrains.kotlinx", "module": "kotlinx-coroutines-core-js", "version": "1.5.2" }
+                }
+              ]
+            }
+            """.trimIndent(),
+        )
+        assertEquals(
+            mapOf(artifact("org.jetbrains.kotlinx:kotlinx-coroutines-core-jvm:1.5.2") to true),
+            ModuleMetadataParser().parse(file.path),
+        )
+    }
+
+    private fun artifact(coordinates: String) = coordinates.split(':').let { (groupId, artifactId, version) ->
+        MetadataDescriptionParser.Artifact(groupId, artifactId, version)
+    }
+
+    private fun writeFile(name: String, text: String) = File(tmpDir, name).apply { writeText(text) }
+}
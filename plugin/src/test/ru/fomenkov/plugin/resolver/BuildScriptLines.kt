@@ -0,0 +1,40 @@
+package ru.fomenkov.plugin.resolver
+
+import ru.fomenkov.plugin.util.fromResources
+import java.io.File
+
+/**
+ * Lines of build.gradle files of the test project, normalized the same way as by [ProjectResolver]
+ */
+fun readTestProjectBuildScriptLines() = File(fromResources("test-project")).walk()
+    .filter { file -> file.name == ProjectResolver.BUILD_GRADLE_FILE_NAME }
+    .flatMap { file -> file.readLines() }
+    .map { line -> line.trim().replace('"', '\'') }
+    .filter(String::isNotBlank)
+    .toList()
+
+/**
+ * Classification the way it was done before [DependencyDeclarationClassifier]:
+ * collapse the line for each prefix check in order of priority
+ */
+fun classifyWithCollapse(line: String): DependencyDeclaration? {
+    fun String.collapse() = replace(" ", "").replace("(", "").trim()
+
+    return when {
+        line.collapse().startsWith("implementationfileTree") -> DependencyDeclaration.FILE_TREE_IMPLEMENTATION
+        line.collapse().startsWith("implementationfiles") -> DependencyDeclaration.FILES_IMPLEMENTATION
+        line.collapse().startsWith("apifiles") -> DependencyDeclaration.FILES_API
+        line.collapse().startsWith("implementationproject") -> DependencyDeclaration.PROJECT_IMPLEMENTATION
+        line.collapse().startsWith("debugImplementationproject") -> DependencyDeclaration.PROJECT_DEBUG_IMPLEMENTATION
+        line.collapse().startsWith("apiproject") -> DependencyDeclaration.PROJECT_API
+        line.collapse().startsWith("compileOnlyproject") -> DependencyDeclaration.PROJECT_COMPILE_ONLY
+        line.collapse().startsWith("androidTestImplementationproject") -> DependencyDeclaration.PROJECT_ANDROID_TEST_IMPLEMENTATION
+        line.collapse().startsWith("testImplementationproject") -> DependencyDeclaration.PROJECT_TEST_IMPLEMENTATION
+        line.collapse().startsWith("implementation") -> DependencyDeclaration.LIBRARY_IMPLEMENTATION
+        line.collapse().startsWith("apiLevel") -> DependencyDeclaration.API_LEVEL
+        line.collapse().startsWith("api") -> DependencyDeclaration.LIBRARY_API
+        line.collapse().startsWith("androidTestImplementation") -> DependencyDeclaration.LIBRARY_ANDROID_TEST_IMPLEMENTATION
+        line.collapse().startsWith("testImplementation") -> DependencyDeclaration.LIBRARY_TEST_IMPLEMENTATION
+        else -> null
+    }
+}
@@ -0,0 +1,33 @@
+package ru.fomenkov.plugin.resolver
+
+import ru.fomenkov.plugin.util.measureNanos
+import kotlin.random.Random
+
+/**
+ * Classifies 10k, 100k and 500k lines sampled from the test project build scripts with the prefix trie
+ * and with [classifyWithCollapse], after a few warm-up rounds
+ */
+object DependencyDeclarationClassifierBenchmark {
+
+    private const val WARM_UP_ROUNDS = 3
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val fixtureLines = readTestProjectBuildScriptLines()
+
+        listOf(10_000, 100_000, 500_000).forEach { linesCount ->
+            val random = Random(linesCount)
+            val lines = List(linesCount) { index ->
+                // Vary module names and versions so lines are not the same strings
+                fixtureLines[random.nextInt(fixtureLines.size)].replace("module-", "module-$index-")
+            }
+            repeat(WARM_UP_ROUNDS) {
+                lines.forEach(::classifyWithCollapse)
+                lines.forEach(DependencyDeclarationClassifier::classify)
+            }
+            val collapseTime = measureNanos { lines.forEach(::classifyWithCollapse) }
+            val trieTime = measureNanos { lines.forEach(DependencyDeclarationClassifier::classify) }
+            println("$linesCount lines: trie = ${trieTime / 1_000_000} ms, collapse = ${collapseTime / 1_000_000} ms")
+        }
+    }
+}
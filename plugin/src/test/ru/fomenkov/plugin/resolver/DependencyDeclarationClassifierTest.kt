@@ -0,0 +1,51 @@
+package ru.fomenkov.plugin.resolver
+
+import org.junit.jupiter.api.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class DependencyDeclarationClassifierTest {
+
+    @Test
+    fun `Test classify dependency declarations`() {
+        mapOf(
+            "implementation files('a.jar')" to DependencyDeclaration.FILES_IMPLEMENTATION,
+            "api files ('a.jar')" to DependencyDeclaration.FILES_API,
+            "implementation fileTree(dir: 'libs')" to DependencyDeclaration.FILE_TREE_IMPLEMENTATION,
+            "implementation(project(':a'))" to DependencyDeclaration.PROJECT_IMPLEMENTATION,
+            "api  project  ':a'" to DependencyDeclaration.PROJECT_API,
+            "debugImplementation project(':a')" to DependencyDeclaration.PROJECT_DEBUG_IMPLEMENTATION,
+            "compileOnly   project(':a')" to DependencyDeclaration.PROJECT_COMPILE_ONLY,
+            "testImplementation  project(':a')" to DependencyDeclaration.PROJECT_TEST_IMPLEMENTATION,
+            "androidTestImplementation   project(':a')" to DependencyDeclaration.PROJECT_ANDROID_TEST_IMPLEMENTATION,
+            "implementation 'a:b:1.0'" to DependencyDeclaration.LIBRARY_IMPLEMENTATION,
+            "api ('a:b:1.0')" to DependencyDeclaration.LIBRARY_API,
+            "testImplementation 'a:b:1.0'" to DependencyDeclaration.LIBRARY_TEST_IMPLEMENTATION,
+            "androidTestImplementation 'a:b:1.0'" to DependencyDeclaration.LIBRARY_ANDROID_TEST_IMPLEMENTATION,
+            "apiLevel = 31" to DependencyDeclaration.API_LEVEL,
+        ).forEach { (line, declaration) ->
+            assertEquals(declaration, DependencyDeclarationClassifier.classify(line), line)
+        }
+        listOf("", "dependencies {", "compileOnly 'a:b:1.0'", "ap", "apply plugin: 'a'", "implementatio 'a:b'").forEach { line ->
+            assertEquals(null, DependencyDeclarationClassifier.classify(line), line)
+        }
+    }
+
+    @Test
+    fun `Test classification matches collapsed prefix checks`() {
+        val lines = readTestProjectBuildScriptLines()
+
+        assertTrue(lines.isNotEmpty())
+        lines.forEach { line ->
+            assertEquals(classifyWithCollapse(line), DependencyDeclarationClassifier.classify(line), line)
+        }
+    }
+
+    @Test
+    fun `Test classify untrimmed line from start index`() {
+        val line = "\t    api project(':a')"
+
+        assertEquals(DependencyDeclaration.PROJECT_API, DependencyDeclarationClassifier.classify(line, startIndex = 5))
+        assertEquals(null, DependencyDeclarationClassifier.classify(line))
+    }
+}
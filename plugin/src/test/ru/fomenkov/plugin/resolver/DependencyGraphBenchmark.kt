@@ -0,0 +1,30 @@
+package ru.fomenkov.plugin.resolver
+
+import ru.fomenkov.plugin.util.measureNanos
+import java.util.*
+
+/**
+ * Transitive dependencies of every module in synthetic projects of 500, 2,000 and 5,000 modules,
+ * computed by [DependencyGraph] and by the fixpoint loop. Both are measured over all modules
+ */
+object DependencyGraphBenchmark {
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        listOf(500, 2_000, 5_000).forEach { modulesCount ->
+            val modules = createSyntheticProject(modulesCount, Random(modulesCount.toLong()))
+            lateinit var graph: DependencyGraph
+            val graphTime = measureNanos {
+                graph = DependencyGraph(modules, moduleNameToPath = modules.keys.associateBy { it })
+                modules.keys.forEach(graph::getAllDependencies)
+            }
+            val fixpointTime = measureNanos {
+                modules.keys.forEach { modulePath -> getAllModuleDependenciesWithFixpoint(modulePath, modules) }
+            }
+            println(
+                "$modulesCount modules, ${graph.dependenciesCount} dependencies: " +
+                    "bitset graph = ${graphTime / 1_000_000} ms, fixpoint = ${fixpointTime / 1_000_000} ms"
+            )
+        }
+    }
+}
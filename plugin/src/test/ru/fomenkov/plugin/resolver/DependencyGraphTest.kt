@@ -0,0 +1,97 @@
+package ru.fomenkov.plugin.resolver
+
+import org.junit.jupiter.api.Test
+import java.util.*
+import kotlin.test.assertEquals
+
+class DependencyGraphTest {
+
+    @Test
+    fun `Test cyclic API dependencies`() {
+        val graph = mapOf(
+            "app" to setOf(
+                Dependency.Project(moduleName = "m1", relation = Relation.IMPLEMENTATION),
+            ),
+            "m1" to setOf(
+                Dependency.Project(moduleName = "m2", relation = Relation.API),
+                Dependency.Library(artifact = "com.android:libA", version = "1.0", relation = Relation.API),
+            ),
+            "m2" to setOf(
+                Dependency.Project(moduleName = "m1", relation = Relation.API),
+                Dependency.Project(moduleName = "m3", relation = Relation.COMPILE_ONLY),
+            ),
+            "m3" to setOf(
+                Dependency.Files(modulePath = "m3", filePath = "libB.jar", relation = Relation.API),
+                Dependency.Library(artifact = "com.android:libC", version = "1.0", relation = Relation.IMPLEMENTATION),
+            ),
+        ).toGraph()
+
+        assertEquals(
+            setOf(
+                Dependency.Project(moduleName = "m1", relation = Relation.IMPLEMENTATION),
+                Dependency.Project(moduleName = "m2", relation = Relation.IMPLEMENTATION),
+                Dependency.Project(moduleName = "m3", relation = Relation.IMPLEMENTATION),
+                Dependency.Library(artifact = "com.android:libA", version = "1.0", relation = Relation.IMPLEMENTATION),
+                Dependency.Files(modulePath = "m3", filePath = "libB.jar", relation = Relation.IMPLEMENTATION),
+            ),
+            graph.getAllDependencies("app"),
+        )
+        assertEquals(
+            setOf(
+                Dependency.Project(moduleName = "m1", relation = Relation.IMPLEMENTATION),
+                Dependency.Project(moduleName = "m2", relation = Relation.IMPLEMENTATION),
+                Dependency.Project(moduleName = "m3", relation = Relation.IMPLEMENTATION),
+                Dependency.Library(artifact = "com.android:libA", version = "1.0", relation = Relation.IMPLEMENTATION),
+                Dependency.Files(modulePath = "m3", filePath = "libB.jar", relation = Relation.IMPLEMENTATION),
+            ),
+            graph.getAllDependencies("m1"),
+        )
+    }
+
+    @Test
+    fun `Test ignored and unknown dependencies`() {
+        val graph = DependencyGraph(
+            modules = mapOf(
+                "app" to setOf(
+                    Dependency.Project(moduleName = "m1", relation = Relation.IMPLEMENTATION),
+                    Dependency.Project(moduleName = "unknown", relation = Relation.API),
+                    Dependency.Library(artifact = "com.android:ignored", version = "1.0", relation = Relation.API),
+                ),
+                "m1" to setOf(
+                    Dependency.Project(moduleName = "ignored", relation = Relation.API),
+                ),
+                "ignored/path" to setOf(
+                    Dependency.Library(artifact = "com.android:libA", version = "1.0", relation = Relation.API),
+                ),
+            ),
+            moduleNameToPath = mapOf("app" to "app", "m1" to "m1", "ignored" to "ignored/path"),
+            isIgnored = { dep ->
+                dep is Dependency.Project && dep.moduleName == "ignored" ||
+                    dep is Dependency.Library && dep.artifact == "com.android:ignored"
+            },
+        )
+        assertEquals(
+            setOf(Dependency.Project(moduleName = "m1", relation = Relation.IMPLEMENTATION)),
+            graph.getAllDependencies("app"),
+        )
+    }
+
+    @Test
+    fun `Test synthetic module graph matches fixpoint loop`() {
+        val modules = createSyntheticProject(MODULES_COUNT, Random(MODULES_COUNT.toLong()))
+        val graph = modules.toGraph()
+
+        modules.keys.forEach { modulePath ->
+            assertEquals(getAllModuleDependenciesWithFixpoint(modulePath, modules), graph.getAllDependencies(modulePath))
+        }
+    }
+
+    private fun Map<String, Set<Dependency>>.toGraph() = DependencyGraph(
+        modules = this,
+        moduleNameToPath = keys.associateBy { it }, // Map module name to path for testing
+    )
+
+    private companion object {
+        const val MODULES_COUNT = 200
+    }
+}
@@ -0,0 +1,65 @@
+package ru.fomenkov.plugin.resolver
+
+import java.util.*
+import kotlin.math.min
+
+/**
+ * Each module depends on a few modules declared before it, some of them with API relation,
+ * and on libraries from the shared pool
+ */
+fun createSyntheticProject(modulesCount: Int, random: Random): Map<String, Set<Dependency>> {
+    val libraries = (0 until modulesCount / 2).map { index -> "com.example:lib-$index" }
+
+    return (0 until modulesCount).associate { index ->
+        val projects = (0 until min(index, PROJECT_DEPS)).map {
+            Dependency.Project(
+                moduleName = "module-${random.nextInt(index)}",
+                relation = if (random.nextInt(100) < API_PERCENT) Relation.API else Relation.IMPLEMENTATION,
+            )
+        }
+        val libs = (0 until LIBRARY_DEPS).map {
+            Dependency.Library(
+                artifact = libraries[random.nextInt(libraries.size)],
+                version = "1.0",
+                relation = if (random.nextInt(100) < API_PERCENT) Relation.API else Relation.IMPLEMENTATION,
+            )
+        }
+        "module-$index" to (projects + libs).toSet()
+    }
+}
+
+/**
+ * Transitive dependencies the way they were computed before [DependencyGraph]:
+ * fixpoint loop over flattened dependency sets for each module separately
+ */
+fun getAllModuleDependenciesWithFixpoint(modulePath: String, modules: Map<String, Set<Dependency>>): Set<Dependency> {
+    val moduleDeps = modules.getValue(modulePath).toMutableSet()
+    val tempDeps = mutableSetOf<Dependency>()
+    val resolvedModulePaths = mutableSetOf<String>()
+    var hasUnresolvedProjects = true
+
+    while (hasUnresolvedProjects) {
+        moduleDeps.forEach { dep ->
+            when (dep) {
+                is Dependency.Project -> {
+                    tempDeps += dep.copy(relation = Relation.IMPLEMENTATION)
+
+                    if (resolvedModulePaths.add(dep.moduleName)) {
+                        tempDeps += modules.getValue(dep.moduleName).filter { project -> project.isTransitive() }
+                    }
+                }
+                is Dependency.Library -> tempDeps += dep.copy(relation = Relation.IMPLEMENTATION)
+                is Dependency.Files -> tempDeps += dep.copy(relation = Relation.IMPLEMENTATION)
+            }
+        }
+        moduleDeps.clear()
+        moduleDeps += tempDeps
+        tempDeps.clear()
+        hasUnresolvedProjects = moduleDeps.any { project -> project.isTransitive() }
+    }
+    return moduleDeps
+}
+
+private const val PROJECT_DEPS = 6
+private const val LIBRARY_DEPS = 8
+private const val API_PERCENT = 30
@@ -0,0 +1,61 @@
+package ru.fomenkov.plugin.task.compile
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.nio.file.Files
+import kotlin.test.assertEquals
+import kotlin.test.assertNotEquals
+
+class ClasspathStampsTest {
+
+    private val tmpDir = Files.createTempDirectory("greencat-stamps").toFile()
+    private val gradleDir = File(tmpDir, ".gradle")
+    private val historyFile = File(gradleDir, "7.4/executionHistory/executionHistory.bin")
+    private val classDir = File(tmpDir, "build/classes")
+
+    @AfterEach
+    fun tearDown() {
+        tmpDir.deleteRecursively()
+    }
+
+    @Test
+    fun `Test directory stamps are kept until Gradle runs tasks`() {
+        createFile(historyFile, "history")
+        createFile(File(classDir, "a/A.class"), "A")
+        val stamps = ClasspathStamps(gradleDir)
+        stamps.refresh()
+        val stamp = stamps.get(classDir.path)
+
+        createFile(File(classDir, "a/B.class"), "B")
+        stamps.refresh()
+        assertEquals(stamp, stamps.get(classDir.path))
+
+        createFile(historyFile, "history updated")
+        stamps.refresh()
+        assertNotEquals(stamp, stamps.get(classDir.path))
+    }
+
+    @Test
+    fun `Test stamps without Gradle execution history`() {
+        createFile(File(classDir, "a/A.class"), "A")
+        val jarFile = createFile(File(tmpDir, "libs/a.jar"), "jar")
+        val stamps = ClasspathStamps(gradleDir)
+        stamps.refresh()
+        val dirStamp = stamps.get(classDir.path)
+        val jarStamp = stamps.get(jarFile.path)
+
+        createFile(File(classDir, "a/B.class"), "B")
+        createFile(jarFile, "jar updated")
+        stamps.refresh()
+
+        assertNotEquals(dirStamp, stamps.get(classDir.path))
+        assertNotEquals(jarStamp, stamps.get(jarFile.path))
+        assertEquals("-", stamps.get(File(tmpDir, "missing").path))
+    }
+
+    private fun createFile(file: File, text: String) = file.apply {
+        parentFile.mkdirs()
+        writeText(text)
+    }
+}
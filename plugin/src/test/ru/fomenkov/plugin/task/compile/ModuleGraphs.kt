@@ -0,0 +1,41 @@
+package ru.fomenkov.plugin.task.compile
+
+import java.util.*
+
+/**
+ * Several layers of modules with random dependencies on the previous layer, plus a long chain
+ * of small modules and a few slow independent ones
+ *
+ * @return module dependencies and task durations in milliseconds
+ */
+fun createWideAndDeepGraph(slowModulesCount: Int): Pair<Map<String, Set<String>>, Map<String, Long>> {
+    val random = Random(42)
+    val dependencies = mutableMapOf<String, Set<String>>()
+    val durations = mutableMapOf<String, Long>()
+    var previousLayer = emptyList<String>()
+
+    repeat(LAYERS) { layer ->
+        val modules = (0 until LAYER_WIDTH).map { index -> "layer-$layer-$index" }
+
+        modules.forEach { moduleName ->
+            dependencies[moduleName] = previousLayer.shuffled(random).take(2).toSet()
+            durations[moduleName] = 5L + random.nextInt(25)
+        }
+        previousLayer = modules
+    }
+    repeat(CHAIN_LENGTH) { index ->
+        val moduleName = "chain-$index"
+        dependencies[moduleName] = if (index == 0) emptySet() else setOf("chain-${index - 1}")
+        durations[moduleName] = 15
+    }
+    repeat(slowModulesCount) { index ->
+        val moduleName = "slow-$index"
+        dependencies[moduleName] = emptySet()
+        durations[moduleName] = 120
+    }
+    return dependencies to durations
+}
+
+private const val LAYERS = 4
+private const val LAYER_WIDTH = 6
+private const val CHAIN_LENGTH = 8
@@ -0,0 +1,45 @@
+package ru.fomenkov.plugin.task.compile
+
+import ru.fomenkov.plugin.task.resolve.CompilationOrderResolver
+import ru.fomenkov.plugin.util.measureNanos
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * Sleeping module tasks of [createWideAndDeepGraph], run by [ModuleScheduler] and in rounds of compilation order,
+ * where each round waits for its slowest module. Prints total time of both
+ */
+object ModuleSchedulerBenchmark {
+
+    private const val PARALLELISM = 4
+
+    @JvmStatic
+    fun main(args: Array<String>) {
+        val executor = Executors.newFixedThreadPool(PARALLELISM)
+        val (dependencies, durations) = createWideAndDeepGraph(slowModulesCount = PARALLELISM / 2)
+
+        try {
+            val roundsTime = measureNanos { runRounds(dependencies, durations, executor) }
+            val schedulerTime = measureNanos {
+                ModuleScheduler(dependencies, executor, PARALLELISM, weight = durations::getValue).run(
+                    task = { moduleName -> Thread.sleep(durations.getValue(moduleName)) },
+                    isSuccessful = { true },
+                )
+            }
+            println("${dependencies.size} modules, parallelism $PARALLELISM: rounds = ${roundsTime / 1_000_000} ms, scheduler = ${schedulerTime / 1_000_000} ms")
+        } finally {
+            executor.shutdown()
+        }
+    }
+
+    private fun runRounds(dependencies: Map<String, Set<String>>, durations: Map<String, Long>, executor: ExecutorService) {
+        val orderMap = CompilationOrderResolver().getModulesCompilationOrder(dependencies)
+
+        orderMap.values.toSortedSet().forEach { order ->
+            orderMap.filterValues { value -> value == order }.keys
+                .map { moduleName -> executor.submit(Callable { Thread.sleep(durations.getValue(moduleName)) }) }
+                .forEach { future -> future.get() }
+        }
+    }
+}
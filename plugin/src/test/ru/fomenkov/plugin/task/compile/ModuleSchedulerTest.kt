@@ -0,0 +1,110 @@
+package ru.fomenkov.plugin.task.compile
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertTrue
+
+class ModuleSchedulerTest {
+
+    private val executor = Executors.newFixedThreadPool(PARALLELISM)
+
+    @AfterEach
+    fun tearDown() {
+        executor.shutdown()
+    }
+
+    @Test
+    fun `Test modules run after their dependencies`() {
+        val dependencies = mapOf(
+            "app" to setOf("feature-a", "feature-b", "core"),
+            "feature-a" to setOf("core"),
+            "feature-b" to setOf("core", "feature-b"),
+            "core" to setOf("unchanged"),
+        )
+        val finished = ConcurrentHashMap.newKeySet<String>()
+        val results = ModuleScheduler(dependencies, executor, PARALLELISM).run(
+            task = { moduleName ->
+                dependencies.getValue(moduleName)
+                    .filter { dep -> dep != moduleName && dep in dependencies }
+                    .forEach { dep -> assertTrue(dep in finished, "$moduleName started before $dep") }
+                finished += moduleName
+                moduleName
+            },
+            isSuccessful = { true },
+        )
+        assertEquals(setOf("app", "feature-a", "feature-b", "core"), results.toSet())
+        assertEquals("core", results.first())
+        assertEquals("app", results.last())
+    }
+
+    @Test
+    fun `Test critical path lengths`() {
+        val scheduler = ModuleScheduler(
+            dependencies = mapOf(
+                "A" to emptySet(),
+                "B" to setOf("A"),
+                "C" to setOf("A", "B"),
+                "D" to emptySet(),
+            ),
+            executor = executor,
+            parallelism = PARALLELISM,
+            weight = { moduleName -> if (moduleName == "D") 10 else 2 },
+        )
+        assertEquals(mapOf("A" to 6L, "B" to 4L, "C" to 2L, "D" to 10L), scheduler.criticalPaths)
+    }
+
+    @Test
+    fun `Test dependents are not started after failure`() {
+        val dependencies = mapOf(
+            "A" to emptySet(),
+            "B" to setOf("A"),
+            "C" to setOf("B"),
+        )
+        val results = ModuleScheduler(dependencies, executor, PARALLELISM).run(
+            task = { moduleName -> moduleName },
+            isSuccessful = { moduleName -> moduleName != "B" },
+        )
+        assertEquals(listOf("A", "B"), results)
+    }
+
+    @Test
+    fun `Test cyclic dependencies`() {
+        val dependencies = mapOf(
+            "A" to setOf("B"),
+            "B" to setOf("A"),
+        )
+        assertFailsWith<IllegalStateException> {
+            ModuleScheduler(dependencies, executor, PARALLELISM).run(task = { it }, isSuccessful = { true })
+        }
+    }
+
+    @Test
+    fun `Test wide and deep module graph`() {
+        val (dependencies, durations) = createWideAndDeepGraph(slowModulesCount = PARALLELISM / 2)
+        val finished = ConcurrentHashMap.newKeySet<String>()
+        val running = AtomicInteger()
+        val maxRunning = AtomicInteger()
+        val parallelism = PARALLELISM / 2 // Less than executor threads, so the limit is kept by scheduler
+        val results = ModuleScheduler(dependencies, executor, parallelism, weight = durations::getValue).run(
+            task = { moduleName ->
+                maxRunning.accumulateAndGet(running.incrementAndGet()) { max, count -> maxOf(max, count) }
+                dependencies.getValue(moduleName).forEach { dep -> assertTrue(dep in finished, "$moduleName started before $dep") }
+                finished += moduleName
+                running.decrementAndGet()
+                moduleName
+            },
+            isSuccessful = { true },
+        )
+        assertEquals(dependencies.keys, results.toSet())
+        assertTrue(maxRunning.get() <= parallelism, "Running ${maxRunning.get()} tasks with parallelism $parallelism")
+    }
+
+    private companion object {
+        const val PARALLELISM = 4
+    }
+}
@@ -0,0 +1,76 @@
+package ru.fomenkov.plugin.task.resolve
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import ru.fomenkov.plugin.resolver.ModuleDeclaration
+import java.io.File
+import java.nio.file.Files
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class ProjectModelTest {
+
+    private val tmpDir = Files.createTempDirectory("greencat-model").toFile()
+    private val modelFile = File(tmpDir, "model")
+    private val project = ProjectModel.Project(
+        fingerprint = "project-1",
+        declarations = setOf(ModuleDeclaration(name = "app", path = "app"), ModuleDeclaration(name = "core", path = "lib/core")),
+        properties = mapOf("kotlinVersion" to "1.7.10"),
+    )
+    private val module = ProjectModel.Module(
+        name = "app",
+        fingerprint = "app-1",
+        children = setOf("app", "core"),
+        classpath = listOf("/app/build/classes", "/gradle/caches/kotlin-stdlib-1.7.10.jar"),
+        unversionedLibraries = listOf("androidx.core:core"),
+    )
+
+    @AfterEach
+    fun tearDown() {
+        tmpDir.deleteRecursively()
+    }
+
+    @Test
+    fun `Test save and load project model`() {
+        ProjectModel(modelFile).let { model ->
+            model.setProject(project)
+            model.putModule(module)
+            model.propertyScripts = setOf("build.gradle", "lib/core/build.gradle")
+            model.save()
+        }
+        val model = ProjectModel(modelFile).load()
+
+        assertEquals(project, model.project)
+        assertEquals(setOf("build.gradle", "lib/core/build.gradle"), model.propertyScripts)
+        assertEquals(module, model.getModule("app"))
+        assertNull(model.getModule("core"))
+    }
+
+    @Test
+    fun `Test modules are dropped when project fingerprint changes`() {
+        val model = ProjectModel(modelFile)
+        model.setProject(project)
+        model.putModule(module)
+
+        model.setProject(project.copy(properties = emptyMap()))
+        assertEquals(module, model.getModule("app"))
+
+        model.setProject(project.copy(fingerprint = "project-2"))
+        assertNull(model.getModule("app"))
+    }
+
+    @Test
+    fun `Test invalid model file`() {
+        modelFile.writeText("classpath")
+        val model = ProjectModel(modelFile).load()
+
+        assertNull(model.project)
+        assertNull(model.getModule("app"))
+
+        model.setProject(project)
+        assertTrue(!model.removeModule("app"))
+        model.save()
+        assertEquals(project, ProjectModel(modelFile).load().project)
+    }
+}
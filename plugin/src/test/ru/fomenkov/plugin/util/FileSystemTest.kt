@@ -0,0 +1,80 @@
+package ru.fomenkov.plugin.util
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Test
+import java.io.File
+import java.nio.file.Files
+import java.util.Collections
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class FileSystemTest {
+
+    private val tmpDir = Files.createTempDirectory("greencat-fs").toFile()
+
+    @AfterEach
+    fun tearDown() {
+        tmpDir.deleteRecursively()
+    }
+
+    @Test
+    fun `Test find files`() {
+        createFile("src/A.java")
+        createFile("src/a/b/B.kt")
+        createFile("src/a/b/c/C.class")
+        createFile("other/D.kt")
+        assertTrue(createSymlink(File(tmpDir, "other").path, File(tmpDir, "src").path))
+
+        assertEquals(
+            setOf("src/A.java", "src/a/b/B.kt", "src/a/b/c/C.class"),
+            findFiles(File(tmpDir, "src").path).map(::relativePath).toSet(),
+        )
+        assertEquals(
+            setOf("src/a/b/B.kt"),
+            findFilesWithExtension(File(tmpDir, "src").path, "kt").map(::relativePath).toSet(),
+        )
+        assertEquals(emptyList(), findFiles(File(tmpDir, "missing").path))
+    }
+
+    @Test
+    fun `Test delete recursively`() {
+        val target = createFile("target/A.kt")
+        createFile("dir/a/b/B.kt")
+        assertTrue(createSymlink(target.parent, File(tmpDir, "dir/a").path))
+        deleteRecursively(File(tmpDir, "dir").path)
+
+        assertFalse(File(tmpDir, "dir").exists())
+        assertTrue(target.exists())
+    }
+
+    @Test
+    fun `Test crawl with pruning`() {
+        createFile("cache/a1/transformed/core-1.0/jars/classes.jar")
+        createFile("cache/a1/other/media-1.0/jars/classes.jar")
+        createFile("cache/b2/transformed/annotation-1.0/res/values.xml")
+        createFile("cache/b2/transformed/collection-1.0.jar")
+        val entered = Collections.synchronizedList(mutableListOf<String>())
+        val crawler = DirectoryCrawler(
+            maxDepth = 3,
+            enter = { entry ->
+                val isEntered = entry.depth == 1 || entry.name == "transformed"
+                if (isEntered) entered += entry.name
+                isEntered
+            },
+        ) { entry ->
+            entry.name.takeIf { entry.depth == 3 && entry.attrs.isDirectory }
+        }
+        val roots = listOf("cache", "missing").map { path -> File(tmpDir, path).path }
+
+        assertEquals(setOf("core-1.0", "annotation-1.0"), crawler.crawl(roots).toSet())
+        assertEquals(listOf("a1", "b2", "transformed", "transformed"), entered.sorted())
+    }
+
+    private fun createFile(path: String) = File(tmpDir, path).apply {
+        parentFile.mkdirs()
+        writeText(path)
+    }
+
+    private fun relativePath(path: String) = File(path).relativeTo(tmpDir).path
+}
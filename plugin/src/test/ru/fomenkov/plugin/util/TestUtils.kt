@@ -1,3 +1,12 @@
 package ru.fomenkov.plugin.util
 
-fun fromResources(fileName: String) = "src/res/$fileName"
\ No newline at end of file
+fun fromResources(fileName: String) = "src/res/$fileName"
+
+/**
+ * Wall-clock time of the action for benchmark harnesses. Never assert on it in tests
+ */
+fun measureNanos(action: () -> Unit): Long {
+    val startTime = System.nanoTime()
+    action()
+    return System.nanoTime() - startTime
+}
@@ -0,0 +1,58 @@
+package ru.fomenkov.plugin.util
+
+import org.junit.jupiter.api.Test
+import ru.fomenkov.plugin.repository.VersionConflictResolver
+import ru.fomenkov.plugin.repository.parser.MetadataDescriptionParser
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class VersionTest {
+
+    @Test
+    fun `Test version ordering`() {
+        val versions = listOf(
+            "1.0-dev",
+            "1.0-alpha01",
+            "1.0-beta1",
+            "1.0-rc1",
+            "1.0",
+            "1.0.1",
+            "1.2",
+            "1.10",
+            "1.10.0.1",
+            "2.0.0-rc1",
+            "2.0.0-SNAPSHOT",
+            "2.0.0",
+            "20210101",
+        )
+        assertEquals(versions, versions.shuffled().sortedBy(Version::parse))
+        assertEquals(Version.parse("1.0.0"), Version.parse("1-0-0"))
+        assertEquals(Version.parse("1.01"), Version.parse("1.1"))
+        assertTrue(Version.parse("1.0-alpha02") > Version.parse("1.0-alpha01"))
+        assertTrue(Version.parse("8.12.0") > Version.parse("8.11.9999999999"))
+    }
+
+    @Test
+    fun `Test version conflict resolution`() {
+        val artifacts = listOf(
+            artifact("androidx.core:core:1.6.0"),
+            artifact("androidx.core:core:1.10.1"),
+            artifact("androidx.core:core:1.9.0"),
+            artifact("androidx.core:core-ktx:1.6.0"),
+            artifact("com.example:core:2.0.0-beta1"),
+            artifact("com.example:core:1.5.0"),
+        )
+        assertEquals(
+            setOf(
+                artifact("androidx.core:core:1.10.1"),
+                artifact("androidx.core:core-ktx:1.6.0"),
+                artifact("com.example:core:2.0.0-beta1"),
+            ),
+            VersionConflictResolver.resolve(artifacts),
+        )
+    }
+
+    private fun artifact(coordinates: String) = coordinates.split(':').let { (groupId, artifactId, version) ->
+        MetadataDescriptionParser.Artifact(groupId, artifactId, version)
+    }
+}
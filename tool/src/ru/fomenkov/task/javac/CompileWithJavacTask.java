@@ -1,9 +1,20 @@
 package ru.fomenkov.task.javac;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
 import ru.fomenkov.GreenCat;
 import ru.fomenkov.Module;
 import ru.fomenkov.command.CommandExecutor;
@@ -19,9 +30,13 @@ import ru.fomenkov.telemetry.Telemetry;
 
 public class CompileWithJavacTask implements Task<ModuleDiffMessage, CompileWithJavacMessage> {
 
+    // Shared by in-process and command line compilation
+    private static final List<String> COMPILER_OPTIONS = Arrays.asList("-source", "1.8", "-target", "1.8", "-g"); // TODO: java version
+
     private final String classpath;
     private final String projectPath;
     private final File objDir;
+    private final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
 
     public CompileWithJavacTask(String projectPath, String classpath, File objDir) {
         this.projectPath = projectPath;
@@ -51,6 +66,9 @@ public class CompileWithJavacTask implements Task<ModuleDiffMessage, CompileWith
     }
 
     private boolean compileWithJavac(Set<File> javaFiles, String classpath) {
+        if (compiler != null) {
+            return compileInProcess(javaFiles, classpath);
+        }
         String cmd = CommandLineBuilder.create("which javac").build();
         List<String> output = CommandExecutor.execOnInputStream(cmd);
 
@@ -67,10 +85,8 @@ public class CompileWithJavacTask implements Task<ModuleDiffMessage, CompileWith
 
         cmd = CommandLineBuilder.create("javac")
                 .add(new Parameter("-d", objDir.getAbsolutePath()))
-                .add(new Parameter("-source 1.8")) // TODO: java version
-                .add(new Parameter("-target 1.8")) // TODO: java version
+                .add(new Parameter(String.join(" ", COMPILER_OPTIONS)))
                 .add(new Parameter("-encoding UTF-8"))
-                .add(new Parameter("-g"))
                 .add(new Parameter("-cp", classpath))
 
 //                .add(new Parameter("-sourcepath"))
@@ -108,4 +124,47 @@ public class CompileWithJavacTask implements Task<ModuleDiffMessage, CompileWith
         }
         return compilationSuccess;
     }
+
+    private boolean compileInProcess(Set<File> javaFiles, String classpath) {
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        List<File> classpathFiles = new ArrayList<>();
+
+        for (String path : classpath.split(File.pathSeparator)) {
+            if (!path.isEmpty()) {
+                classpathFiles.add(new File(path));
+            }
+        }
+        boolean compilationSuccess;
+
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+            fileManager.setLocation(StandardLocation.CLASS_OUTPUT, Arrays.asList(objDir));
+            fileManager.setLocation(StandardLocation.CLASS_PATH, classpathFiles);
+
+            Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjectsFromFiles(javaFiles);
+            compilationSuccess = compiler.getTask(null, fileManager, diagnostics, COMPILER_OPTIONS, null, units).call();
+
+        } catch (Exception e) {
+            Telemetry.err("Java compiler error: %s", e.getMessage());
+            return false;
+        }
+        for (Diagnostic<? extends JavaFileObject> diagnostic : diagnostics.getDiagnostics()) {
+            String source = diagnostic.getSource() == null ? "" : diagnostic.getSource().getName() + ":" + diagnostic.getLineNumber() + ": ";
+            String line = source + diagnostic.getKind().name().toLowerCase() + ": " + diagnostic.getMessage(null);
+
+            // Passed as an argument, so '%' in messages isn't taken for a format specifier
+            if (diagnostic.getKind() == Diagnostic.Kind.ERROR) {
+                Telemetry.err("%s", line);
+            } else {
+                Telemetry.log("%s", line);
+            }
+        }
+        Telemetry.log("");
+
+        if (compilationSuccess) {
+            Telemetry.log("Compilation success");
+        } else {
+            Telemetry.err("Compilation failed");
+        }
+        return compilationSuccess;
+    }
 }